@@ -18,6 +18,7 @@
 package com.android.internal.telephony;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.compat.annotation.UnsupportedAppUsage;
 import android.content.Context;
 import android.os.AsyncResult;
@@ -181,11 +182,31 @@ public abstract class BaseCommands implements CommandsInterface {
     protected int mPhoneType;
     // RIL Version
     protected int mRilVersion = -1;
+    // Coalesces bursts of latest-wins indications, null if every indication is delivered
+    @Nullable
+    protected IndicationCoalescer mIndicationCoalescer;
 
     public BaseCommands(Context context) {
         mContext = context;  // May be null (if so we won't log statistics)
     }
 
+    /**
+     * Notifies the registrants of an indication that carries the full state, e.g. the signal
+     * strength or the cell info list, so that it can be dropped if a newer one of the same type
+     * follows shortly.
+     *
+     * @param indication the indication type, as {@code RIL_UNSOL_*}.
+     * @param delivery notifies the registrants of the indication.
+     */
+    protected void notifyLatestWinsIndication(int indication, @NonNull Runnable delivery) {
+        IndicationCoalescer coalescer = mIndicationCoalescer;
+        if (coalescer == null) {
+            delivery.run();
+        } else {
+            coalescer.deliver(indication, delivery);
+        }
+    }
+
     //***** CommandsInterface implementation
 
     @Override
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.os.Handler;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+
+/**
+ * Collapses bursts of unsolicited indications that carry the full state, so that the registrants
+ * are not notified of values that are superseded right away.
+ *
+ * <p>The first indication of a type is delivered immediately and opens a window. The indications
+ * of the same type received during the window are held, and only the latest one is delivered
+ * when the window closes, which opens a new window. At most one indication of each type is thus
+ * delivered per window, and the latest state is always delivered.
+ */
+public class IndicationCoalescer {
+    @NonNull private final Handler mHandler;
+    private final long mWindowMillis;
+
+    /** The latest held indication of each type, as {@code RIL_UNSOL_*}. */
+    @GuardedBy("this")
+    private final SparseArray<Runnable> mPendingDeliveries = new SparseArray<>();
+
+    /** The indication types with an open window. */
+    @GuardedBy("this")
+    private final SparseBooleanArray mOpenWindows = new SparseBooleanArray();
+
+    /** Number of indications dropped because they were superseded, per type. */
+    @GuardedBy("this")
+    private final SparseIntArray mCoalescedCounts = new SparseIntArray();
+
+    /**
+     * @param handler the handler on which the held indications are delivered.
+     * @param windowMillis the minimum time between two deliveries of the same indication type.
+     */
+    public IndicationCoalescer(@NonNull Handler handler, long windowMillis) {
+        mHandler = handler;
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Delivers an indication, or holds it until the window of its type closes.
+     *
+     * @param indication the indication type, as {@code RIL_UNSOL_*}.
+     * @param delivery notifies the registrants of the indication.
+     */
+    public void deliver(int indication, @NonNull Runnable delivery) {
+        synchronized (this) {
+            if (mOpenWindows.get(indication)) {
+                if (mPendingDeliveries.get(indication) != null) {
+                    mCoalescedCounts.put(indication, mCoalescedCounts.get(indication) + 1);
+                }
+                mPendingDeliveries.put(indication, delivery);
+                return;
+            }
+            openWindow(indication);
+        }
+        delivery.run();
+    }
+
+    /** Returns the number of indications of the given type that were superseded and dropped. */
+    public synchronized int getCoalescedCount(int indication) {
+        return mCoalescedCounts.get(indication);
+    }
+
+    /** Dumps the number of coalesced indications per type. */
+    public synchronized void dump(@NonNull PrintWriter pw) {
+        pw.println(" Indication coalescing window=" + mWindowMillis + "ms");
+        for (int i = 0; i < mCoalescedCounts.size(); i++) {
+            pw.println("  " + RILUtils.responseToString(mCoalescedCounts.keyAt(i))
+                    + " coalesced=" + mCoalescedCounts.valueAt(i));
+        }
+    }
+
+    @GuardedBy("this")
+    private void openWindow(int indication) {
+        mOpenWindows.put(indication, true);
+        mHandler.postDelayed(() -> closeWindow(indication), mWindowMillis);
+    }
+
+    private void closeWindow(int indication) {
+        Runnable delivery;
+        synchronized (this) {
+            delivery = mPendingDeliveries.get(indication);
+            if (delivery == null) {
+                mOpenWindows.delete(indication);
+                return;
+            }
+            mPendingDeliveries.remove(indication);
+            // Keep the rate limited while the burst lasts.
+            openWindow(indication);
+        }
+        delivery.run();
+    }
+}
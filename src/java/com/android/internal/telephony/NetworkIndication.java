@@ -39,6 +39,7 @@ import static com.android.internal.telephony.RILConstants.RIL_UNSOL_CELLULAR_IDE
 import android.annotation.ElapsedRealtimeLong;
 import android.hardware.radio.network.IRadioNetworkIndication;
 import android.os.AsyncResult;
+import android.os.Registrant;
 import android.sysprop.TelephonyProperties;
 import android.telephony.AnomalyReporter;
 import android.telephony.BarringInfo;
@@ -120,7 +121,9 @@ public class NetworkIndication extends IRadioNetworkIndication.Stub {
         mRil.processIndication(HAL_SERVICE_NETWORK, indicationType);
         ArrayList<CellInfo> response = RILUtils.convertHalCellInfoList(records);
         if (mRil.isLogOrTrace()) mRil.unsljLogRet(RIL_UNSOL_CELL_INFO_LIST, response);
-        mRil.mRilCellInfoListRegistrants.notifyRegistrants(new AsyncResult(null, response, null));
+        mRil.notifyLatestWinsIndication(RIL_UNSOL_CELL_INFO_LIST, () ->
+                mRil.mRilCellInfoListRegistrants.notifyRegistrants(
+                        new AsyncResult(null, response, null)));
     }
 
     /**
@@ -216,9 +219,12 @@ public class NetworkIndication extends IRadioNetworkIndication.Stub {
         // Note this is set to "verbose" because it happens frequently
         if (mRil.isLogvOrTrace()) mRil.unsljLogvRet(RIL_UNSOL_SIGNAL_STRENGTH, ss);
 
-        if (mRil.mSignalStrengthRegistrant != null) {
-            mRil.mSignalStrengthRegistrant.notifyRegistrant(new AsyncResult(null, ss, null));
-        }
+        mRil.notifyLatestWinsIndication(RIL_UNSOL_SIGNAL_STRENGTH, () -> {
+            Registrant registrant = mRil.mSignalStrengthRegistrant;
+            if (registrant != null) {
+                registrant.notifyRegistrant(new AsyncResult(null, ss, null));
+            }
+        });
     }
 
     /**
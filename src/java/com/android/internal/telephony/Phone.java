@@ -4340,6 +4340,10 @@ public abstract class Phone extends Handler implements PhoneInternalInterface {
      * shutdown Radio gracefully
      */
     public void shutdownRadio() {
+        if (mLinkBandwidthEstimator != null) {
+            // Don't lose the bandwidth stats not written yet.
+            mLinkBandwidthEstimator.requestFlushBandwidthStats();
+        }
         getServiceStateTracker().requestShutdown();
     }
 
@@ -144,6 +144,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
     public static final int FOR_WAKELOCK = 0;
     public static final int FOR_ACK_WAKELOCK = 1;
     private final ClientWakelockTracker mClientWakelockTracker = new ClientWakelockTracker();
+    private final RilLatencyTracker mLatencyTracker = new RilLatencyTracker();
 
     /** @hide */
     public static final HalVersion RADIO_HAL_VERSION_UNSUPPORTED = HalVersion.UNSUPPORTED;
@@ -199,6 +200,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     SparseArray<RILRequest> mRequestList = new SparseArray<>();
+    // Outstanding requests by serial. Replaces mRequestList, which is kept for app compatibility.
+    private final RilRequestTable mRequestTable = new RilRequestTable();
     static SparseArray<TelephonyHistogram> sRilTimeHistograms = new SparseArray<>();
 
     Object[] mLastNITZTimeInfo;
@@ -220,6 +223,13 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
     private static final String PROPERTY_IS_VONR_ENABLED = "persist.radio.is_vonr_enabled_";
 
+    /**
+     * Minimum time between two deliveries of the signal strength and cell info indications, in
+     * milliseconds. Indications received in between are coalesced. 0 disables coalescing.
+     */
+    private static final String PROPERTY_INDICATION_COALESCING_WINDOW_MS =
+            "persist.radio.indication_coalescing_window_ms";
+
     public static final int MIN_SERVICE_IDX = HAL_SERVICE_RADIO;
 
     public static final int MAX_SERVICE_IDX = HAL_SERVICE_IMS;
@@ -323,25 +333,23 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
                     // The timer of WAKE_LOCK_TIMEOUT is reset with each
                     // new send request. So when WAKE_LOCK_TIMEOUT occurs
-                    // all requests in mRequestList already waited at
+                    // all requests in mRequestTable already waited at
                     // least DEFAULT_WAKE_LOCK_TIMEOUT_MS but no response.
                     //
-                    // Note: Keep mRequestList so that delayed response
+                    // Note: Keep mRequestTable so that delayed response
                     // can still be handled when response finally comes.
 
-                    synchronized (mRequestList) {
-                        if (msg.arg1 == mWlSequenceNum && clearWakeLock(FOR_WAKELOCK)) {
-                            if (mRadioBugDetector != null) {
-                                mRadioBugDetector.processWakelockTimeout();
-                            }
-                            if (RILJ_LOGD) {
-                                int count = mRequestList.size();
-                                riljLog("WAKE_LOCK_TIMEOUT mRequestList=" + count);
-                                for (int i = 0; i < count; i++) {
-                                    rr = mRequestList.valueAt(i);
-                                    riljLog(i + ": [" + rr.mSerial + "] "
-                                            + RILUtils.requestToString(rr.mRequest));
-                                }
+                    if (msg.arg1 == mWlSequenceNum && clearWakeLock(FOR_WAKELOCK)) {
+                        if (mRadioBugDetector != null) {
+                            mRadioBugDetector.processWakelockTimeout();
+                        }
+                        if (RILJ_LOGD) {
+                            List<RILRequest> requests = mRequestTable.getAll();
+                            riljLog("WAKE_LOCK_TIMEOUT mRequestList=" + requests.size());
+                            for (int i = 0; i < requests.size(); i++) {
+                                rr = requests.get(i);
+                                riljLog(i + ": [" + rr.mSerial + "] "
+                                        + RILUtils.requestToString(rr.mRequest));
                             }
                         }
                     }
@@ -1165,6 +1173,11 @@ public class RIL extends BaseCommands implements CommandsInterface {
         mVoiceResponse = new VoiceResponse(this);
         mVoiceIndication = new VoiceIndication(this);
         mRilHandler = new RilHandler();
+        long coalescingWindowMs = SystemProperties.getLong(
+                PROPERTY_INDICATION_COALESCING_WINDOW_MS, 0);
+        if (coalescingWindowMs > 0) {
+            mIndicationCoalescer = new IndicationCoalescer(mRilHandler, coalescingWindowMs);
+        }
         mRadioProxyDeathRecipient = new RadioProxyDeathRecipient();
         for (int service = MIN_SERVICE_IDX; service <= MAX_SERVICE_IDX; service++) {
             if (service != HAL_SERVICE_RADIO) {
@@ -1331,13 +1344,14 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
     private void addRequest(RILRequest rr) {
         acquireWakeLock(rr, FOR_WAKELOCK);
-        Trace.asyncTraceForTrackBegin(
-                Trace.TRACE_TAG_NETWORK, "RIL", rr.mSerial + "> "
-                + RILUtils.requestToString(rr.mRequest), rr.mSerial);
-        synchronized (mRequestList) {
-            rr.mStartTimeMs = SystemClock.elapsedRealtime();
-            mRequestList.append(rr.mSerial, rr);
+        // Only format the trace label when tracing, this runs for every request.
+        if (Trace.isTagEnabled(Trace.TRACE_TAG_NETWORK)) {
+            Trace.asyncTraceForTrackBegin(
+                    Trace.TRACE_TAG_NETWORK, "RIL", rr.mSerial + "> "
+                    + RILUtils.requestToString(rr.mRequest), rr.mSerial);
         }
+        rr.mStartTimeMs = SystemClock.elapsedRealtime();
+        mLatencyTracker.onRequestSent(mRequestTable.add(rr));
     }
 
     private RILRequest obtainRequest(int request, Message result, WorkSource workSource) {
@@ -5371,10 +5385,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
     }
 
     void processRequestAck(int serial) {
-        RILRequest rr;
-        synchronized (mRequestList) {
-            rr = mRequestList.get(serial);
-        }
+        RILRequest rr = mRequestTable.get(serial);
         if (rr == null) {
             riljLogw("processRequestAck: Unexpected solicited ack response! serial: " + serial);
         } else {
@@ -5430,9 +5441,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         RILRequest rr;
 
         if (type == RadioResponseType.SOLICITED_ACK) {
-            synchronized (mRequestList) {
-                rr = mRequestList.get(serial);
-            }
+            rr = mRequestTable.get(serial);
             if (rr == null) {
                 riljLogw("Unexpected solicited ack response! sn: " + serial);
             } else {
@@ -5457,7 +5466,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         Trace.asyncTraceForTrackEnd(Trace.TRACE_TAG_NETWORK, "RIL", rr.mSerial);
 
         // Time logging for RIL command and storing it in TelephonyHistogram.
-        addToRilHistogram(rr);
+        addToRilHistogram(service, rr);
         if (mRadioBugDetector != null) {
             mRadioBugDetector.detectRadioBug(rr.mRequest, error);
         }
@@ -5687,8 +5696,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
                         mWakeLockCount++;
                         mWlSequenceNum++;
 
-                        String clientId = rr.getWorkSourceClientId();
-                        if (!mClientWakelockTracker.isClientActive(clientId)) {
+                        if (!mClientWakelockTracker.isClientActive(rr.mClientId)) {
                             mActiveWakelockWorkSource.add(rr.mWorkSource);
                             mWakeLock.setWorkSource(mActiveWakelockWorkSource);
                         }
@@ -5733,8 +5741,8 @@ public class RIL extends BaseCommands implements CommandsInterface {
 
     /** Returns the Ril request list. */
     @VisibleForTesting
-    public SparseArray<RILRequest> getRilRequestList() {
-        return mRequestList;
+    public RilRequestTable getRilRequestList() {
+        return mRequestTable;
     }
 
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
@@ -5746,8 +5754,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
                         mClientWakelockTracker.stopTracking(rr.mClientId,
                                 rr.mRequest, rr.mSerial,
                                 (mWakeLockCount > 1) ? mWakeLockCount - 1 : 0);
-                        String clientId = rr.getWorkSourceClientId();
-                        if (!mClientWakelockTracker.isClientActive(clientId)) {
+                        if (!mClientWakelockTracker.isClientActive(rr.mClientId)) {
                             mActiveWakelockWorkSource.remove(rr.mWorkSource);
                             mWakeLock.setWorkSource(mActiveWakelockWorkSource);
                         }
@@ -5794,49 +5801,38 @@ public class RIL extends BaseCommands implements CommandsInterface {
     }
 
     /**
-     * Release each request in mRequestList then clear the list
+     * Release each request in mRequestTable then clear the list
      * @param error is the RIL_Errno sent back
-     * @param loggable true means to print all requests in mRequestList
+     * @param loggable true means to print all requests in mRequestTable
      */
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private void clearRequestList(int error, boolean loggable) {
-        RILRequest rr;
-        synchronized (mRequestList) {
-            int count = mRequestList.size();
-            if (RILJ_LOGD && loggable) {
-                riljLog("clearRequestList " + " mWakeLockCount=" + mWakeLockCount
-                        + " mRequestList=" + count);
-            }
+        List<RILRequest> requests = mRequestTable.removeAll();
+        if (RILJ_LOGD && loggable) {
+            riljLog("clearRequestList " + " mWakeLockCount=" + mWakeLockCount
+                    + " mRequestList=" + requests.size());
+        }
 
-            for (int i = 0; i < count; i++) {
-                rr = mRequestList.valueAt(i);
-                if (RILJ_LOGD && loggable) {
-                    riljLog(i + ": [" + rr.mSerial + "] " + RILUtils.requestToString(rr.mRequest));
-                }
-                rr.onError(error, null);
-                decrementWakeLock(rr);
-                rr.release();
+        for (int i = 0; i < requests.size(); i++) {
+            RILRequest rr = requests.get(i);
+            if (RILJ_LOGD && loggable) {
+                riljLog(i + ": [" + rr.mSerial + "] " + RILUtils.requestToString(rr.mRequest));
             }
-            mRequestList.clear();
+            rr.onError(error, null);
+            decrementWakeLock(rr);
+            rr.release();
         }
     }
 
     @UnsupportedAppUsage
     private RILRequest findAndRemoveRequestFromList(int serial) {
-        RILRequest rr;
-        synchronized (mRequestList) {
-            rr = mRequestList.get(serial);
-            if (rr != null) {
-                mRequestList.remove(serial);
-            }
-        }
-
-        return rr;
+        return mRequestTable.remove(serial);
     }
 
-    private void addToRilHistogram(RILRequest rr) {
+    private void addToRilHistogram(@HalService int service, RILRequest rr) {
         long endTime = SystemClock.elapsedRealtime();
         int totalTime = (int) (endTime - rr.mStartTimeMs);
+        mLatencyTracker.onResponse(service, rr.mRequest, totalTime);
 
         synchronized (sRilTimeHistograms) {
             TelephonyHistogram entry = sRilTimeHistograms.get(rr.mRequest);
@@ -6163,16 +6159,19 @@ public class RIL extends BaseCommands implements CommandsInterface {
         pw.println(" " + mServiceProxies.get(HAL_SERVICE_IMS));
         pw.println(" mWakeLock=" + mWakeLock);
         pw.println(" mWakeLockTimeout=" + mWakeLockTimeout);
-        synchronized (mRequestList) {
-            synchronized (mWakeLock) {
-                pw.println(" mWakeLockCount=" + mWakeLockCount);
-            }
-            int count = mRequestList.size();
-            pw.println(" mRequestList count=" + count);
-            for (int i = 0; i < count; i++) {
-                RILRequest rr = mRequestList.valueAt(i);
-                pw.println("  [" + rr.mSerial + "] " + RILUtils.requestToString(rr.mRequest));
-            }
+        synchronized (mWakeLock) {
+            pw.println(" mWakeLockCount=" + mWakeLockCount);
+        }
+        List<RILRequest> requests = mRequestTable.getAll();
+        pw.println(" mRequestList count=" + requests.size());
+        long now = SystemClock.elapsedRealtime();
+        for (RILRequest rr : requests) {
+            pw.println("  [" + rr.mSerial + "] " + RILUtils.requestToString(rr.mRequest)
+                    + " waiting for " + (now - rr.mStartTimeMs) + "ms");
+        }
+        mLatencyTracker.dump(pw);
+        if (mIndicationCoalescer != null) {
+            mIndicationCoalescer.dump(pw);
         }
         pw.println(" mLastNITZTimeInfo=" + Arrays.toString(mLastNITZTimeInfo));
         pw.println(" mLastRadioPowerResult=" + mLastRadioPowerResult);
@@ -6221,7 +6220,7 @@ public class RIL extends BaseCommands implements CommandsInterface {
         }
     }
 
-    private static String serviceToString(@HalService int service) {
+    static String serviceToString(@HalService int service) {
         switch (service) {
             case HAL_SERVICE_RADIO:
                 return "RADIO";
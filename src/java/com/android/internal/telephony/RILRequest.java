@@ -23,6 +23,7 @@ import android.os.SystemClock;
 import android.os.WorkSource;
 import android.os.WorkSource.WorkChain;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.telephony.Rlog;
 
 import java.util.List;
@@ -42,7 +43,12 @@ public class RILRequest {
     private static Object sPoolSync = new Object();
     private static RILRequest sPool = null;
     private static int sPoolSize = 0;
-    private static final int MAX_POOL_SIZE = 4;
+    // Large enough to hold the requests outstanding at the same time on all the slots, so that
+    // steady polling of signal strength and cell info does not allocate new requests.
+    private static final int MAX_POOL_SIZE = 32;
+
+    /** Client ID of the last WorkSource a request was obtained with. */
+    private static volatile ClientIdCache sClientIdCache;
 
     //***** Instance Variables
     @UnsupportedAppUsage
@@ -127,7 +133,14 @@ public class RILRequest {
 
         if (workSource != null) {
             rr.mWorkSource = workSource;
-            rr.mClientId = rr.getWorkSourceClientId();
+            // Most requests use the default WorkSource of RIL, avoid formatting its ID every time.
+            ClientIdCache cache = sClientIdCache;
+            if (cache != null && cache.mWorkSource.equals(workSource)) {
+                rr.mClientId = cache.mClientId;
+            } else {
+                rr.mClientId = rr.getWorkSourceClientId();
+                sClientIdCache = new ClientIdCache(new WorkSource(workSource), rr.mClientId);
+            }
         } else {
             Rlog.e(LOG_TAG, "null workSource " + request);
         }
@@ -197,6 +210,8 @@ public class RILRequest {
                     }
                 }
                 mArguments = null;
+                mWorkSource = null;
+                mClientId = null;
             }
         }
     }
@@ -212,23 +227,16 @@ public class RILRequest {
 
     @UnsupportedAppUsage
     String serialString() {
-        //Cheesy way to do %04d
-        StringBuilder sb = new StringBuilder(8);
-        String sn;
-
-        // Truncate mSerial to a number with maximum 4 digits.
+        // Same as String.format("[%04d]", mSerial % 10000), without the intermediate objects.
         int adjustedSerial = mSerial % 10000;
-        sn = Integer.toString(adjustedSerial);
-
-        //sb.append("J[");
-        sb.append('[');
-        for (int i = 0, s = sn.length(); i < 4 - s; i++) {
-            sb.append('0');
+        char[] chars = new char[6];
+        chars[0] = '[';
+        for (int i = 4; i > 0; i--) {
+            chars[i] = (char) ('0' + adjustedSerial % 10);
+            adjustedSerial /= 10;
         }
-
-        sb.append(sn);
-        sb.append(']');
-        return sb.toString();
+        chars[5] = ']';
+        return new String(chars);
     }
 
     @UnsupportedAppUsage
@@ -253,4 +261,22 @@ public class RILRequest {
     public String toString() {
         return serialString() + ": " + RILUtils.requestToString(mRequest);
     }
+
+    @VisibleForTesting
+    static int getPoolSize() {
+        synchronized (sPoolSync) {
+            return sPoolSize;
+        }
+    }
+
+    /** A WorkSource and its client ID. */
+    private static final class ClientIdCache {
+        final WorkSource mWorkSource;
+        final String mClientId;
+
+        ClientIdCache(WorkSource workSource, String clientId) {
+            mWorkSource = workSource;
+            mClientId = clientId;
+        }
+    }
 }
@@ -92,6 +92,7 @@ import android.hardware.radio.V1_6.IRadioIndication;
 import android.hardware.radio.V1_6.PhonebookRecordInfo;
 import android.hardware.radio.V1_6.PhysicalChannelConfig.Band;
 import android.os.AsyncResult;
+import android.os.Registrant;
 import android.os.RemoteException;
 import android.sysprop.TelephonyProperties;
 import android.telephony.AnomalyReporter;
@@ -296,9 +297,12 @@ public class RadioIndication extends IRadioIndication.Stub {
 
         if (mRil.isLogvOrTrace()) mRil.unsljLogvRet(RIL_UNSOL_SIGNAL_STRENGTH, ss);
 
-        if (mRil.mSignalStrengthRegistrant != null) {
-            mRil.mSignalStrengthRegistrant.notifyRegistrant(new AsyncResult(null, ss, null));
-        }
+        mRil.notifyLatestWinsIndication(RIL_UNSOL_SIGNAL_STRENGTH, () -> {
+            Registrant registrant = mRil.mSignalStrengthRegistrant;
+            if (registrant != null) {
+                registrant.notifyRegistrant(new AsyncResult(null, ss, null));
+            }
+        });
     }
 
     /**
@@ -313,9 +317,12 @@ public class RadioIndication extends IRadioIndication.Stub {
 
         if (mRil.isLogvOrTrace()) mRil.unsljLogvRet(RIL_UNSOL_SIGNAL_STRENGTH, ss);
 
-        if (mRil.mSignalStrengthRegistrant != null) {
-            mRil.mSignalStrengthRegistrant.notifyRegistrant(new AsyncResult(null, ss, null));
-        }
+        mRil.notifyLatestWinsIndication(RIL_UNSOL_SIGNAL_STRENGTH, () -> {
+            Registrant registrant = mRil.mSignalStrengthRegistrant;
+            if (registrant != null) {
+                registrant.notifyRegistrant(new AsyncResult(null, ss, null));
+            }
+        });
     }
 
     /**
@@ -817,7 +824,9 @@ public class RadioIndication extends IRadioIndication.Stub {
     private void responseCellInfoList(ArrayList<? extends Object> records) {
         ArrayList<CellInfo> response = RILUtils.convertHalCellInfoList((ArrayList<Object>) records);
         if (mRil.isLogOrTrace()) mRil.unsljLogRet(RIL_UNSOL_CELL_INFO_LIST, response);
-        mRil.mRilCellInfoListRegistrants.notifyRegistrants(new AsyncResult(null, response, null));
+        mRil.notifyLatestWinsIndication(RIL_UNSOL_CELL_INFO_LIST, () ->
+                mRil.mRilCellInfoListRegistrants.notifyRegistrants(
+                        new AsyncResult(null, response, null)));
     }
 
     /** Get unsolicited message for uicc applications enablement changes. */
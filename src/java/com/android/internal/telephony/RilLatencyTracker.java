@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.telephony.TelephonyManager.HalService;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks the latency of the RIL requests of one slot, per HAL service and per request.
+ *
+ * <p>Unlike {@link RIL#getTelephonyRILTimingHistograms()}, which aggregates all slots in a few
+ * coarse buckets, the latencies are recorded in log-linear histograms with a relative precision of
+ * 1/8, which is enough to tell apart the tail latencies (p99, p99.9) of the modem RPCs. Recording
+ * a latency is lock-free, so it can be done from the binder threads delivering the responses.
+ */
+public class RilLatencyTracker {
+    /** Percentiles reported in the dump. */
+    private static final double[] DUMP_PERCENTILES = {50, 90, 99, 99.9};
+
+    /** Maximum number of requests reported in the dump, ordered by p99 latency. */
+    private static final int MAX_DUMPED_REQUESTS = 20;
+
+    /** Latency histogram of each HAL service, indexed by {@link HalService}. */
+    @NonNull private final LatencyHistogram[] mServiceHistograms;
+
+    /** Latency histogram of each request, keyed by {@link #requestKey}. */
+    @NonNull private final Map<Integer, LatencyHistogram> mRequestHistograms =
+            new ConcurrentHashMap<>();
+
+    /** The highest number of requests waiting for a response at the same time. */
+    @NonNull private final AtomicInteger mMaxOutstandingRequests = new AtomicInteger();
+
+    public RilLatencyTracker() {
+        mServiceHistograms = new LatencyHistogram[RIL.MAX_SERVICE_IDX + 1];
+        for (int i = 0; i < mServiceHistograms.length; i++) {
+            mServiceHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Called when a request was sent to the HAL.
+     *
+     * @param outstandingRequests the number of requests waiting for a response, including it.
+     */
+    public void onRequestSent(int outstandingRequests) {
+        mMaxOutstandingRequests.accumulateAndGet(outstandingRequests, Math::max);
+    }
+
+    /**
+     * Called when the response of a request was received from the HAL.
+     *
+     * @param service the HAL service that responded.
+     * @param request the request, as defined in {@code RILConstants}.
+     * @param latencyMillis the time between sending the request and receiving its response.
+     */
+    public void onResponse(@HalService int service, int request, long latencyMillis) {
+        if (service >= 0 && service < mServiceHistograms.length) {
+            mServiceHistograms[service].record(latencyMillis);
+        }
+        mRequestHistograms.computeIfAbsent(requestKey(service, request),
+                k -> new LatencyHistogram()).record(latencyMillis);
+    }
+
+    /** Returns the latency histogram of the given HAL service. */
+    @NonNull
+    public LatencyHistogram getServiceHistogram(@HalService int service) {
+        return mServiceHistograms[service];
+    }
+
+    /** Returns the highest number of requests waiting for a response at the same time. */
+    public int getMaxOutstandingRequests() {
+        return mMaxOutstandingRequests.get();
+    }
+
+    /** Dumps the latency of each HAL service and of the slowest requests. */
+    public void dump(@NonNull PrintWriter pw) {
+        pw.println(" RIL latency (ms), maxOutstandingRequests=" + mMaxOutstandingRequests.get());
+        for (int service = 0; service < mServiceHistograms.length; service++) {
+            LatencyHistogram histogram = mServiceHistograms[service];
+            if (histogram.getCount() > 0) {
+                pw.println("  " + RIL.serviceToString(service) + ": " + histogram);
+            }
+        }
+
+        List<Map.Entry<Integer, LatencyHistogram>> requests =
+                new ArrayList<>(mRequestHistograms.entrySet());
+        requests.sort((a, b) -> Long.compare(
+                b.getValue().getPercentile(99), a.getValue().getPercentile(99)));
+        pw.println(" Slowest requests by p99:");
+        for (int i = 0; i < Math.min(requests.size(), MAX_DUMPED_REQUESTS); i++) {
+            int key = requests.get(i).getKey();
+            pw.println("  " + RIL.serviceToString(key >>> 16) + "/"
+                    + RILUtils.requestToString(key & 0xFFFF) + ": " + requests.get(i).getValue());
+        }
+    }
+
+    private static int requestKey(@HalService int service, int request) {
+        return (service << 16) | (request & 0xFFFF);
+    }
+
+    /**
+     * Lock-free log-linear histogram of latencies in milliseconds.
+     *
+     * <p>Latencies below {@link #SUB_BUCKETS} are recorded exactly. Above that, each power of two
+     * is split in {@link #SUB_BUCKETS} buckets of equal width, so that the value reported for a
+     * percentile is within 1/{@link #SUB_BUCKETS} of the recorded latencies.
+     */
+    public static class LatencyHistogram {
+        /** Number of buckets per power of two, must be a power of two. */
+        private static final int SUB_BUCKETS = 8;
+        private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+        /** Latencies above ~2^26 ms (18 hours) are recorded in the last bucket. */
+        private static final int MAX_EXPONENT = 26;
+        private static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+        @NonNull private final AtomicLongArray mBuckets = new AtomicLongArray(NUM_BUCKETS);
+        @NonNull private final AtomicLong mCount = new AtomicLong();
+        @NonNull private final AtomicLong mSumMillis = new AtomicLong();
+        @NonNull private final AtomicLong mMaxMillis = new AtomicLong();
+
+        /** Records a latency. */
+        public void record(long latencyMillis) {
+            long value = Math.max(0, latencyMillis);
+            mBuckets.incrementAndGet(bucketIndex(value));
+            mCount.incrementAndGet();
+            mSumMillis.addAndGet(value);
+            mMaxMillis.accumulateAndGet(value, Math::max);
+        }
+
+        /** Returns the number of recorded latencies. */
+        public long getCount() {
+            return mCount.get();
+        }
+
+        /** Returns the highest recorded latency. */
+        public long getMaxMillis() {
+            return mMaxMillis.get();
+        }
+
+        /** Returns the average of the recorded latencies. */
+        public long getAverageMillis() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mSumMillis.get() / count;
+        }
+
+        /**
+         * Returns the latency below which the given percentage of the recorded latencies fall,
+         * rounded up to the end of its bucket, or 0 if nothing was recorded.
+         */
+        public long getPercentile(double percentile) {
+            long count = 0;
+            long[] buckets = new long[NUM_BUCKETS];
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                buckets[i] = mBuckets.get(i);
+                count += buckets[i];
+            }
+            if (count == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), mMaxMillis.get());
+                }
+            }
+            return mMaxMillis.get();
+        }
+
+        @VisibleForTesting
+        static int bucketIndex(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent > MAX_EXPONENT) {
+                return NUM_BUCKETS - 1;
+            }
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+
+        /** Returns the highest value recorded in the given bucket. */
+        @VisibleForTesting
+        static long bucketUpperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            if (index == NUM_BUCKETS - 1) {
+                return Long.MAX_VALUE;
+            }
+            int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long subBucket = index % SUB_BUCKETS;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("count=").append(getCount()).append(" avg=").append(getAverageMillis());
+            for (double percentile : DUMP_PERCENTILES) {
+                sb.append(" p").append(percentile == Math.floor(percentile)
+                        ? String.valueOf((long) percentile) : String.valueOf(percentile))
+                        .append("=").append(getPercentile(percentile));
+            }
+            sb.append(" max=").append(getMaxMillis());
+            return sb.toString();
+        }
+    }
+}
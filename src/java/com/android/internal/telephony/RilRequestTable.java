@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free table of the {@link RILRequest}s waiting for a response, keyed by serial.
+ *
+ * <p>Serials are handed out in increasing order by {@code RILRequest.obtain}, so the outstanding
+ * requests map to distinct slots of a ring indexed by the low bits of the serial. Each slot holds
+ * an immutable entry with the full serial, which is checked on lookup so that a slot reused by a
+ * later request is never mistaken for an earlier one. A request whose slot is still held by an
+ * older request, e.g. one that never got a response, is kept in an overflow map instead.
+ *
+ * <p>All methods can be called from any thread without external synchronization.
+ */
+public class RilRequestTable {
+    /** Number of slots of the ring, must be a power of two. */
+    private static final int DEFAULT_CAPACITY = 256;
+
+    /** Serials wrap from {@code Integer.MAX_VALUE - 1} back to 0, see {@code RILRequest.obtain}. */
+    private static final long SERIAL_MODULUS = Integer.MAX_VALUE;
+
+    @NonNull private final AtomicReferenceArray<Entry> mSlots;
+    private final int mMask;
+
+    /** Requests whose slot was taken when they were added. */
+    @NonNull private final Map<Integer, RILRequest> mOverflow = new ConcurrentHashMap<>();
+
+    @NonNull private final AtomicInteger mSize = new AtomicInteger();
+
+    public RilRequestTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    @VisibleForTesting
+    public RilRequestTable(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        mSlots = new AtomicReferenceArray<>(capacity);
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Adds a request, keyed by its serial.
+     *
+     * @return the number of requests in the table, including the added one.
+     */
+    public int add(@NonNull RILRequest rr) {
+        int serial = rr.mSerial;
+        if (!mSlots.compareAndSet(serial & mMask, null, new Entry(serial, rr))) {
+            mOverflow.put(serial, rr);
+        }
+        return mSize.incrementAndGet();
+    }
+
+    /** Returns the request with the given serial, or {@code null} if it is not in the table. */
+    @Nullable
+    public RILRequest get(int serial) {
+        Entry entry = mSlots.get(serial & mMask);
+        if (entry != null && entry.mSerial == serial) {
+            return entry.mRequest;
+        }
+        return mOverflow.isEmpty() ? null : mOverflow.get(serial);
+    }
+
+    /**
+     * Removes the request with the given serial.
+     *
+     * @return the removed request, or {@code null} if it is not in the table. If several threads
+     *     remove the same serial concurrently, only one of them gets the request.
+     */
+    @Nullable
+    public RILRequest remove(int serial) {
+        int index = serial & mMask;
+        Entry entry = mSlots.get(index);
+        if (entry != null && entry.mSerial == serial && mSlots.compareAndSet(index, entry, null)) {
+            mSize.decrementAndGet();
+            return entry.mRequest;
+        }
+        RILRequest rr = mOverflow.isEmpty() ? null : mOverflow.remove(serial);
+        if (rr != null) {
+            mSize.decrementAndGet();
+        }
+        return rr;
+    }
+
+    /** Removes all the requests and returns them, in the order their serials were handed out. */
+    @NonNull
+    public List<RILRequest> removeAll() {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < mSlots.length(); i++) {
+            Entry entry = mSlots.getAndSet(i, null);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        for (Integer serial : mOverflow.keySet()) {
+            RILRequest rr = mOverflow.remove(serial);
+            if (rr != null) {
+                entries.add(new Entry(serial, rr));
+            }
+        }
+        mSize.addAndGet(-entries.size());
+        return toSortedRequests(entries);
+    }
+
+    /**
+     * Returns the requests in the table, in the order their serials were handed out. Requests
+     * added or removed concurrently may or may not be included.
+     */
+    @NonNull
+    public List<RILRequest> getAll() {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < mSlots.length(); i++) {
+            Entry entry = mSlots.get(i);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        for (Map.Entry<Integer, RILRequest> overflow : mOverflow.entrySet()) {
+            entries.add(new Entry(overflow.getKey(), overflow.getValue()));
+        }
+        return toSortedRequests(entries);
+    }
+
+    /** Returns the number of requests in the table. */
+    public int size() {
+        return mSize.get();
+    }
+
+    private static List<RILRequest> toSortedRequests(List<Entry> entries) {
+        entries.sort((a, b) -> compareSerials(a.mSerial, b.mSerial));
+        List<RILRequest> requests = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            requests.add(entry.mRequest);
+        }
+        return requests;
+    }
+
+    /**
+     * Compares serials in the order they were handed out, so that a serial after the wrap to 0 is
+     * ordered after the ones before it. The outstanding requests are assumed to span less than
+     * half of the serial range.
+     */
+    @VisibleForTesting
+    static int compareSerials(int a, int b) {
+        if (a == b) {
+            return 0;
+        }
+        long distance = Math.floorMod((long) b - a, SERIAL_MODULUS);
+        return distance < SERIAL_MODULUS / 2 ? -1 : 1;
+    }
+
+    /**
+     * Slot content. A new instance is created for every request so that a slot cannot be removed
+     * through a stale entry after its {@link RILRequest} was recycled.
+     */
+    private static final class Entry {
+        private final int mSerial;
+        @NonNull private final RILRequest mRequest;
+
+        Entry(int serial, @NonNull RILRequest request) {
+            mSerial = serial;
+            mRequest = request;
+        }
+    }
+}
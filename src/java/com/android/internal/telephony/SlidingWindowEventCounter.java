@@ -19,19 +19,41 @@ package com.android.internal.telephony;
 import android.annotation.IntRange;
 import android.annotation.NonNull;
 import android.os.SystemClock;
-import android.util.LongArrayQueue;
 
 import com.android.internal.annotations.VisibleForTesting;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
  * Tracks whether an event occurs mNumOccurrences times within the time span mWindowSizeMillis.
  * <p/>
- * Stores all events in memory, use a small number of required occurrences when using.
+ * Stores the last mNumOccurrences events in memory, use a small number of required occurrences
+ * when using.
+ * <p/>
+ * The events are kept in a ring indexed by their sequence number. Recording and querying do not
+ * take any lock, so that the counter can be used from binder threads without the queries
+ * contending with the recorders. Each slot stores the sequence number of its event next to the
+ * timestamp, which lets readers detect and skip a slot that is being overwritten.
  */
 public class SlidingWindowEventCounter {
+    /** Sequence number of a slot that was never written. */
+    private static final long EMPTY = -1;
+    /** Sequence number of a slot that is being written. */
+    private static final long WRITING = -2;
+    /** Returned by {@link #readTimestamp} when the event is not available. */
+    private static final long MISSING = Long.MIN_VALUE;
+
     private final long mWindowSizeMillis;
     private final int mNumOccurrences;
-    private final LongArrayQueue mTimestampQueueMillis;
+    /** Timestamps of the last mNumOccurrences events, at their sequence number modulo the size. */
+    private final AtomicLongArray mTimestampsMillis;
+    /** Sequence number of the event stored in each slot of mTimestampsMillis. */
+    private final AtomicLongArray mSequences;
+    /** Sequence number of the next event. */
+    private final AtomicLong mNextSequence = new AtomicLong();
 
     public SlidingWindowEventCounter(@IntRange(from = 0) final long windowSizeMillis,
             @IntRange(from = 2) final int numOccurrences) {
@@ -44,7 +66,11 @@ public class SlidingWindowEventCounter {
 
         mWindowSizeMillis = windowSizeMillis;
         mNumOccurrences = numOccurrences;
-        mTimestampQueueMillis = new LongArrayQueue(numOccurrences);
+        mTimestampsMillis = new AtomicLongArray(numOccurrences);
+        mSequences = new AtomicLongArray(numOccurrences);
+        for (int i = 0; i < numOccurrences; i++) {
+            mSequences.set(i, EMPTY);
+        }
     }
 
     /**
@@ -53,7 +79,7 @@ public class SlidingWindowEventCounter {
      * Returns true if an event has occurred at least mNumOccurrences times within the
      * time span mWindowSizeMillis.
      */
-    public synchronized boolean addOccurrence() {
+    public boolean addOccurrence() {
         return addOccurrence(SystemClock.elapsedRealtime());
     }
 
@@ -64,39 +90,96 @@ public class SlidingWindowEventCounter {
      * time span mWindowSizeMillis.
      * @param timestampMillis
      */
-    public synchronized boolean addOccurrence(long timestampMillis) {
-        mTimestampQueueMillis.addLast(timestampMillis);
-        if (mTimestampQueueMillis.size() > mNumOccurrences) {
-            mTimestampQueueMillis.removeFirst();
+    public boolean addOccurrence(long timestampMillis) {
+        long sequence = mNextSequence.getAndIncrement();
+        int slot = (int) (sequence % mNumOccurrences);
+        while (true) {
+            long current = mSequences.get(slot);
+            if (current == WRITING) {
+                // Another recorder is writing an older event to this slot, wait for it.
+                Thread.onSpinWait();
+                continue;
+            }
+            if (current >= sequence) {
+                // A newer event already took the slot, this one is out of the window anyway.
+                return isInWindow();
+            }
+            if (mSequences.compareAndSet(slot, current, WRITING)) {
+                break;
+            }
         }
+        mTimestampsMillis.set(slot, timestampMillis);
+        mSequences.set(slot, sequence);
         return isInWindow();
     }
 
     /**
      * Returns true if the conditions is satisfied.
      */
-    public synchronized boolean isInWindow() {
-        return (mTimestampQueueMillis.size() == mNumOccurrences)
-                && mTimestampQueueMillis.peekFirst()
-                + mWindowSizeMillis > mTimestampQueueMillis.peekLast();
+    public boolean isInWindow() {
+        while (true) {
+            long next = mNextSequence.get();
+            // Find the newest event, skipping the ones still being written.
+            long newestSequence = next - 1;
+            long newest = MISSING;
+            for (; newestSequence >= Math.max(0, next - mNumOccurrences); newestSequence--) {
+                newest = readTimestamp(newestSequence);
+                if (newest != MISSING) break;
+            }
+            long oldestSequence = newestSequence - mNumOccurrences + 1;
+            if (newest == MISSING || oldestSequence < 0) {
+                return false;
+            }
+            long oldest = readTimestamp(oldestSequence);
+            if (oldest != MISSING) {
+                return oldest + mWindowSizeMillis > newest;
+            }
+            if (mNextSequence.get() == next) {
+                // The oldest event is still being written by a slow recorder.
+                return false;
+            }
+            // The oldest event was overwritten by a newer one, start over.
+        }
+    }
+
+    /** Returns the timestamp of the event with the given sequence number, or MISSING. */
+    private long readTimestamp(long sequence) {
+        int slot = (int) (sequence % mNumOccurrences);
+        if (mSequences.get(slot) != sequence) return MISSING;
+        long timestamp = mTimestampsMillis.get(slot);
+        // Sequence numbers are never reused, so the slot was not overwritten in between.
+        return mSequences.get(slot) == sequence ? timestamp : MISSING;
+    }
+
+    /** Returns the timestamps of the recorded events, oldest first. */
+    private List<Long> getTimestampsMillis() {
+        long next = mNextSequence.get();
+        List<Long> timestamps = new ArrayList<>(mNumOccurrences);
+        for (long sequence = Math.max(0, next - mNumOccurrences); sequence < next; sequence++) {
+            long timestamp = readTimestamp(sequence);
+            if (timestamp != MISSING) {
+                timestamps.add(timestamp);
+            }
+        }
+        return timestamps;
     }
 
     @VisibleForTesting
     int getQueuedNumOccurrences() {
-        return mTimestampQueueMillis.size();
+        return getTimestampsMillis().size();
     }
 
     /**
      * @return the time span in ms of the sliding window.
      */
-    public synchronized long getWindowSizeMillis() {
+    public long getWindowSizeMillis() {
         return mWindowSizeMillis;
     }
 
     /**
      * @return the least number of occurrences for {@link #isInWindow} to be true.
      */
-    public synchronized int getNumOccurrences() {
+    public int getNumOccurrences() {
         return mNumOccurrences;
     }
 
@@ -115,8 +198,8 @@ public class SlidingWindowEventCounter {
 
     @Override
     public String toString() {
-        return String.format("SlidingWindowEventCounter=[windowSizeMillis=" + mWindowSizeMillis
+        return "SlidingWindowEventCounter=[windowSizeMillis=" + mWindowSizeMillis
                 + ", numOccurrences=" + mNumOccurrences
-                + ", timestampQueueMillis=" + mTimestampQueueMillis + "]");
+                + ", timestampQueueMillis=" + getTimestampsMillis() + "]";
     }
 }
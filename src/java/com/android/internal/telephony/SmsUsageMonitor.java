@@ -33,8 +33,11 @@ import android.provider.Settings;
 import android.telephony.SmsManager;
 import android.telephony.TelephonyManager;
 import android.util.AtomicFile;
+import android.util.LruCache;
 import android.util.Xml;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.util.XmlUtils;
 import com.android.internal.util.FastXmlSerializer;
 import com.android.telephony.Rlog;
@@ -51,11 +54,11 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
@@ -82,6 +85,12 @@ public class SmsUsageMonitor {
     /** Default number of SMS sent in checking period without user permission. */
     private static final int DEFAULT_SMS_MAX_COUNT = 30;
 
+    /** Number of countries whose short code patterns are kept compiled, e.g. when roaming. */
+    private static final int MAX_CACHED_PATTERN_MATCHERS = 8;
+
+    /** Number of destinations whose category is kept per country. */
+    private static final int MAX_CACHED_NUMBER_CATEGORIES = 64;
+
     /** @hide */
     public static int mergeShortCodeCategories(int type1, int type2) {
         if (type1 > type2) return type1;
@@ -107,8 +116,13 @@ public class SmsUsageMonitor {
     private final int mCheckPeriod;
     private final int mMaxAllowed;
 
-    private final HashMap<String, ArrayList<Long>> mSmsStamp =
-            new HashMap<String, ArrayList<Long>>();
+    /** Messages sent by each app within the check period. */
+    @GuardedBy("mSmsStamp")
+    private final HashMap<String, SendHistory> mSmsStamp = new HashMap<String, SendHistory>();
+
+    /** Time of the last removal of the apps without messages in the check period. */
+    @GuardedBy("mSmsStamp")
+    private long mLastExpiredTimestampsRemovalMillis;
 
     /** Context for retrieving regexes from XML resource. */
     private final Context mContext;
@@ -119,6 +133,13 @@ public class SmsUsageMonitor {
     /** Cached short code pattern matcher for {@link #mCurrentCountry}. */
     private ShortCodePatternMatcher mCurrentPatternMatcher;
 
+    /**
+     * Short code pattern matchers of the recently used countries, empty if a country has no
+     * patterns, so that switching back and forth between countries does not parse the XML again.
+     */
+    private final LruCache<String, Optional<ShortCodePatternMatcher>> mPatternMatcherCache =
+            new LruCache<>(MAX_CACHED_PATTERN_MATCHERS);
+
     /** Notice when the enabled setting changes - can be changed through gservices */
     private final AtomicBoolean mCheckEnabled = new AtomicBoolean(true);
 
@@ -135,6 +156,15 @@ public class SmsUsageMonitor {
 
     private RoleManager mRoleManager;
 
+    /** Listener invalidating {@link #mSmsRoleHolders}, or null if role changes are not observed. */
+    private RoleManager.OnRoleHoldersChangedListener mRoleHoldersChangedListener;
+
+    /** Incremented when the holders of the SMS role change. */
+    private volatile int mSmsRoleHoldersGeneration;
+
+    /** Cached holders of the SMS role, valid while its generation is current. */
+    private volatile SmsRoleHolders mSmsRoleHolders;
+
     /** Directory for per-app SMS permission XML file. */
     private static final String SMS_POLICY_FILE_DIRECTORY = "/data/misc/sms";
 
@@ -183,12 +213,17 @@ public class SmsUsageMonitor {
     /**
      * SMS short code regex pattern matcher for a specific country.
      */
-    private static final class ShortCodePatternMatcher {
+    @VisibleForTesting
+    static final class ShortCodePatternMatcher {
         private final Pattern mShortCodePattern;
         private final Pattern mPremiumShortCodePattern;
         private final Pattern mFreeShortCodePattern;
         private final Pattern mStandardShortCodePattern;
 
+        /** Category of the recent destinations, the patterns are evaluated once per number. */
+        private final LruCache<String, Integer> mNumberCategoryCache =
+                new LruCache<>(MAX_CACHED_NUMBER_CATEGORIES);
+
         ShortCodePatternMatcher(String shortCodeRegex, String premiumShortCodeRegex,
                 String freeShortCodeRegex, String standardShortCodeRegex) {
             mShortCodePattern = (shortCodeRegex != null ? Pattern.compile(shortCodeRegex) : null);
@@ -201,6 +236,15 @@ public class SmsUsageMonitor {
         }
 
         int getNumberCategory(String phoneNumber) {
+            Integer category = mNumberCategoryCache.get(phoneNumber);
+            if (category == null) {
+                category = matchNumberCategory(phoneNumber);
+                mNumberCategoryCache.put(phoneNumber, category);
+            }
+            return category;
+        }
+
+        private int matchNumberCategory(String phoneNumber) {
             if (mFreeShortCodePattern != null && mFreeShortCodePattern.matcher(phoneNumber)
                     .matches()) {
                 return SmsManager.SMS_CATEGORY_FREE_SHORT_CODE;
@@ -270,9 +314,46 @@ public class SmsUsageMonitor {
 
         mSettingsObserverHandler = new SettingsObserverHandler(mContext, mCheckEnabled);
 
+        observeSmsRoleHolders();
         loadPremiumSmsPolicyDb();
     }
 
+    /**
+     * Observe the changes of the SMS role holders so that they can be cached, instead of being
+     * queried from the role service for every message sent.
+     */
+    private void observeSmsRoleHolders() {
+        RoleManager.OnRoleHoldersChangedListener listener = (roleName, user) -> {
+            if (RoleManager.ROLE_SMS.equals(roleName)) {
+                mSmsRoleHoldersGeneration++;
+            }
+        };
+        try {
+            mRoleManager.addOnRoleHoldersChangedListenerAsUser(Runnable::run, listener,
+                    UserHandle.ALL);
+            mRoleHoldersChangedListener = listener;
+        } catch (RuntimeException e) {
+            // Without the listener, the role holders are queried every time.
+            Rlog.w(TAG, "Cannot observe SMS role holders: " + e);
+        }
+    }
+
+    /** Returns the holders of the SMS role, from the cache if it is up to date. */
+    private List<String> getSmsRoleHolders() {
+        int generation = mSmsRoleHoldersGeneration;
+        SmsRoleHolders cached = mSmsRoleHolders;
+        if (cached != null && cached.mGeneration == generation) {
+            return cached.mPackageNames;
+        }
+        List<String> packageNames = mRoleManager.getRoleHolders(RoleManager.ROLE_SMS);
+        if (mRoleHoldersChangedListener != null) {
+            // If the role changed during the query, the generation was incremented and the
+            // result will not be used.
+            mSmsRoleHolders = new SmsRoleHolders(generation, packageNames);
+        }
+        return packageNames;
+    }
+
     /**
      * Return a pattern matcher object for the specified country.
      * @param country the country to search for
@@ -350,7 +431,14 @@ public class SmsUsageMonitor {
 
     /** Clear the SMS application list for disposal. */
     void dispose() {
-        mSmsStamp.clear();
+        synchronized (mSmsStamp) {
+            mSmsStamp.clear();
+        }
+        if (mRoleHoldersChangedListener != null) {
+            mRoleManager.removeOnRoleHoldersChangedListenerAsUser(mRoleHoldersChangedListener,
+                    UserHandle.ALL);
+            mRoleHoldersChangedListener = null;
+        }
     }
 
     /**
@@ -365,21 +453,45 @@ public class SmsUsageMonitor {
      */
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public boolean check(String appName, int smsWaiting) {
-        synchronized (mSmsStamp) {
-            removeExpiredTimestamps();
+        if (getSmsRoleHolders().contains(appName)) {
+            return true;
+        }
+        return checkSendLimit(appName, smsWaiting, System.currentTimeMillis());
+    }
 
-            ArrayList<Long> sentList = mSmsStamp.get(appName);
-            if (sentList == null) {
-                sentList = new ArrayList<Long>();
-                mSmsStamp.put(appName, sentList);
+    /**
+     * Check to see if an application is under the send limit, and record the new messages if so.
+     *
+     * @param appName the package name of the app requesting to send an SMS
+     * @param smsWaiting the number of new messages desired to send
+     * @param nowMillis the current time, from {@link System#currentTimeMillis}
+     * @return true if application is allowed to send the requested number of new sms messages
+     */
+    @VisibleForTesting
+    boolean checkSendLimit(String appName, int smsWaiting, long nowMillis) {
+        synchronized (mSmsStamp) {
+            // Sweeping all the apps is only needed to release the apps that stopped sending, so
+            // it is done at most once per check period rather than for every message.
+            if (nowMillis - mLastExpiredTimestampsRemovalMillis >= mCheckPeriod
+                    || nowMillis < mLastExpiredTimestampsRemovalMillis) {
+                removeExpiredTimestamps(nowMillis);
+                mLastExpiredTimestampsRemovalMillis = nowMillis;
             }
 
-            List<String> defaultApp = mRoleManager.getRoleHolders(RoleManager.ROLE_SMS);
-            if (defaultApp.contains(appName)) {
-                return true;
-            } else {
-                return isUnderLimit(sentList, smsWaiting);
+            SendHistory sent = mSmsStamp.get(appName);
+            if (sent == null) {
+                sent = new SendHistory(mMaxAllowed);
+                mSmsStamp.put(appName, sent);
             }
+            return isUnderLimit(sent, smsWaiting, nowMillis);
+        }
+    }
+
+    /** Returns the number of apps whose messages are being tracked. */
+    @VisibleForTesting
+    int getTrackedAppCount() {
+        synchronized (mSmsStamp) {
+            return mSmsStamp.size();
         }
     }
 
@@ -415,17 +527,21 @@ public class SmsUsageMonitor {
             }
 
             if (countryIso != null) {
-                if (mCurrentCountry == null || !countryIso.equals(mCurrentCountry) ||
-                        mPatternFile.lastModified() != mPatternFileLastModified) {
-                    if (mPatternFile.exists()) {
-                        if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from file");
-                        mCurrentPatternMatcher = getPatternMatcherFromFile(countryIso);
-                        mPatternFileVersion = getPatternFileVersionFromFile();
-                    } else {
-                        if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from resource");
-                        mCurrentPatternMatcher = getPatternMatcherFromResource(countryIso);
-                        mPatternFileVersion = -1;
+                long patternFileLastModified = mPatternFile.lastModified();
+                if (patternFileLastModified != mPatternFileLastModified) {
+                    // The patterns were updated, or the file was created or removed.
+                    mPatternMatcherCache.evictAll();
+                    mPatternFileLastModified = patternFileLastModified;
+                    mCurrentCountry = null;
+                }
+                if (mCurrentCountry == null || !countryIso.equals(mCurrentCountry)) {
+                    Optional<ShortCodePatternMatcher> matcher =
+                            mPatternMatcherCache.get(countryIso);
+                    if (matcher == null) {
+                        matcher = Optional.ofNullable(loadPatternMatcher(countryIso));
+                        mPatternMatcherCache.put(countryIso, matcher);
                     }
+                    mCurrentPatternMatcher = matcher.orElse(null);
                     mCurrentCountry = countryIso;
                 }
             }
@@ -444,6 +560,20 @@ public class SmsUsageMonitor {
         }
     }
 
+    /** Load the short code patterns of a country from the pattern file or the resource. */
+    @VisibleForTesting
+    ShortCodePatternMatcher loadPatternMatcher(String countryIso) {
+        if (mPatternFile.exists()) {
+            if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from file");
+            mPatternFileVersion = getPatternFileVersionFromFile();
+            return getPatternMatcherFromFile(countryIso);
+        } else {
+            if (DBG) Rlog.d(TAG, "Loading SMS Short Code patterns from resource");
+            mPatternFileVersion = -1;
+            return getPatternMatcherFromResource(countryIso);
+        }
+    }
+
     /**
      * Load the premium SMS policy from an XML file.
      * Based on code from NotificationManagerService.
@@ -628,40 +758,90 @@ public class SmsUsageMonitor {
      * Remove keys containing only old timestamps. This can happen if an SMS app is used
      * to send messages and then uninstalled.
      */
-    private void removeExpiredTimestamps() {
-        long beginCheckPeriod = System.currentTimeMillis() - mCheckPeriod;
-
-        synchronized (mSmsStamp) {
-            Iterator<Map.Entry<String, ArrayList<Long>>> iter = mSmsStamp.entrySet().iterator();
-            while (iter.hasNext()) {
-                Map.Entry<String, ArrayList<Long>> entry = iter.next();
-                ArrayList<Long> oldList = entry.getValue();
-                if (oldList.isEmpty() || oldList.get(oldList.size() - 1) < beginCheckPeriod) {
-                    iter.remove();
-                }
+    @GuardedBy("mSmsStamp")
+    private void removeExpiredTimestamps(long nowMillis) {
+        long beginCheckPeriod = nowMillis - mCheckPeriod;
+
+        Iterator<Map.Entry<String, SendHistory>> iter = mSmsStamp.entrySet().iterator();
+        while (iter.hasNext()) {
+            SendHistory history = iter.next().getValue();
+            if (history.isEmpty() || history.getNewest() < beginCheckPeriod) {
+                iter.remove();
             }
         }
     }
 
-    private boolean isUnderLimit(ArrayList<Long> sent, int smsWaiting) {
-        Long ct = System.currentTimeMillis();
+    private boolean isUnderLimit(SendHistory sent, int smsWaiting, long ct) {
         long beginCheckPeriod = ct - mCheckPeriod;
 
         if (VDBG) log("SMS send size=" + sent.size() + " time=" + ct);
 
-        while (!sent.isEmpty() && sent.get(0) < beginCheckPeriod) {
-            sent.remove(0);
-        }
+        sent.removeOlderThan(beginCheckPeriod);
 
         if ((sent.size() + smsWaiting) <= mMaxAllowed) {
-            for (int i = 0; i < smsWaiting; i++ ) {
-                sent.add(ct);
-            }
+            sent.add(ct, smsWaiting);
             return true;
         }
         return false;
     }
 
+    /**
+     * Send times of the messages of one app, oldest first, in a ring of primitive timestamps.
+     * There are never more than mMaxAllowed of them within the check period, so the ring does
+     * not grow and adding or expiring a message does not shift the other ones.
+     */
+    private static final class SendHistory {
+        private final long[] mTimestamps;
+        private int mHead;
+        private int mSize;
+
+        SendHistory(int maxAllowed) {
+            mTimestamps = new long[Math.max(1, maxAllowed)];
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        long getNewest() {
+            return mTimestamps[(mHead + mSize - 1) % mTimestamps.length];
+        }
+
+        void removeOlderThan(long beginMillis) {
+            while (mSize > 0 && mTimestamps[mHead] < beginMillis) {
+                mHead = (mHead + 1) % mTimestamps.length;
+                mSize--;
+            }
+        }
+
+        void add(long timestampMillis, int count) {
+            for (int i = 0; i < count; i++) {
+                if (mSize == mTimestamps.length) {
+                    // Only the last mMaxAllowed messages matter, drop the oldest one.
+                    mHead = (mHead + 1) % mTimestamps.length;
+                    mSize--;
+                }
+                mTimestamps[(mHead + mSize) % mTimestamps.length] = timestampMillis;
+                mSize++;
+            }
+        }
+    }
+
+    /** Holders of the SMS role, and the generation they were queried at. */
+    private static final class SmsRoleHolders {
+        final int mGeneration;
+        final List<String> mPackageNames;
+
+        SmsRoleHolders(int generation, List<String> packageNames) {
+            mGeneration = generation;
+            mPackageNames = packageNames;
+        }
+    }
+
     private int getPatternFileVersionFromFile() {
         File versionFile = new File(SHORT_CODE_VERSION_PATH);
         if (versionFile.exists()) {
@@ -45,4 +45,18 @@ public class TelephonyFacade {
     public long getMobileRxBytes() {
         return TrafficStats.getMobileRxBytes();
     }
+
+    /**
+     * Wrapper for {@link TrafficStats#getTxBytes}.
+     */
+    public long getTxBytes(String iface) {
+        return TrafficStats.getTxBytes(iface);
+    }
+
+    /**
+     * Wrapper for {@link TrafficStats#getRxBytes}.
+     */
+    public long getRxBytes(String iface) {
+        return TrafficStats.getRxBytes(iface);
+    }
 }
@@ -49,6 +49,7 @@ import android.util.LocalLog;
 
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.PhoneFactory;
+import com.android.internal.telephony.data.DataConfigManager.DataConfigManagerCallback;
 import com.android.internal.telephony.flags.FeatureFlags;
 import com.android.internal.telephony.flags.FeatureFlagsImpl;
 import com.android.internal.telephony.subscription.SubscriptionInfoInternal;
@@ -209,6 +210,11 @@ public class AutoDataSwitchController extends Handler {
      * The maximum number of retries when a validation for switching failed.
      */
     private int mAutoDataSwitchValidationMaxRetry;
+    /**
+     * The number of signal strength and display info changes that did not change the score of the
+     * phone, and therefore did not need an evaluation.
+     */
+    private int mScoreUnchangedCount = 0;
 
     /** The signal status of phones, where index corresponds to phone Id. */
     @NonNull
@@ -250,6 +256,12 @@ public class AutoDataSwitchController extends Handler {
         @NonNull private SignalStrength mSignalStrength;
         /** {@code true} if this slot is listening for events. */
         private boolean mListeningForEvents;
+        /** The score of the current state, or {@link #SCORE_UNKNOWN} if it needs recomputing. */
+        private int mRatSignalScore = SCORE_UNKNOWN;
+        /** Invalidates the score when the carrier config changes the score table. */
+        @Nullable private DataConfigManagerCallback mDataConfigManagerCallback;
+        /** Marks {@link #mRatSignalScore} to be recomputed. */
+        private static final int SCORE_UNKNOWN = Integer.MIN_VALUE;
         private PhoneSignalStatus(@NonNull Phone phone) {
             this.mPhone = phone;
             this.mDataRegState = phone.getServiceState().getNetworkRegistrationInfo(
@@ -265,9 +277,30 @@ public class AutoDataSwitchController extends Handler {
          * selected as the secondary data candidate.
          */
         private int getRatSignalScore() {
-            return isInService(mDataRegState)
-                    ? mPhone.getDataNetworkController().getDataConfigManager()
-                            .getAutoDataSwitchScore(mDisplayInfo, mSignalStrength) : 0;
+            if (mRatSignalScore == SCORE_UNKNOWN) {
+                mRatSignalScore = isInService(mDataRegState)
+                        ? mPhone.getDataNetworkController().getDataConfigManager()
+                                .getAutoDataSwitchScore(mDisplayInfo, mSignalStrength) : 0;
+            }
+            return mRatSignalScore;
+        }
+
+        /** @param dataRegState The new data registration state. */
+        private void setDataRegState(@RegistrationState int dataRegState) {
+            mDataRegState = dataRegState;
+            mRatSignalScore = SCORE_UNKNOWN;
+        }
+
+        /** @param displayInfo The new display info. */
+        private void setDisplayInfo(@NonNull TelephonyDisplayInfo displayInfo) {
+            mDisplayInfo = displayInfo;
+            mRatSignalScore = SCORE_UNKNOWN;
+        }
+
+        /** @param signalStrength The new signal strength. */
+        private void setSignalStrength(@NonNull SignalStrength signalStrength) {
+            mSignalStrength = signalStrength;
+            mRatSignalScore = SCORE_UNKNOWN;
         }
 
         /**
@@ -423,7 +456,16 @@ public class AutoDataSwitchController extends Handler {
     private void registerAllEventsForPhone(int phoneId) {
         Phone phone = PhoneFactory.getPhone(phoneId);
         if (phone != null && isActiveModemPhone(phoneId)) {
-            mPhonesSignalStatus[phoneId] = new PhoneSignalStatus(phone);
+            PhoneSignalStatus status = new PhoneSignalStatus(phone);
+            mPhonesSignalStatus[phoneId] = status;
+            status.mDataConfigManagerCallback = new DataConfigManagerCallback(this::post) {
+                @Override
+                public void onCarrierConfigChanged() {
+                    status.mRatSignalScore = PhoneSignalStatus.SCORE_UNKNOWN;
+                }
+            };
+            phone.getDataNetworkController().getDataConfigManager()
+                    .registerCallback(status.mDataConfigManagerCallback);
             phone.getDisplayInfoController().registerForTelephonyDisplayInfoChanged(
                     this, EVENT_DISPLAY_INFO_CHANGED, phoneId);
             phone.getSignalStrengthController().registerForSignalStrengthChanged(
@@ -446,6 +488,11 @@ public class AutoDataSwitchController extends Handler {
             phone.getDisplayInfoController().unregisterForTelephonyDisplayInfoChanged(this);
             phone.getSignalStrengthController().unregisterForSignalStrengthChanged(this);
             phone.getServiceStateTracker().unregisterForServiceStateChanged(this);
+            if (mPhonesSignalStatus[phoneId].mDataConfigManagerCallback != null) {
+                phone.getDataNetworkController().getDataConfigManager().unregisterCallback(
+                        mPhonesSignalStatus[phoneId].mDataConfigManagerCallback);
+                mPhonesSignalStatus[phoneId].mDataConfigManagerCallback = null;
+            }
             mPhonesSignalStatus[phoneId].mListeningForEvents = false;
         } else {
             loge("Unexpected out of bound phone " + phoneId + " when unregister all events");
@@ -530,7 +577,7 @@ public class AutoDataSwitchController extends Handler {
                             AccessNetworkConstants.TRANSPORT_TYPE_WWAN)
                     .getRegistrationState();
             if (newRegState != oldRegState) {
-                mPhonesSignalStatus[phoneId].mDataRegState = newRegState;
+                mPhonesSignalStatus[phoneId].setDataRegState(newRegState);
                 if (isInService(oldRegState) != isInService(newRegState)
                         || isHomeService(oldRegState) != isHomeService(newRegState)) {
                     log("onServiceStateChanged: phone " + phoneId + " "
@@ -566,10 +613,15 @@ public class AutoDataSwitchController extends Handler {
         if (phone != null && isActiveModemPhone(phoneId)) {
             TelephonyDisplayInfo displayInfo = phone.getDisplayInfoController()
                     .getTelephonyDisplayInfo();
-            mPhonesSignalStatus[phoneId].mDisplayInfo = displayInfo;
+            PhoneSignalStatus status = mPhonesSignalStatus[phoneId];
+            int oldScore = status.getRatSignalScore();
+            status.setDisplayInfo(displayInfo);
             if (getHigherScoreCandidatePhoneId() != mSelectedTargetPhoneId) {
                 log("onDisplayInfoChanged: phone " + phoneId + " " + displayInfo);
                 evaluateAutoDataSwitch(EVALUATION_REASON_DISPLAY_INFO_CHANGED);
+            } else if (status.getRatSignalScore() == oldScore) {
+                // The display info only matters through the score.
+                mScoreUnchangedCount++;
             }
         } else {
             loge("Unexpected null phone " + phoneId + " upon its display info changed");
@@ -586,11 +638,16 @@ public class AutoDataSwitchController extends Handler {
             SignalStrength newSignalStrength = phone.getSignalStrength();
             SignalStrength oldSignalStrength = mPhonesSignalStatus[phoneId].mSignalStrength;
             if (oldSignalStrength.getLevel() != newSignalStrength.getLevel()) {
-                mPhonesSignalStatus[phoneId].mSignalStrength = newSignalStrength;
+                PhoneSignalStatus status = mPhonesSignalStatus[phoneId];
+                int oldScore = status.getRatSignalScore();
+                status.setSignalStrength(newSignalStrength);
                 if (getHigherScoreCandidatePhoneId() != mSelectedTargetPhoneId) {
                     log("onSignalStrengthChanged: phone " + phoneId + " "
                             + oldSignalStrength.getLevel() + "->" + newSignalStrength.getLevel());
                     evaluateAutoDataSwitch(EVALUATION_REASON_SIGNAL_STRENGTH_CHANGED);
+                } else if (status.getRatSignalScore() == oldScore) {
+                    // The signal strength only matters through the score.
+                    mScoreUnchangedCount++;
                 }
             }
         } else {
@@ -1208,6 +1265,7 @@ public class AutoDataSwitchController extends Handler {
         pw.println("mAutoDataSwitchAvailabilityStabilityTimeThreshold="
                 + mAutoDataSwitchAvailabilityStabilityTimeThreshold);
         pw.println("mSelectedTargetPhoneId=" + mSelectedTargetPhoneId);
+        pw.println("mScoreUnchangedCount=" + mScoreUnchangedCount);
         pw.increaseIndent();
         for (PhoneSignalStatus status: mPhonesSignalStatus) {
             pw.println(status);
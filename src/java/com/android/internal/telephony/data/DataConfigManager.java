@@ -18,6 +18,7 @@ package com.android.internal.telephony.data;
 
 import android.annotation.CallbackExecutor;
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.annotation.StringDef;
 import android.content.res.Resources;
 import android.net.LinkProperties;
@@ -282,35 +283,49 @@ public class DataConfigManager extends Handler {
     /** The network capability priority map */
     @NonNull
     private final Map<Integer, Integer> mNetworkCapabilityPriorityMap = new ConcurrentHashMap<>();
+    /*
+     * The collections parsed from the carrier config below are immutable. They are rebuilt on
+     * every carrier config change and swapped in, so readers on other threads never see a
+     * partially updated collection, and getters can return them without copying.
+     */
     /** The data setup retry rules */
     @NonNull
-    private final List<DataSetupRetryRule> mDataSetupRetryRules = new ArrayList<>();
+    private volatile List<DataSetupRetryRule> mDataSetupRetryRules = Collections.emptyList();
     /** The data handover retry rules */
     @NonNull
-    private final List<DataHandoverRetryRule> mDataHandoverRetryRules = new ArrayList<>();
+    private volatile List<DataHandoverRetryRule> mDataHandoverRetryRules =
+            Collections.emptyList();
     /** The metered APN types for home network */
     @NonNull
     @ApnType
-    private final Set<Integer> mMeteredApnTypes = new HashSet<>();
+    private volatile Set<Integer> mMeteredApnTypes = Collections.emptySet();
     /** The metered APN types for roaming network */
     @NonNull
     @ApnType
-    private final Set<Integer> mRoamingMeteredApnTypes = new HashSet<>();
+    private volatile Set<Integer> mRoamingMeteredApnTypes = Collections.emptySet();
+    /** The metered network capabilities for home network, derived from the APN types. */
+    @NonNull
+    @NetCapability
+    private volatile Set<Integer> mMeteredCapabilities = Collections.emptySet();
+    /** The metered network capabilities for roaming network, derived from the APN types. */
+    @NonNull
+    @NetCapability
+    private volatile Set<Integer> mRoamingMeteredCapabilities = Collections.emptySet();
     /** The network types that only support single data networks */
     @NonNull
     @NetworkType
-    private final List<Integer> mSingleDataNetworkTypeList = new ArrayList<>();
+    private volatile List<Integer> mSingleDataNetworkTypeList = Collections.emptyList();
     @NonNull
     @NetCapability
-    private final Set<Integer> mCapabilitiesExemptFromSingleDataList = new HashSet<>();
+    private volatile Set<Integer> mCapabilitiesExemptFromSingleDataList = Collections.emptySet();
     /** The network types that support temporarily not metered */
     @NonNull
     @DataConfigNetworkType
-    private final Set<String> mUnmeteredNetworkTypes = new HashSet<>();
+    private volatile Set<String> mUnmeteredNetworkTypes = Collections.emptySet();
     /** The network types that support temporarily not metered when roaming */
     @NonNull
     @DataConfigNetworkType
-    private final Set<String> mRoamingUnmeteredNetworkTypes = new HashSet<>();
+    private volatile Set<String> mRoamingUnmeteredNetworkTypes = Collections.emptySet();
     /** A map of network types to the downlink and uplink bandwidth values for that network type */
     @NonNull
     @DataConfigNetworkType
@@ -322,13 +337,13 @@ public class DataConfigManager extends Handler {
     private final Map<String, String> mTcpBufferSizeMap = new ConcurrentHashMap<>();
     /** Rules for handover between IWLAN and cellular network. */
     @NonNull
-    private final List<HandoverRule> mHandoverRuleList = new ArrayList<>();
+    private volatile List<HandoverRule> mHandoverRuleList = Collections.emptyList();
     /** {@code True} keep IMS network in case of moving to non VOPS area; {@code false} otherwise.*/
     private boolean mShouldKeepNetworkUpInNonVops = false;
     /** The set of network types that enable VOPS even in non VOPS area. */
     @NonNull
     @CarrierConfigManager.Ims.NetworkType
-    private final List<Integer> mEnabledVopsNetworkTypesInNonVops = new ArrayList<>();
+    private volatile Set<Integer> mEnabledVopsNetworkTypesInNonVops = Collections.emptySet();
     /**
      * A map of network types to the estimated downlink values by signal strength 0 - 4 for that
      * network type
@@ -545,31 +560,33 @@ public class DataConfigManager extends Handler {
      */
     private void updateDataRetryRules() {
         synchronized (this) {
-            mDataSetupRetryRules.clear();
+            List<DataSetupRetryRule> dataSetupRetryRules = new ArrayList<>();
             String[] dataRetryRulesStrings = mCarrierConfig.getStringArray(
                     CarrierConfigManager.KEY_TELEPHONY_DATA_SETUP_RETRY_RULES_STRING_ARRAY);
             if (dataRetryRulesStrings != null) {
                 for (String ruleString : dataRetryRulesStrings) {
                     try {
-                        mDataSetupRetryRules.add(new DataSetupRetryRule(ruleString));
+                        dataSetupRetryRules.add(new DataSetupRetryRule(ruleString));
                     } catch (IllegalArgumentException e) {
                         loge("updateDataRetryRules: " + e.getMessage());
                     }
                 }
             }
+            mDataSetupRetryRules = Collections.unmodifiableList(dataSetupRetryRules);
 
-            mDataHandoverRetryRules.clear();
+            List<DataHandoverRetryRule> dataHandoverRetryRules = new ArrayList<>();
             dataRetryRulesStrings = mCarrierConfig.getStringArray(
                     CarrierConfigManager.KEY_TELEPHONY_DATA_HANDOVER_RETRY_RULES_STRING_ARRAY);
             if (dataRetryRulesStrings != null) {
                 for (String ruleString : dataRetryRulesStrings) {
                     try {
-                        mDataHandoverRetryRules.add(new DataHandoverRetryRule(ruleString));
+                        dataHandoverRetryRules.add(new DataHandoverRetryRule(ruleString));
                     } catch (IllegalArgumentException e) {
                         loge("updateDataRetryRules: " + e.getMessage());
                     }
                 }
             }
+            mDataHandoverRetryRules = Collections.unmodifiableList(dataHandoverRetryRules);
         }
     }
 
@@ -578,7 +595,7 @@ public class DataConfigManager extends Handler {
      */
     @NonNull
     public List<DataSetupRetryRule> getDataSetupRetryRules() {
-        return Collections.unmodifiableList(mDataSetupRetryRules);
+        return mDataSetupRetryRules;
     }
 
     /**
@@ -586,7 +603,7 @@ public class DataConfigManager extends Handler {
      */
     @NonNull
     public List<DataHandoverRetryRule> getDataHandoverRetryRules() {
-        return Collections.unmodifiableList(mDataHandoverRetryRules);
+        return mDataHandoverRetryRules;
     }
 
     /**
@@ -598,40 +615,40 @@ public class DataConfigManager extends Handler {
     }
 
     /**
-     * Update the home and roaming metered APN types from the carrier config.
+     * Update the home and roaming metered APN types from the carrier config, and the metered
+     * network capabilities derived from them.
      */
     private void updateMeteredApnTypes() {
         synchronized (this) {
-            mMeteredApnTypes.clear();
-            String[] meteredApnTypes = mCarrierConfig.getStringArray(
-                    CarrierConfigManager.KEY_CARRIER_METERED_APN_TYPES_STRINGS);
-            if (meteredApnTypes != null) {
-                Arrays.stream(meteredApnTypes)
-                        .map(ApnSetting::getApnTypeInt)
-                        .forEach(mMeteredApnTypes::add);
-            }
-            mRoamingMeteredApnTypes.clear();
-            String[] roamingMeteredApns = mCarrierConfig.getStringArray(
-                    CarrierConfigManager.KEY_CARRIER_METERED_ROAMING_APN_TYPES_STRINGS);
-            if (roamingMeteredApns != null) {
-                Arrays.stream(roamingMeteredApns)
-                        .map(ApnSetting::getApnTypeInt)
-                        .forEach(mRoamingMeteredApnTypes::add);
-            }
+            mMeteredApnTypes = parseApnTypes(mCarrierConfig.getStringArray(
+                    CarrierConfigManager.KEY_CARRIER_METERED_APN_TYPES_STRINGS));
+            mRoamingMeteredApnTypes = parseApnTypes(mCarrierConfig.getStringArray(
+                    CarrierConfigManager.KEY_CARRIER_METERED_ROAMING_APN_TYPES_STRINGS));
+            mMeteredCapabilities = toMeteredCapabilities(mMeteredApnTypes);
+            mRoamingMeteredCapabilities = toMeteredCapabilities(mRoamingMeteredApnTypes);
         }
     }
 
     /**
-     * Get the metered network capabilities.
-     *
-     * @param isRoaming {@code true} for roaming scenario.
-     *
-     * @return The metered network capabilities when connected to a home network.
+     * @param apnTypes The APN type strings from the carrier config.
+     * @return The APN types.
+     */
+    @NonNull
+    @ApnType
+    private static Set<Integer> parseApnTypes(@Nullable String[] apnTypes) {
+        if (apnTypes == null) return Collections.emptySet();
+        return Collections.unmodifiableSet(Arrays.stream(apnTypes)
+                .map(ApnSetting::getApnTypeInt)
+                .collect(Collectors.toSet()));
+    }
+
+    /**
+     * @param meteredApnTypes The metered APN types.
+     * @return The metered network capabilities.
      */
     @NonNull
     @NetCapability
-    public Set<Integer> getMeteredNetworkCapabilities(boolean isRoaming) {
-        Set<Integer> meteredApnTypes = isRoaming ? mRoamingMeteredApnTypes : mMeteredApnTypes;
+    private Set<Integer> toMeteredCapabilities(@NonNull @ApnType Set<Integer> meteredApnTypes) {
         Set<Integer> meteredCapabilities = meteredApnTypes.stream()
                 .map(DataUtils::apnTypeToNetworkCapability)
                 .filter(cap -> cap >= 0)
@@ -648,6 +665,19 @@ public class DataConfigManager extends Handler {
         return Collections.unmodifiableSet(meteredCapabilities);
     }
 
+    /**
+     * Get the metered network capabilities.
+     *
+     * @param isRoaming {@code true} for roaming scenario.
+     *
+     * @return The metered network capabilities when connected to a home network.
+     */
+    @NonNull
+    @NetCapability
+    public Set<Integer> getMeteredNetworkCapabilities(boolean isRoaming) {
+        return isRoaming ? mRoamingMeteredCapabilities : mMeteredCapabilities;
+    }
+
     /**
      * @return {@code true} if tethering profile should not be used when the device is roaming.
      */
@@ -677,8 +707,11 @@ public class DataConfigManager extends Handler {
      */
     public boolean isAnyMeteredCapability(@NonNull @NetCapability int[] networkCapabilities,
             boolean isRoaming) {
-        return Arrays.stream(networkCapabilities).boxed()
-                .anyMatch(cap -> isMeteredCapability(cap, isRoaming));
+        Set<Integer> meteredCapabilities = getMeteredNetworkCapabilities(isRoaming);
+        for (int networkCapability : networkCapabilities) {
+            if (meteredCapabilities.contains(networkCapability)) return true;
+        }
+        return false;
     }
 
     /**
@@ -694,20 +727,19 @@ public class DataConfigManager extends Handler {
      */
     private void updateSingleDataNetworkTypeAndCapabilityExemption() {
         synchronized (this) {
-            mSingleDataNetworkTypeList.clear();
-            mCapabilitiesExemptFromSingleDataList.clear();
             int[] singleDataNetworkTypeList = mCarrierConfig.getIntArray(
                     CarrierConfigManager.KEY_ONLY_SINGLE_DC_ALLOWED_INT_ARRAY);
-            if (singleDataNetworkTypeList != null) {
-                Arrays.stream(singleDataNetworkTypeList).forEach(mSingleDataNetworkTypeList::add);
-            }
+            mSingleDataNetworkTypeList = singleDataNetworkTypeList != null
+                    ? Collections.unmodifiableList(Arrays.stream(singleDataNetworkTypeList)
+                            .boxed().collect(Collectors.toList()))
+                    : Collections.emptyList();
 
             int[] singleDataCapabilitiesExemptList = mCarrierConfig.getIntArray(
                     CarrierConfigManager.KEY_CAPABILITIES_EXEMPT_FROM_SINGLE_DC_CHECK_INT_ARRAY);
-            if (singleDataCapabilitiesExemptList != null) {
-                Arrays.stream(singleDataCapabilitiesExemptList)
-                        .forEach(mCapabilitiesExemptFromSingleDataList::add);
-            }
+            mCapabilitiesExemptFromSingleDataList = singleDataCapabilitiesExemptList != null
+                    ? Collections.unmodifiableSet(Arrays.stream(singleDataCapabilitiesExemptList)
+                            .boxed().collect(Collectors.toSet()))
+                    : Collections.emptySet();
         }
     }
 
@@ -719,9 +751,10 @@ public class DataConfigManager extends Handler {
                     .Ims.KEY_KEEP_PDN_UP_IN_NO_VOPS_BOOL);
             int[] allowedNetworkTypes = mCarrierConfig.getIntArray(
                     CarrierConfigManager.Ims.KEY_IMS_PDN_ENABLED_IN_NO_VOPS_SUPPORT_INT_ARRAY);
-            if (allowedNetworkTypes != null) {
-                Arrays.stream(allowedNetworkTypes).forEach(mEnabledVopsNetworkTypesInNonVops::add);
-            }
+            mEnabledVopsNetworkTypesInNonVops = allowedNetworkTypes != null
+                    ? Collections.unmodifiableSet(Arrays.stream(allowedNetworkTypes)
+                            .boxed().collect(Collectors.toSet()))
+                    : Collections.emptySet();
     }
 
     /**
@@ -730,7 +763,7 @@ public class DataConfigManager extends Handler {
     @NonNull
     @NetworkType
     public List<Integer> getNetworkTypesOnlySupportSingleDataNetwork() {
-        return Collections.unmodifiableList(mSingleDataNetworkTypeList);
+        return mSingleDataNetworkTypeList;
     }
 
     /**
@@ -740,7 +773,7 @@ public class DataConfigManager extends Handler {
     @NonNull
     @NetCapability
     public Set<Integer> getCapabilitiesExemptFromSingleDataNetwork() {
-        return Collections.unmodifiableSet(mCapabilitiesExemptFromSingleDataList);
+        return mCapabilitiesExemptFromSingleDataList;
     }
 
     /**
@@ -788,18 +821,18 @@ public class DataConfigManager extends Handler {
      */
     private void updateUnmeteredNetworkTypes() {
         synchronized (this) {
-            mUnmeteredNetworkTypes.clear();
             String[] unmeteredNetworkTypes = mCarrierConfig.getStringArray(
                     CarrierConfigManager.KEY_UNMETERED_NETWORK_TYPES_STRING_ARRAY);
-            if (unmeteredNetworkTypes != null) {
-                mUnmeteredNetworkTypes.addAll(Arrays.asList(unmeteredNetworkTypes));
-            }
-            mRoamingUnmeteredNetworkTypes.clear();
+            mUnmeteredNetworkTypes = unmeteredNetworkTypes != null
+                    ? Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+                            unmeteredNetworkTypes)))
+                    : Collections.emptySet();
             String[] roamingUnmeteredNetworkTypes = mCarrierConfig.getStringArray(
                     CarrierConfigManager.KEY_ROAMING_UNMETERED_NETWORK_TYPES_STRING_ARRAY);
-            if (roamingUnmeteredNetworkTypes != null) {
-                mRoamingUnmeteredNetworkTypes.addAll(Arrays.asList(roamingUnmeteredNetworkTypes));
-            }
+            mRoamingUnmeteredNetworkTypes = roamingUnmeteredNetworkTypes != null
+                    ? Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+                            roamingUnmeteredNetworkTypes)))
+                    : Collections.emptySet();
         }
     }
 
@@ -1263,18 +1296,19 @@ public class DataConfigManager extends Handler {
     /** Update handover rules from carrier config. */
     private void updateHandoverRules() {
         synchronized (this) {
-            mHandoverRuleList.clear();
+            List<HandoverRule> handoverRuleList = new ArrayList<>();
             String[] handoverRulesStrings = mCarrierConfig.getStringArray(
                     CarrierConfigManager.KEY_IWLAN_HANDOVER_POLICY_STRING_ARRAY);
             if (handoverRulesStrings != null) {
                 for (String ruleString : handoverRulesStrings) {
                     try {
-                        mHandoverRuleList.add(new HandoverRule(ruleString));
+                        handoverRuleList.add(new HandoverRule(ruleString));
                     } catch (IllegalArgumentException e) {
                         loge("updateHandoverRules: " + e.getMessage());
                     }
                 }
             }
+            mHandoverRuleList = Collections.unmodifiableList(handoverRuleList);
         }
     }
 
@@ -1351,7 +1385,7 @@ public class DataConfigManager extends Handler {
      */
     @NonNull
     public List<HandoverRule> getHandoverRules() {
-        return Collections.unmodifiableList(mHandoverRuleList);
+        return mHandoverRuleList;
     }
 
     /**
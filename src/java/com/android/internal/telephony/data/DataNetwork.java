@@ -4087,6 +4087,9 @@ public class DataNetwork extends StateMachine {
         }
         pw.decreaseIndent();
         pw.println("mQosBearerSessions=" + mQosBearerSessions);
+        if (mKeepaliveTracker != null) {
+            pw.println("mKeepaliveTracker=" + mKeepaliveTracker);
+        }
 
         mNetworkAgent.dump(fd, pw, args);
         pw.println("Local logs:");
@@ -419,6 +419,18 @@ public class DataNetworkController extends Handler {
     private final SparseArray<RegistrationManager.RegistrationCallback>
             mImsFeatureRegistrationCallbacks = new SparseArray<>();
 
+    /**
+     * The reason of the re-evaluation posted and not handled yet, for
+     * {@link #EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS} and
+     * {@link #EVENT_REEVALUATE_EXISTING_DATA_NETWORKS}. Only accessed on the handler thread.
+     */
+    @NonNull
+    private final SparseArray<DataEvaluationReason> mPendingReevaluationReasons =
+            new SparseArray<>();
+
+    /** The number of re-evaluations skipped because an equivalent one was already pending. */
+    private int mSkippedReevaluationCount;
+
     /** The counter to detect back to back release/request IMS network. */
     @NonNull
     private SlidingWindowEventCounter mImsThrottleCounter;
@@ -932,10 +944,10 @@ public class DataNetworkController extends Handler {
                                 // satisfy them. If mobile data is disabled, evaluate the existing
                                 // data networks and see if they need to be torn down.
                                 logl("onDataEnabledChanged: enabled=" + enabled);
-                                sendMessage(obtainMessage(enabled
+                                sendReevaluationMessage(enabled
                                                 ? EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS
                                                 : EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
-                                        DataEvaluationReason.DATA_ENABLED_CHANGED));
+                                        DataEvaluationReason.DATA_ENABLED_CHANGED);
                             }
                             @Override
                             public void onDataEnabledOverrideChanged(boolean enabled,
@@ -946,10 +958,10 @@ public class DataNetworkController extends Handler {
                                 // evaluate the existing data networks and see if they need to be
                                 // torn down.
                                 logl("onDataEnabledOverrideChanged: enabled=" + enabled);
-                                sendMessage(obtainMessage(enabled
+                                sendReevaluationMessage(enabled
                                                 ? EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS
                                                 : EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
-                                        DataEvaluationReason.DATA_ENABLED_OVERRIDE_CHANGED));
+                                        DataEvaluationReason.DATA_ENABLED_OVERRIDE_CHANGED);
                             }
                             @Override
                             public void onDataRoamingEnabledChanged(boolean enabled) {
@@ -958,10 +970,10 @@ public class DataNetworkController extends Handler {
                                 // satisfy them. If data roaming is disabled, evaluate the existing
                                 // data networks and see if they need to be torn down.
                                 logl("onDataRoamingEnabledChanged: enabled=" + enabled);
-                                sendMessage(obtainMessage(enabled
+                                sendReevaluationMessage(enabled
                                                 ? EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS
                                                 : EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
-                                        DataEvaluationReason.ROAMING_ENABLED_CHANGED));
+                                        DataEvaluationReason.ROAMING_ENABLED_CHANGED);
                             }
                         });
         mDataProfileManager = TelephonyComponentFactory.getInstance().inject(
@@ -972,12 +984,11 @@ public class DataNetworkController extends Handler {
                         new DataProfileManagerCallback(this::post) {
                             @Override
                             public void onDataProfilesChanged() {
-                                sendMessage(
-                                        obtainMessage(EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
-                                        DataEvaluationReason.DATA_PROFILES_CHANGED));
-                                sendMessage(
-                                        obtainMessage(EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS,
-                                        DataEvaluationReason.DATA_PROFILES_CHANGED));
+                                sendReevaluationMessage(EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
+                                        DataEvaluationReason.DATA_PROFILES_CHANGED);
+                                sendReevaluationMessage(
+                                        EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS,
+                                        DataEvaluationReason.DATA_PROFILES_CHANGED);
                             }
                         });
         mDataStallRecoveryManager = new DataStallRecoveryManager(mPhone, this, mDataServiceManagers
@@ -1143,10 +1154,12 @@ public class DataNetworkController extends Handler {
                 break;
             case EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS:
                 DataEvaluationReason reason = (DataEvaluationReason) msg.obj;
+                onReevaluationMessageHandled(msg.what, reason);
                 onReevaluateUnsatisfiedNetworkRequests(reason);
                 break;
             case EVENT_REEVALUATE_EXISTING_DATA_NETWORKS:
                 reason = (DataEvaluationReason) msg.obj;
+                onReevaluationMessageHandled(msg.what, reason);
                 onReevaluateExistingDataNetworks(reason);
                 break;
             case EVENT_REMOVE_NETWORK_REQUEST:
@@ -1155,8 +1168,8 @@ public class DataNetworkController extends Handler {
             case EVENT_VOICE_CALL_ENDED:
                 // In some cases we need to tear down network after call ends. For example, when
                 // delay IMS tear down until call ends is turned on.
-                sendMessage(obtainMessage(EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
-                        DataEvaluationReason.VOICE_CALL_ENDED));
+                sendReevaluationMessage(EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
+                        DataEvaluationReason.VOICE_CALL_ENDED);
                 // Delay evaluating unsatisfied network requests. In temporary DDS switch case, it
                 // takes some time to switch DDS after call end. We do not want to bring up network
                 // before switch completes.
@@ -1165,8 +1178,8 @@ public class DataNetworkController extends Handler {
                         REEVALUATE_UNSATISFIED_NETWORK_REQUESTS_AFTER_CALL_END_DELAY_MILLIS);
                 break;
             case EVENT_SLICE_CONFIG_CHANGED:
-                sendMessage(obtainMessage(EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS,
-                        DataEvaluationReason.SLICE_CONFIG_CHANGED));
+                sendReevaluationMessage(EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS,
+                        DataEvaluationReason.SLICE_CONFIG_CHANGED);
                 break;
             case EVENT_SRVCC_STATE_CHANGED:
                 ar = (AsyncResult) msg.obj;
@@ -1179,8 +1192,8 @@ public class DataNetworkController extends Handler {
                 break;
             case EVENT_PS_RESTRICT_DISABLED:
                 mPsRestricted = false;
-                sendMessage(obtainMessage(EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS,
-                        DataEvaluationReason.DATA_RESTRICTED_CHANGED));
+                sendReevaluationMessage(EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS,
+                        DataEvaluationReason.DATA_RESTRICTED_CHANGED);
                 break;
             case EVENT_TAC_CHANGED:
                 // Re-evaluate unsatisfied network requests with some delays to let DataRetryManager
@@ -1222,11 +1235,11 @@ public class DataNetworkController extends Handler {
                 break;
             case EVENT_EMERGENCY_CALL_CHANGED:
                 if (mPhone.isInEcm()) {
-                    sendMessage(obtainMessage(EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
-                            DataEvaluationReason.EMERGENCY_CALL_CHANGED));
+                    sendReevaluationMessage(EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
+                            DataEvaluationReason.EMERGENCY_CALL_CHANGED);
                 } else {
-                    sendMessage(obtainMessage(EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS,
-                            DataEvaluationReason.EMERGENCY_CALL_CHANGED));
+                    sendReevaluationMessage(EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS,
+                            DataEvaluationReason.EMERGENCY_CALL_CHANGED);
                 }
                 break;
             case EVENT_EVALUATE_PREFERRED_TRANSPORT:
@@ -1354,8 +1367,8 @@ public class DataNetworkController extends Handler {
             // Re-evaluate the existing data networks. If this request's priority is higher than
             // the existing data network, the data network will be torn down so this request will
             // get a chance to be satisfied.
-            sendMessage(obtainMessage(EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
-                    DataEvaluationReason.SINGLE_DATA_NETWORK_ARBITRATION));
+            sendReevaluationMessage(EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
+                    DataEvaluationReason.SINGLE_DATA_NETWORK_ARBITRATION);
         }
     }
 
@@ -1878,6 +1891,39 @@ public class DataNetworkController extends Handler {
         return DataUtils.getGroupedNetworkRequestList(networkRequestList, mFeatureFlags);
     }
 
+    /**
+     * Schedule the re-evaluation of the unsatisfied network requests or the existing data
+     * networks, unless an equivalent one is already pending. The pending one runs after the
+     * current trigger, so it will see its changes. Evaluations with different reasons are only
+     * merged when both are condition based, as they are evaluated in the same way.
+     *
+     * @param what {@link #EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS} or
+     * {@link #EVENT_REEVALUATE_EXISTING_DATA_NETWORKS}.
+     * @param reason The reason for evaluation.
+     */
+    private void sendReevaluationMessage(int what, @NonNull DataEvaluationReason reason) {
+        DataEvaluationReason pendingReason = mPendingReevaluationReasons.get(what);
+        if (pendingReason == reason || (pendingReason != null
+                && pendingReason.isConditionBased() && reason.isConditionBased())) {
+            mSkippedReevaluationCount++;
+            log("Skipped re-evaluation due to " + reason + ", " + pendingReason
+                    + " is pending.");
+            return;
+        }
+        mPendingReevaluationReasons.put(what, reason);
+        sendMessage(obtainMessage(what, reason));
+    }
+
+    /**
+     * Called when a re-evaluation message is handled, so that the next trigger schedules a new
+     * one.
+     */
+    private void onReevaluationMessageHandled(int what, @NonNull DataEvaluationReason reason) {
+        if (mPendingReevaluationReasons.get(what) == reason) {
+            mPendingReevaluationReasons.remove(what);
+        }
+    }
+
     /**
      * Called when it's needed to evaluate all unsatisfied network requests.
      *
@@ -3138,8 +3184,8 @@ public class DataNetworkController extends Handler {
             // re-evaluate the unsatisfied network requests again so the new network can be brought
             // up on the new target transport later.
             dataSetupRetryEntry.setState(DataRetryEntry.RETRY_STATE_CANCELLED);
-            sendMessage(obtainMessage(EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS,
-                    DataEvaluationReason.PREFERRED_TRANSPORT_CHANGED));
+            sendReevaluationMessage(EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS,
+                    DataEvaluationReason.PREFERRED_TRANSPORT_CHANGED);
             return;
         }
 
@@ -3351,8 +3397,8 @@ public class DataNetworkController extends Handler {
 
         // There might be network we didn't tear down in the last evaluation due to handover in
         // progress. We should evaluate again.
-        sendMessage(obtainMessage(EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
-                DataEvaluationReason.DATA_HANDOVER));
+        sendReevaluationMessage(EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
+                DataEvaluationReason.DATA_HANDOVER);
     }
 
     /**
@@ -3375,8 +3421,8 @@ public class DataNetworkController extends Handler {
                 + DataCallResponse.failureModeToString(handoverFailureMode));
         // There might be network we didn't tear down in the last evaluation due to handover in
         // progress. We should evaluate again.
-        sendMessage(obtainMessage(EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
-                DataEvaluationReason.DATA_HANDOVER));
+        sendReevaluationMessage(EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
+                DataEvaluationReason.DATA_HANDOVER);
 
         if (dataNetwork.getAttachedNetworkRequestList().isEmpty()) {
             log("onDataNetworkHandoverFailed: No network requests attached to " + dataNetwork
@@ -3499,8 +3545,8 @@ public class DataNetworkController extends Handler {
      */
     private void onSimAbsent() {
         log("onSimAbsent");
-        sendMessage(obtainMessage(EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
-                DataEvaluationReason.SIM_REMOVAL));
+        sendReevaluationMessage(EVENT_REEVALUATE_EXISTING_DATA_NETWORKS,
+                DataEvaluationReason.SIM_REMOVAL);
     }
 
     /**
@@ -3515,8 +3561,8 @@ public class DataNetworkController extends Handler {
             if (simState == TelephonyManager.SIM_STATE_ABSENT) {
                 onSimAbsent();
             } else if (simState == TelephonyManager.SIM_STATE_LOADED) {
-                sendMessage(obtainMessage(EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS,
-                        DataEvaluationReason.SIM_LOADED));
+                sendReevaluationMessage(EVENT_REEVALUATE_UNSATISFIED_NETWORK_REQUESTS,
+                        DataEvaluationReason.SIM_LOADED);
             }
             mDataNetworkControllerCallbacks.forEach(callback -> callback.invokeFromExecutor(
                     () -> callback.onSimStateChanged(mSimState)));
@@ -4320,6 +4366,7 @@ public class DataNetworkController extends Handler {
                 .map(TelephonyManager::getNetworkTypeName).collect(Collectors.joining(",")));
         pw.println("Congested override network types=" + mCongestedOverrideNetworkTypes.stream()
                 .map(TelephonyManager::getNetworkTypeName).collect(Collectors.joining(",")));
+        pw.println("mSkippedReevaluationCount=" + mSkippedReevaluationCount);
         pw.println("mImsThrottleCounter=" + mImsThrottleCounter);
         pw.println("mNetworkUnwantedCounter=" + mNetworkUnwantedCounter);
         pw.println("mBootStrapSimTotalDataUsageBytes=" + mBootStrapSimTotalDataUsageBytes);
@@ -46,6 +46,7 @@ import android.util.ArraySet;
 import android.util.IndentingPrintWriter;
 import android.util.LocalLog;
 import android.util.LruCache;
+import android.util.SparseArray;
 
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.data.DataConfigManager.DataConfigManagerCallback;
@@ -57,7 +58,9 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
@@ -101,6 +104,23 @@ public class DataProfileManager extends Handler {
     @NonNull
     private final List<DataProfile> mAllDataProfiles = new ArrayList<>();
 
+    /**
+     * The data profiles in {@link #mAllDataProfiles} that can be used in a network environment,
+     * in the same order, keyed by {@link #getDataProfileCandidatesKey}. Built on demand and
+     * cleared whenever the data profiles or the preferred data profile set id change.
+     */
+    @NonNull
+    private final SparseArray<List<DataProfile>> mDataProfileCandidates = new SparseArray<>();
+
+    /**
+     * The data profiles in {@link #mAllDataProfiles} that have an APN setting equal to the key, in
+     * the same order. Keyed by identity, as the APN settings passed for lookup are mostly the
+     * ones of the data profiles. Rebuilt whenever the data profiles change.
+     */
+    @NonNull
+    private final Map<ApnSetting, List<DataProfile>> mDataProfilesByApnSetting =
+            new IdentityHashMap<>();
+
     /** The data profile used for initial attach. */
     @Nullable
     private DataProfile mInitialAttachDataProfile = null;
@@ -389,11 +409,28 @@ public class DataProfileManager extends Handler {
         updateInitialAttachDataProfileAtModem(forceUpdateIa);
 
         if (profilesChanged) {
+            rebuildDataProfileIndex();
             mDataProfileManagerCallbacks.forEach(callback -> callback.invokeFromExecutor(
                     callback::onDataProfilesChanged));
         }
     }
 
+    /**
+     * Rebuild the lookup tables of the data profiles, so that finding the data profile for a
+     * network request does not need to go through all data profiles.
+     */
+    private void rebuildDataProfileIndex() {
+        mDataProfileCandidates.clear();
+        mDataProfilesByApnSetting.clear();
+        for (DataProfile dataProfile : mAllDataProfiles) {
+            ApnSetting apnSetting = dataProfile.getApnSetting();
+            if (mDataProfilesByApnSetting.containsKey(apnSetting)) continue;
+            mDataProfilesByApnSetting.put(apnSetting, mAllDataProfiles.stream()
+                    .filter(dp -> Objects.equals(apnSetting, dp.getApnSetting()))
+                    .collect(Collectors.toList()));
+        }
+    }
+
     /**
      * @return The preferred data profile set id.
      */
@@ -715,7 +752,12 @@ public class DataProfileManager extends Handler {
         // Instead of building the data profile from APN setting and traffic descriptor on-the-fly,
         // find the existing one from mAllDataProfiles so the last-setup timestamp can be retained.
         // Only create a new one when it can't be found.
-        for (DataProfile dataProfile : mAllDataProfiles) {
+        List<DataProfile> dataProfiles = mDataProfilesByApnSetting.get(apnSetting);
+        if (dataProfiles == null) {
+            // The APN setting is not one of the data profiles. Compare with all of them.
+            dataProfiles = mAllDataProfiles;
+        }
+        for (DataProfile dataProfile : dataProfiles) {
             if (Objects.equals(apnSetting, dataProfile.getApnSetting())
                     && trafficDescriptor.equals(dataProfile.getTrafficDescriptor())) {
                 return dataProfile;
@@ -800,30 +842,93 @@ public class DataProfileManager extends Handler {
             }
         }
 
-        // Filter out the data profile that can't satisfy the request.
-        // Preferred data profile should be returned in the top of the list.
-        List<DataProfile> dataProfiles = mAllDataProfiles.stream()
-                .filter(networkRequest::canBeSatisfiedBy)
-                // The longest time hasn't used data profile will be in the front so all the data
-                // profiles can be tried.
-                .sorted(Comparator.comparing(DataProfile::getLastSetupTimestamp))
-                .collect(Collectors.toList());
-        for (DataProfile dataProfile : dataProfiles) {
+        // Among the data profiles that can be used in the current environment, the longest time
+        // hasn't used data profile is picked so all the data profiles can be tried.
+        DataProfile leastRecentlyUsedDataProfile = null;
+        boolean satisfied = false;
+        for (DataProfile dataProfile : getDataProfileCandidates(networkType, isNtn,
+                isEsimBootStrapProvisioning)) {
+            if (!networkRequest.canBeSatisfiedBy(dataProfile)) continue;
             logv("Satisfied profile: " + dataProfile + ", last setup="
                     + DataUtils.elapsedTimeToString(dataProfile.getLastSetupTimestamp()));
+            satisfied = true;
+            if (!ignorePermanentFailure && dataProfile.getApnSetting().getPermanentFailed()) {
+                continue;
+            }
+            if (leastRecentlyUsedDataProfile == null || dataProfile.getLastSetupTimestamp()
+                    < leastRecentlyUsedDataProfile.getLastSetupTimestamp()) {
+                leastRecentlyUsedDataProfile = dataProfile;
+            }
         }
-        if (dataProfiles.isEmpty()) {
-            log("Can't find any data profile that can satisfy " + networkRequest);
+        if (!satisfied) {
+            String ntnReason = "";
+            if (mFeatureFlags.carrierEnabledSatelliteFlag()) {
+                ntnReason = " and infrastructure for "
+                        + NetworkRegistrationInfo.isNonTerrestrialNetworkToString(isNtn);
+            }
+            log("Can't find any data profile that can satisfy " + networkRequest
+                    + " for network type " + TelephonyManager.getNetworkTypeName(networkType)
+                    + ntnReason + " with APN set id matched. mPreferredDataProfileSetId="
+                    + mPreferredDataProfileSetId);
             return null;
         }
+        if (leastRecentlyUsedDataProfile == null) {
+            log("The suitable data profiles are all in permanent failed state.");
+            return null;
+        }
+
+        if (isEsimBootStrapProvisioning) {
+            log("Found esim bootstrap provisioning data profile for network request: "
+                    + leastRecentlyUsedDataProfile.getApnSetting());
+        }
+        return leastRecentlyUsedDataProfile.getApnSetting();
+    }
+
+    /**
+     * Get the key of {@link #mDataProfileCandidates} for a network environment.
+     *
+     * @param networkType The current data network type.
+     * @param isNtn {@code true} if the device is currently attached to non-terrestrial network.
+     * @param isEsimBootStrapProvisioning {@code true} if eSIM bootstrap provisioning is activated.
+     * @return The key.
+     */
+    private int getDataProfileCandidatesKey(@NetworkType int networkType, boolean isNtn,
+            boolean isEsimBootStrapProvisioning) {
+        // The satellite flag is part of the key as it changes how the infrastructure is checked.
+        return (networkType << 3) | (isNtn ? 1 << 2 : 0)
+                | (isEsimBootStrapProvisioning ? 1 << 1 : 0)
+                | (mFeatureFlags.carrierEnabledSatelliteFlag() ? 1 : 0);
+    }
+
+    /**
+     * Get the data profiles that can be used in a network environment, regardless of the network
+     * request and the permanent failures. The result is cached until the data profiles change.
+     *
+     * @param networkType The current data network type.
+     * @param isNtn {@code true} if the device is currently attached to non-terrestrial network.
+     * @param isEsimBootStrapProvisioning {@code true} if eSIM bootstrap provisioning is activated.
+     * @return The data profiles, in the order of {@link #mAllDataProfiles}.
+     */
+    @NonNull
+    private List<DataProfile> getDataProfileCandidates(@NetworkType int networkType,
+            boolean isNtn, boolean isEsimBootStrapProvisioning) {
+        int key = getDataProfileCandidatesKey(networkType, isNtn, isEsimBootStrapProvisioning);
+        List<DataProfile> dataProfiles = mDataProfileCandidates.get(key);
+        if (dataProfiles != null) {
+            return dataProfiles;
+        }
 
-        // Check if the remaining data profiles can used in current data network type.
-        dataProfiles = dataProfiles.stream()
+        dataProfiles = mAllDataProfiles.stream()
                 .filter((dp) -> {
                     if (dp.getApnSetting() == null) return false;
                     if (!dp.getApnSetting().canSupportNetworkType(networkType)) return false;
                     if (isEsimBootStrapProvisioning
                             != dp.getApnSetting().isEsimBootstrapProvisioning()) return false;
+                    // Check if preferred data profile set id matches.
+                    if (dp.getApnSetting().getApnSetId() != Telephony.Carriers.MATCH_ALL_APN_SET_ID
+                            && dp.getApnSetting().getApnSetId() != mPreferredDataProfileSetId) {
+                        return false;
+                    }
                     if (mFeatureFlags.carrierEnabledSatelliteFlag()) {
                         if (isNtn && !dp.getApnSetting().isForInfrastructure(
                                 ApnSetting.INFRASTRUCTURE_SATELLITE)) {
@@ -836,45 +941,8 @@ public class DataProfileManager extends Handler {
                     return true;
                 })
                 .collect(Collectors.toList());
-        if (dataProfiles.isEmpty()) {
-            String ntnReason = "";
-            if (mFeatureFlags.carrierEnabledSatelliteFlag()) {
-                ntnReason = " and infrastructure for "
-                        + NetworkRegistrationInfo.isNonTerrestrialNetworkToString(isNtn);
-            }
-            log("Can't find any data profile for network type "
-                    + TelephonyManager.getNetworkTypeName(networkType) + ntnReason);
-            return null;
-        }
-
-        // Check if preferred data profile set id matches.
-        dataProfiles = dataProfiles.stream()
-                .filter(dp -> dp.getApnSetting() != null
-                        && (dp.getApnSetting().getApnSetId()
-                        == Telephony.Carriers.MATCH_ALL_APN_SET_ID
-                        || dp.getApnSetting().getApnSetId() == mPreferredDataProfileSetId))
-                .collect(Collectors.toList());
-        if (dataProfiles.isEmpty()) {
-            log("Can't find any data profile has APN set id matched. mPreferredDataProfileSetId="
-                    + mPreferredDataProfileSetId);
-            return null;
-        }
-
-        // Check if data profiles are permanently failed.
-        dataProfiles = dataProfiles.stream()
-                .filter(dp -> ignorePermanentFailure || (dp.getApnSetting() != null
-                        && !dp.getApnSetting().getPermanentFailed()))
-                .collect(Collectors.toList());
-        if (dataProfiles.isEmpty()) {
-            log("The suitable data profiles are all in permanent failed state.");
-            return null;
-        }
-
-        if (isEsimBootStrapProvisioning) {
-            log("Found esim bootstrap provisioning data profile for network request: "
-                    + dataProfiles.get(0).getApnSetting());
-        }
-        return dataProfiles.get(0).getApnSetting();
+        mDataProfileCandidates.put(key, dataProfiles);
+        return dataProfiles;
     }
 
     /**
@@ -1223,6 +1291,8 @@ public class DataProfileManager extends Handler {
         pw.println("Preferred data profile from db=" + getPreferredDataProfileFromDb());
         pw.println("Preferred data profile from config=" + getPreferredDataProfileFromConfig());
         pw.println("Preferred data profile set id=" + mPreferredDataProfileSetId);
+        pw.println("Cached data profile candidates for " + mDataProfileCandidates.size()
+                + " network environments");
         pw.println("Last internet data profile for=");
         pw.increaseIndent();
         mLastInternetDataProfiles.snapshot().forEach((key, value) -> pw.println(key + ":" + value));
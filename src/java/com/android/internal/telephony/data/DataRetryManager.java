@@ -204,6 +204,14 @@ public class DataRetryManager extends Handler {
     @NonNull
     private final List<DataRetryEntry> mDataRetryEntries = new ArrayList<>();
 
+    /**
+     * The entries of {@link #mDataRetryEntries} that might not be retried yet, so that the
+     * pending retries can be found without going through the history. Entries in other states
+     * are removed lazily by {@link #getPendingDataRetryEntries()}.
+     */
+    @NonNull
+    private final List<DataRetryEntry> mPendingDataRetryEntries = new ArrayList<>();
+
     /**
      * Data throttling entries. Note this only stores throttling requested by networks. We intended
      * not to store frameworks-initiated throttling because they are not explicit/strong throttling
@@ -212,6 +220,13 @@ public class DataRetryManager extends Handler {
     @NonNull
     private final List<DataThrottlingEntry> mDataThrottlingEntries = new ArrayList<>();
 
+    /**
+     * The latest expiration time of the entries added to {@link #mDataThrottlingEntries} since
+     * the last reset. No data profile is throttled after this time.
+     */
+    @ElapsedRealtimeLong
+    private long mLatestThrottlingExpirationTimeMillis;
+
     /**
      * Represent a single data setup/handover throttling reported by networks.
      */
@@ -1423,9 +1438,8 @@ public class DataRetryManager extends Handler {
 
         mDataProfileManager.clearAllDataProfilePermanentFailures();
 
-        mDataRetryEntries.stream()
-                .filter(entry -> entry.getState() == DataRetryEntry.RETRY_STATE_NOT_RETRIED)
-                .forEach(entry -> entry.setState(DataRetryEntry.RETRY_STATE_CANCELLED));
+        getPendingDataRetryEntries().forEach(
+                entry -> entry.setState(DataRetryEntry.RETRY_STATE_CANCELLED));
 
         for (DataThrottlingEntry dataThrottlingEntry : mDataThrottlingEntries) {
             DataProfile dataProfile = dataThrottlingEntry.dataProfile;
@@ -1435,6 +1449,17 @@ public class DataRetryManager extends Handler {
         }
 
         mDataThrottlingEntries.clear();
+        mLatestThrottlingExpirationTimeMillis = 0;
+    }
+
+    /**
+     * @return The data retry entries that are not retried yet, in the order they were scheduled.
+     */
+    @NonNull
+    private List<DataRetryEntry> getPendingDataRetryEntries() {
+        mPendingDataRetryEntries.removeIf(
+                entry -> entry.getState() != DataRetryEntry.RETRY_STATE_NOT_RETRIED);
+        return mPendingDataRetryEntries;
     }
 
     /**
@@ -1515,9 +1540,10 @@ public class DataRetryManager extends Handler {
     private void schedule(@NonNull DataRetryEntry dataRetryEntry) {
         logl("Scheduled data retry " + dataRetryEntry + " hashcode=" + dataRetryEntry.hashCode());
         mDataRetryEntries.add(dataRetryEntry);
+        mPendingDataRetryEntries.add(dataRetryEntry);
         if (mDataRetryEntries.size() >= MAXIMUM_HISTORICAL_ENTRIES) {
             // Discard the oldest retry entry.
-            mDataRetryEntries.remove(0);
+            mPendingDataRetryEntries.remove(mDataRetryEntries.remove(0));
         }
 
         // When the device is in doze mode, the handler message might be extremely delayed because
@@ -1613,6 +1639,8 @@ public class DataRetryManager extends Handler {
         }
         logl("Add throttling entry " + entry);
         mDataThrottlingEntries.add(entry);
+        mLatestThrottlingExpirationTimeMillis = Math.max(mLatestThrottlingExpirationTimeMillis,
+                expirationTime);
 
         // For backwards compatibility, we use RETRY_TYPE_NONE if network suggests never retry.
         final int dataRetryType = expirationTime == Long.MAX_VALUE
@@ -1732,17 +1760,15 @@ public class DataRetryManager extends Handler {
     private void cancelRetriesForDataProfile(@NonNull DataProfile dataProfile,
             @TransportType int transport) {
         logl("cancelRetriesForDataProfile: Canceling pending retries for " + dataProfile);
-        mDataRetryEntries.stream()
+        getPendingDataRetryEntries().stream()
                 .filter(entry -> {
-                    if (entry.getState() == DataRetryEntry.RETRY_STATE_NOT_RETRIED) {
-                        if (entry instanceof DataSetupRetryEntry) {
-                            DataSetupRetryEntry retryEntry = (DataSetupRetryEntry) entry;
-                            return dataProfile.equals(retryEntry.dataProfile)
-                                    && transport == retryEntry.transport;
-                        } else if (entry instanceof DataHandoverRetryEntry) {
-                            DataHandoverRetryEntry retryEntry = (DataHandoverRetryEntry) entry;
-                            return dataProfile.equals(retryEntry.dataNetwork.getDataProfile());
-                        }
+                    if (entry instanceof DataSetupRetryEntry) {
+                        DataSetupRetryEntry retryEntry = (DataSetupRetryEntry) entry;
+                        return dataProfile.equals(retryEntry.dataProfile)
+                                && transport == retryEntry.transport;
+                    } else if (entry instanceof DataHandoverRetryEntry) {
+                        DataHandoverRetryEntry retryEntry = (DataHandoverRetryEntry) entry;
+                        return dataProfile.equals(retryEntry.dataNetwork.getDataProfile());
                     }
                     return false;
                 })
@@ -1762,11 +1788,11 @@ public class DataRetryManager extends Handler {
     public boolean isSimilarNetworkRequestRetryScheduled(
             @NonNull TelephonyNetworkRequest networkRequest, @TransportType int transport) {
         long now = SystemClock.elapsedRealtime();
-        for (int i = mDataRetryEntries.size() - 1; i >= 0; i--) {
-            if (mDataRetryEntries.get(i) instanceof DataSetupRetryEntry) {
-                DataSetupRetryEntry entry = (DataSetupRetryEntry) mDataRetryEntries.get(i);
-                if (entry.getState() == DataRetryEntry.RETRY_STATE_NOT_RETRIED
-                        && entry.setupRetryType
+        List<DataRetryEntry> pendingDataRetryEntries = getPendingDataRetryEntries();
+        for (int i = pendingDataRetryEntries.size() - 1; i >= 0; i--) {
+            if (pendingDataRetryEntries.get(i) instanceof DataSetupRetryEntry) {
+                DataSetupRetryEntry entry = (DataSetupRetryEntry) pendingDataRetryEntries.get(i);
+                if (entry.setupRetryType
                         == DataSetupRetryEntry.RETRY_TYPE_NETWORK_REQUESTS
                         && entry.retryElapsedTime > now) {
                     if (entry.networkRequestList.isEmpty()) {
@@ -1800,6 +1826,10 @@ public class DataRetryManager extends Handler {
     public boolean isDataProfileThrottled(@NonNull DataProfile dataProfile,
             @TransportType int transport) {
         long now = SystemClock.elapsedRealtime();
+        if (now >= mLatestThrottlingExpirationTimeMillis) {
+            // All throttling expired.
+            return false;
+        }
         return mDataThrottlingEntries.stream().anyMatch(
                 entry -> entry.dataProfile.equals(dataProfile) && entry.expirationTimeMillis > now
                         && entry.transport == transport);
@@ -1820,10 +1850,9 @@ public class DataRetryManager extends Handler {
      * @param dataNetwork The data network that was originally scheduled for handover retry.
      */
     private void onCancelPendingHandoverRetry(@NonNull DataNetwork dataNetwork) {
-        mDataRetryEntries.stream()
+        getPendingDataRetryEntries().stream()
                 .filter(entry -> entry instanceof DataHandoverRetryEntry
-                        && ((DataHandoverRetryEntry) entry).dataNetwork == dataNetwork
-                        && entry.getState() == DataRetryEntry.RETRY_STATE_NOT_RETRIED)
+                        && ((DataHandoverRetryEntry) entry).dataNetwork == dataNetwork)
                 .forEach(entry -> entry.setState(DataRetryEntry.RETRY_STATE_CANCELLED));
 
         long now = SystemClock.elapsedRealtime();
@@ -1888,11 +1917,10 @@ public class DataRetryManager extends Handler {
      * @return {@code true} if there is retry scheduled for this network capability.
      */
     public boolean isAnyHandoverRetryScheduled(@NonNull DataNetwork dataNetwork) {
-        return mDataRetryEntries.stream()
+        return getPendingDataRetryEntries().stream()
                 .filter(DataHandoverRetryEntry.class::isInstance)
                 .map(DataHandoverRetryEntry.class::cast)
-                .anyMatch(entry -> entry.getState() == DataRetryEntry.RETRY_STATE_NOT_RETRIED
-                        && entry.dataNetwork == dataNetwork);
+                .anyMatch(entry -> entry.dataNetwork == dataNetwork);
     }
 
     /**
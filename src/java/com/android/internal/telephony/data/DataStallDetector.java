@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.data;
+
+import android.annotation.ElapsedRealtimeLong;
+import android.annotation.NonNull;
+
+/**
+ * DataStallDetector suspects a data stall from the mobile traffic counters, before the network
+ * validation fails. Every poll interval in which bytes were sent but none were received pushes a
+ * CUSUM statistic up, and every interval with received bytes pulls it down, so that a stall is
+ * suspected after a few consecutive silent intervals while sporadic ones are absorbed.
+ * <p/>
+ * The detector also keeps how the suspicions turned out: confirmed when the validation failed
+ * afterwards, false positive when the validation passed or the traffic resumed first. It keeps
+ * constant state and must be used from a single thread.
+ */
+public class DataStallDetector {
+    /** The amount the CUSUM statistic drops for every interval with received bytes. */
+    private static final double CUSUM_DRIFT = 0.5;
+
+    /** The weight of the latest interval in the average of the received bytes. */
+    private static final double EWMA_ALPHA = 0.2;
+
+    /** The CUSUM statistic at which a data stall is suspected. */
+    private final double mThreshold;
+
+    /** The CUSUM statistic over the intervals with sent but no received bytes. */
+    private double mCusum;
+
+    /** The exponentially weighted moving average of the received bytes per interval. */
+    private double mAverageRxBytes;
+
+    /** The time the current suspicion was raised, or {@code 0} if none. */
+    @ElapsedRealtimeLong
+    private long mSuspectedTimeMillis;
+
+    /** The number of suspicions raised. */
+    private int mSuspectedCount;
+
+    /** The number of suspicions followed by a validation failure. */
+    private int mConfirmedCount;
+
+    /** The number of suspicions followed by a validation pass or by resumed traffic. */
+    private int mFalsePositiveCount;
+
+    /** The sum of the times between a confirmed suspicion and the validation failure. */
+    private long mTotalLeadTimeMillis;
+
+    /**
+     * Constructor
+     *
+     * @param threshold The CUSUM statistic at which a data stall is suspected. Each silent
+     *     interval adds {@code 1 - 0.5} to the statistic.
+     */
+    public DataStallDetector(double threshold) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("threshold must be greater than 0");
+        }
+        mThreshold = threshold;
+    }
+
+    /**
+     * Adds the traffic of one poll interval.
+     *
+     * @param txBytes The bytes sent in the interval.
+     * @param rxBytes The bytes received in the interval.
+     * @param nowMillis The current elapsed real time.
+     * @return {@code true} if this interval raised a new suspicion.
+     */
+    public boolean onTrafficSample(long txBytes, long rxBytes,
+            @ElapsedRealtimeLong long nowMillis) {
+        if (txBytes < 0 || rxBytes < 0) {
+            // The counters were reset, e.g. the interface went down.
+            return false;
+        }
+        mAverageRxBytes += EWMA_ALPHA * (rxBytes - mAverageRxBytes);
+        if (txBytes == 0 && rxBytes == 0) {
+            // Idle intervals tell nothing about the link.
+            return false;
+        }
+        double silent = rxBytes == 0 ? 1 : 0;
+        mCusum = Math.max(0, mCusum + silent - CUSUM_DRIFT);
+        if (mCusum == 0) {
+            if (mSuspectedTimeMillis != 0) {
+                // The traffic resumed before the validation failed.
+                mFalsePositiveCount++;
+                mSuspectedTimeMillis = 0;
+            }
+        } else if (mCusum >= mThreshold && mSuspectedTimeMillis == 0) {
+            mSuspectedTimeMillis = nowMillis;
+            mSuspectedCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records the network validation result, and resolves the current suspicion if any.
+     *
+     * @param isValid {@code true} if the validation passed.
+     * @param nowMillis The current elapsed real time.
+     */
+    public void onValidationResult(boolean isValid, @ElapsedRealtimeLong long nowMillis) {
+        if (mSuspectedTimeMillis != 0) {
+            if (isValid) {
+                mFalsePositiveCount++;
+            } else {
+                mConfirmedCount++;
+                mTotalLeadTimeMillis += nowMillis - mSuspectedTimeMillis;
+            }
+            mSuspectedTimeMillis = 0;
+        }
+        if (isValid) {
+            mCusum = 0;
+        }
+    }
+
+    /** Clears the statistics of the current link, e.g. when it is disconnected. */
+    public void reset() {
+        mCusum = 0;
+        mAverageRxBytes = 0;
+        mSuspectedTimeMillis = 0;
+    }
+
+    /** @return {@code true} if a data stall is currently suspected. */
+    public boolean isStallSuspected() {
+        return mSuspectedTimeMillis != 0;
+    }
+
+    /** @return The number of suspicions raised. */
+    public int getSuspectedCount() {
+        return mSuspectedCount;
+    }
+
+    /** @return The number of suspicions followed by a validation failure. */
+    public int getConfirmedCount() {
+        return mConfirmedCount;
+    }
+
+    /** @return The number of suspicions followed by a validation pass or by resumed traffic. */
+    public int getFalsePositiveCount() {
+        return mFalsePositiveCount;
+    }
+
+    /**
+     * @return The average time between a confirmed suspicion and the validation failure, i.e. how
+     *     much earlier the stall was detected, or {@code 0} if none was confirmed.
+     */
+    public long getAverageLeadTimeMillis() {
+        return mConfirmedCount == 0 ? 0 : mTotalLeadTimeMillis / mConfirmedCount;
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        return "DataStallDetector=[cusum=" + mCusum + ", averageRxBytes=" + (long) mAverageRxBytes
+                + ", suspected=" + mSuspectedCount + ", confirmed=" + mConfirmedCount
+                + ", falsePositive=" + mFalsePositiveCount
+                + ", averageLeadTimeMillis=" + getAverageLeadTimeMillis() + "]";
+    }
+}
@@ -24,6 +24,7 @@ import android.annotation.IntDef;
 import android.annotation.NonNull;
 import android.content.Intent;
 import android.database.ContentObserver;
+import android.net.LinkProperties;
 import android.net.NetworkAgent;
 import android.net.NetworkCapabilities;
 import android.net.Uri;
@@ -32,6 +33,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.provider.Settings;
 import android.telephony.Annotation.RadioPowerState;
 import android.telephony.Annotation.ValidationStatus;
@@ -45,6 +47,7 @@ import android.util.LocalLog;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.PhoneConstants;
+import com.android.internal.telephony.TelephonyFacade;
 import com.android.internal.telephony.data.DataConfigManager.DataConfigManagerCallback;
 import com.android.internal.telephony.data.DataNetworkController.DataNetworkControllerCallback;
 import com.android.internal.telephony.data.DataSettingsManager.DataSettingsManagerCallback;
@@ -58,8 +61,10 @@ import java.io.PrintWriter;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 
 /**
  * DataStallRecoveryManager monitors the network validation result from connectivity service and
@@ -140,6 +145,19 @@ public class DataStallRecoveryManager extends Handler {
     /** Event for duration milliseconds changed. */
     private static final int EVENT_CONTENT_DSRM_DURATION_MILLIS_CHANGED = 5;
 
+    /** Event for polling the mobile traffic counters. */
+    private static final int EVENT_POLL_TRAFFIC_STATS = 6;
+
+    /**
+     * The property for the interval in milliseconds to poll the mobile traffic counters for the
+     * {@link DataStallDetector}. {@code 0} disables the detector.
+     */
+    private static final String PROPERTY_TRAFFIC_POLL_INTERVAL_MILLIS =
+            "persist.radio.dsrm_traffic_poll_interval_ms";
+
+    /** The CUSUM threshold of the detector, reached after 4 consecutive silent intervals. */
+    private static final double DATA_STALL_DETECTOR_THRESHOLD = 2.0;
+
     @NonNull
     private final Phone mPhone;
     @NonNull
@@ -236,6 +254,32 @@ public class DataStallRecoveryManager extends Handler {
     @ElapsedRealtimeLong
     private long mPredictWaitingMillis = 0L;
 
+    @NonNull
+    private final TelephonyFacade mTelephonyFacade;
+
+    /** Suspects data stalls from the traffic counters before the validation fails. */
+    @NonNull
+    private final DataStallDetector mDataStallDetector =
+            new DataStallDetector(DATA_STALL_DETECTOR_THRESHOLD);
+
+    /** The interval to poll the traffic counters, or {@code 0} if the detector is disabled. */
+    private long mTrafficPollIntervalMillis =
+            SystemProperties.getLong(PROPERTY_TRAFFIC_POLL_INTERVAL_MILLIS, 0);
+
+    /**
+     * The interfaces of the connected internet networks of this phone. Only their traffic is fed
+     * to the detector, as the mobile counters of {@link android.net.TrafficStats} aggregate all
+     * the subscriptions on multi-SIM devices.
+     */
+    @NonNull
+    private Set<String> mInternetInterfaceNames = Collections.emptySet();
+
+    /** The mobile bytes sent at the last poll, or {@code -1} before the first poll. */
+    private long mLastTxBytes = -1;
+
+    /** The mobile bytes received at the last poll, or {@code -1} before the first poll. */
+    private long mLastRxBytes = -1;
+
     /**
      * The data stall recovery manager callback. Note this is only used for passing information
      * internally in the data stack, should not be used externally.
@@ -275,7 +319,33 @@ public class DataStallRecoveryManager extends Handler {
             @NonNull FeatureFlags featureFlags,
             @NonNull Looper looper,
             @NonNull DataStallRecoveryManagerCallback callback) {
+        this(phone, dataNetworkController, dataServiceManager, featureFlags, looper, callback,
+                new TelephonyFacade());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param phone The phone instance.
+     * @param dataNetworkController Data network controller
+     * @param dataServiceManager The WWAN data service manager.
+     * @param featureFlags The feature flag.
+     * @param looper The looper to be used by the handler. Currently the handler thread is the phone
+     *     process's main thread.
+     * @param callback Callback to notify data network controller for data stall events.
+     * @param telephonyFacade The facade to read the traffic counters.
+     */
+    @VisibleForTesting
+    public DataStallRecoveryManager(
+            @NonNull Phone phone,
+            @NonNull DataNetworkController dataNetworkController,
+            @NonNull DataServiceManager dataServiceManager,
+            @NonNull FeatureFlags featureFlags,
+            @NonNull Looper looper,
+            @NonNull DataStallRecoveryManagerCallback callback,
+            @NonNull TelephonyFacade telephonyFacade) {
         super(looper);
+        mTelephonyFacade = telephonyFacade;
         mPhone = phone;
         mLogTag = "DSRM-" + mPhone.getPhoneId();
         log("DataStallRecoveryManager created.");
@@ -335,11 +405,22 @@ public class DataStallRecoveryManager extends Handler {
                                             && capabilities.hasCapability(
                                             NetworkCapabilities.NET_CAPABILITY_NOT_VPN);
                                 });
+                        Set<String> interfaceNames = internetNetworks.stream()
+                                .map(DataNetwork::getLinkProperties)
+                                .filter(lp -> lp != null && lp.getInterfaceName() != null)
+                                .map(LinkProperties::getInterfaceName)
+                                .collect(Collectors.toSet());
+                        boolean interfacesChanged = !mInternetInterfaceNames.equals(interfaceNames);
+                        mInternetInterfaceNames = interfaceNames;
                         if (mIsInternetNetworkConnected != anyInternetRequireValidatedConnected) {
                             mIsInternetNetworkConnected = anyInternetRequireValidatedConnected;
                             logl(mIsInternetNetworkConnected
                                     ? "At Least One InternetDataNetwork Connected"
                                     : "All InternetDataNetwork Disconnected");
+                            updateTrafficPolling();
+                        } else if (interfacesChanged) {
+                            // The counters of the new interfaces can't be compared with the last.
+                            updateTrafficPolling();
                         }
                     }
                 });
@@ -394,6 +475,9 @@ public class DataStallRecoveryManager extends Handler {
             case EVENT_CONTENT_DSRM_DURATION_MILLIS_CHANGED:
                 updateGlobalConfigDurations();
                 break;
+            case EVENT_POLL_TRAFFIC_STATS:
+                onPollTrafficStats();
+                break;
             default:
                 loge("Unexpected message = " + msg);
                 break;
@@ -575,6 +659,7 @@ public class DataStallRecoveryManager extends Handler {
             mActionValidationCount += 1;
         }
         setNetworkValidationState(isValid);
+        mDataStallDetector.onValidationResult(isValid, SystemClock.elapsedRealtime());
         if (isValid) {
             if (mFeatureFlags.dsrsDiagnosticsEnabled()) {
                 // Broadcast intent that data stall recovered.
@@ -590,6 +675,56 @@ public class DataStallRecoveryManager extends Handler {
         }
     }
 
+    /** Start or stop polling the traffic counters when the internet network changes. */
+    private void updateTrafficPolling() {
+        if (mTrafficPollIntervalMillis <= 0) return;
+        removeMessages(EVENT_POLL_TRAFFIC_STATS);
+        mLastTxBytes = -1;
+        mLastRxBytes = -1;
+        mDataStallDetector.reset();
+        if (mIsInternetNetworkConnected) {
+            sendEmptyMessage(EVENT_POLL_TRAFFIC_STATS);
+        }
+    }
+
+    /**
+     * Set the interval to poll the traffic counters for the data stall detector.
+     *
+     * @param intervalMillis The interval, or {@code 0} to disable the detector.
+     */
+    @VisibleForTesting
+    public void setTrafficPollIntervalMillis(long intervalMillis) {
+        mTrafficPollIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * Feed the traffic of the last interval to the data stall detector. When it suspects a stall
+     * while the network is still considered valid, refresh the data call list, which is the
+     * cheapest recovery action and does not disturb the network. The recovery steps still only
+     * start when the validation fails.
+     *
+     * <p>Only the interfaces of this phone's internet networks are counted, so that the traffic
+     * of the other subscription on a multi-SIM device does not hide a stall.
+     */
+    private void onPollTrafficStats() {
+        long txBytes = 0;
+        long rxBytes = 0;
+        for (String interfaceName : mInternetInterfaceNames) {
+            txBytes += Math.max(0, mTelephonyFacade.getTxBytes(interfaceName));
+            rxBytes += Math.max(0, mTelephonyFacade.getRxBytes(interfaceName));
+        }
+        if (mLastTxBytes >= 0
+                && mDataStallDetector.onTrafficSample(txBytes - mLastTxBytes,
+                        rxBytes - mLastRxBytes, SystemClock.elapsedRealtime())
+                && mIsValidNetwork && !isRecoveryAlreadyStarted()) {
+            logl("onPollTrafficStats: data stall suspected, " + mDataStallDetector);
+            getDataCallList();
+        }
+        mLastTxBytes = txBytes;
+        mLastRxBytes = rxBytes;
+        sendEmptyMessageDelayed(EVENT_POLL_TRAFFIC_STATS, mTrafficPollIntervalMillis);
+    }
+
     /** Reset the action to initial step. */
     private void resetAction() {
         mTimeLastRecoveryStartMs = 0;
@@ -1076,6 +1211,9 @@ public class DataStallRecoveryManager extends Handler {
                 "mMobileDataChangedToEnabledDuringDataStall="
                         + mMobileDataChangedToEnabledDuringDataStall);
         pw.println("mPredictWaitingMillis=" + mPredictWaitingMillis);
+        pw.println("mTrafficPollIntervalMillis=" + mTrafficPollIntervalMillis);
+        pw.println("mInternetInterfaceNames=" + mInternetInterfaceNames);
+        pw.println(mDataStallDetector);
         pw.println(
                 "DataStallRecoveryDelayMillisArray="
                         + Arrays.toString(mDataStallRecoveryDelayMillisArray));
@@ -26,7 +26,9 @@ import android.os.Looper;
 import android.os.Message;
 import android.telephony.AccessNetworkConstants;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.data.KeepaliveStatus.KeepaliveStatusCode;
 import com.android.internal.telephony.data.TelephonyNetworkAgent.TelephonyNetworkAgentCallback;
@@ -75,6 +77,19 @@ public class KeepaliveTracker extends Handler {
     @NonNull
     private final SparseArray<KeepaliveRecord> mKeepalives = new SparseArray<>();
 
+    /**
+     * The slots whose start request is still in flight in the modem, mapped to whether the
+     * connectivity service already requested to stop them.
+     */
+    @NonNull
+    private final SparseBooleanArray mPendingStartSlots = new SparseBooleanArray();
+
+    /** The number of keepalive requests sent to the modem. */
+    private int mRilRequestCount;
+
+    /** The number of keepalive requests coalesced into one already in flight. */
+    private int mCoalescedRequestCount;
+
     /**
      * Keepalive session record
      */
@@ -86,6 +101,9 @@ public class KeepaliveTracker extends Handler {
         @KeepaliveStatusCode
         public int currentStatus;
 
+        /** Whether the stop request was sent to the modem. */
+        public boolean stopRequested;
+
         /**
          * Constructor
          *
@@ -137,6 +155,8 @@ public class KeepaliveTracker extends Handler {
             case EVENT_KEEPALIVE_STARTED:
                 ar = (AsyncResult) msg.obj;
                 slotIndex = msg.arg1;
+                final boolean stopRequested = mPendingStartSlots.get(slotIndex);
+                mPendingStartSlots.delete(slotIndex);
                 if (ar.exception != null || ar.result == null) {
                     loge("EVENT_KEEPALIVE_STARTED: error starting keepalive, e="
                             + ar.exception);
@@ -145,7 +165,7 @@ public class KeepaliveTracker extends Handler {
                     break;
                 }
                 ks = (KeepaliveStatus) ar.result;
-                onSocketKeepaliveStarted(slotIndex, ks);
+                onSocketKeepaliveStarted(slotIndex, ks, stopRequested);
                 break;
             case EVENT_KEEPALIVE_STOPPED:
                 ar = (AsyncResult) msg.obj;
@@ -154,8 +174,15 @@ public class KeepaliveTracker extends Handler {
                 if (ar.exception != null) {
                     loge("EVENT_KEEPALIVE_STOPPED: error stopping keepalive for handle="
                             + handle + " e=" + ar.exception);
-                    onKeepaliveStatus(new KeepaliveStatus(
-                            KeepaliveStatus.ERROR_UNKNOWN));
+                    KeepaliveRecord kr = mKeepalives.get(handle);
+                    if (kr != null) {
+                        // The session is still running in the modem, let the next stop
+                        // request reach it.
+                        kr.stopRequested = false;
+                        mNetworkAgent.sendSocketKeepaliveEvent(kr.slotIndex,
+                                keepaliveStatusErrorToPacketKeepaliveError(
+                                        KeepaliveStatus.ERROR_UNKNOWN));
+                    }
                 } else {
                     log("Keepalive Stop Requested for handle=" + handle);
                     onKeepaliveStatus(new KeepaliveStatus(
@@ -198,6 +225,8 @@ public class KeepaliveTracker extends Handler {
                 + interval.getSeconds() + "s, packet=" + packet);
         if (packet instanceof NattKeepalivePacketData) {
             if (mDataNetwork.getTransport() == AccessNetworkConstants.TRANSPORT_TYPE_WWAN) {
+                mPendingStartSlots.put(slotIndex, false);
+                mRilRequestCount++;
                 mPhone.mCi.startNattKeepalive(mDataNetwork.getId(), packet,
                         (int) TimeUnit.SECONDS.toMillis(interval.getSeconds()),
                         obtainMessage(EVENT_KEEPALIVE_STARTED, slotIndex, 0, null));
@@ -225,6 +254,14 @@ public class KeepaliveTracker extends Handler {
      */
     private void onStopSocketKeepaliveRequested(int slotIndex) {
         log("onStopSocketKeepaliveRequested: slot=" + slotIndex);
+        int index = mPendingStartSlots.indexOfKey(slotIndex);
+        if (index >= 0) {
+            // The modem has not assigned a handle yet. Stop the session as soon as it does,
+            // rather than reporting no such slot and leaking it in the modem.
+            log("Deferring stop until keepalive started, slot=" + slotIndex);
+            mPendingStartSlots.setValueAt(index, true);
+            return;
+        }
         int handle = getHandleForSlot(slotIndex);
         if (handle < 0) {
             loge("No slot found for stopSocketKeepalive! " + slotIndex);
@@ -233,9 +270,28 @@ public class KeepaliveTracker extends Handler {
             return;
         }
 
+        KeepaliveRecord kr = mKeepalives.get(handle);
+        if (kr.stopRequested) {
+            // The result of the stop in flight is reported for this slot as well.
+            log("Keepalive stop already in flight, handle=" + handle);
+            mCoalescedRequestCount++;
+            return;
+        }
+        stopKeepalive(handle, kr);
+    }
+
+    /**
+     * Request the modem to stop the keepalive session.
+     *
+     * @param handle The keepalive handle.
+     * @param kr The keepalive record.
+     */
+    private void stopKeepalive(int handle, @NonNull KeepaliveRecord kr) {
         log("Stopping keepalive with handle: " + handle);
+        kr.stopRequested = true;
+        mRilRequestCount++;
         mPhone.mCi.stopNattKeepalive(handle, obtainMessage(EVENT_KEEPALIVE_STOPPED, handle,
-                slotIndex, null));
+                kr.slotIndex, null));
     }
 
     /**
@@ -273,20 +329,30 @@ public class KeepaliveTracker extends Handler {
      *
      * @param slotIndex The SIM slot index.
      * @param ks Keepalive status.
+     * @param stopRequested Whether the stop was requested while the start was in flight.
      */
-    private void onSocketKeepaliveStarted(int slotIndex, @NonNull KeepaliveStatus ks) {
-        log("onSocketKeepaliveStarted: slot=" + slotIndex + ", keepaliveStatus=" + ks);
+    private void onSocketKeepaliveStarted(int slotIndex, @NonNull KeepaliveStatus ks,
+            boolean stopRequested) {
+        log("onSocketKeepaliveStarted: slot=" + slotIndex + ", keepaliveStatus=" + ks
+                + ", stopRequested=" + stopRequested);
         switch (ks.statusCode) {
             case KeepaliveStatus.STATUS_INACTIVE:
                 mNetworkAgent.sendSocketKeepaliveEvent(slotIndex,
                         keepaliveStatusErrorToPacketKeepaliveError(ks.errorCode));
                 break;
             case KeepaliveStatus.STATUS_ACTIVE:
-                mNetworkAgent.sendSocketKeepaliveEvent(slotIndex, SocketKeepalive.SUCCESS);
+                // The stop result is reported instead if the stop was already requested.
+                if (!stopRequested) {
+                    mNetworkAgent.sendSocketKeepaliveEvent(slotIndex, SocketKeepalive.SUCCESS);
+                }
                 // fall through to add record
             case KeepaliveStatus.STATUS_PENDING:
                 log("Adding keepalive handle=" + ks.sessionHandle + " slotIndex = " + slotIndex);
-                mKeepalives.put(ks.sessionHandle, new KeepaliveRecord(slotIndex, ks.statusCode));
+                KeepaliveRecord kr = new KeepaliveRecord(slotIndex, ks.statusCode);
+                mKeepalives.put(ks.sessionHandle, kr);
+                if (stopRequested) {
+                    stopKeepalive(ks.sessionHandle, kr);
+                }
                 break;
             default:
                 log("Invalid KeepaliveStatus Code: " + ks.statusCode);
@@ -377,6 +443,31 @@ public class KeepaliveTracker extends Handler {
         sendEmptyMessage(EVENT_UNREGISTER_FOR_KEEPALIVE_STATUS);
     }
 
+    /**
+     * @return The number of keepalive requests sent to the modem.
+     */
+    @VisibleForTesting
+    public int getRilRequestCount() {
+        return mRilRequestCount;
+    }
+
+    /**
+     * @return The number of keepalive requests coalesced into one already in flight, i.e. the
+     * modem round trips saved.
+     */
+    @VisibleForTesting
+    public int getCoalescedRequestCount() {
+        return mCoalescedRequestCount;
+    }
+
+    @Override
+    public String toString() {
+        return "[KeepaliveTracker: keepalives=" + mKeepalives.size()
+                + ", pendingStarts=" + mPendingStartSlots.size()
+                + ", rilRequests=" + mRilRequestCount
+                + ", coalescedRequests=" + mCoalescedRequestCount + "]";
+    }
+
     /**
      * Log debug messages.
      * @param s debug messages
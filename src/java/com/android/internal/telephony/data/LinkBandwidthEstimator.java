@@ -33,6 +33,7 @@ import android.os.HandlerExecutor;
 import android.os.Looper;
 import android.os.Message;
 import android.os.OutcomeReceiver;
+import android.os.SystemProperties;
 import android.preference.PreferenceManager;
 import android.telephony.AccessNetworkConstants;
 import android.telephony.Annotation.DataActivityType;
@@ -53,6 +54,7 @@ import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.LocalLog;
+import android.util.LruCache;
 import android.util.Pair;
 import android.view.Display;
 
@@ -97,10 +99,20 @@ public class LinkBandwidthEstimator extends Handler {
     static final int MSG_ACTIVE_PHONE_CHANGED = 8;
     @VisibleForTesting
     static final int MSG_DATA_REG_STATE_OR_RAT_CHANGED = 9;
+    @VisibleForTesting
+    static final int MSG_FLUSH_BANDWIDTH_STATS = 10;
 
     @VisibleForTesting
     static final int UNKNOWN_TAC = CellInfo.UNAVAILABLE;
 
+    // Interval to write the accumulated bandwidth stats to the shared preferences
+    @VisibleForTesting
+    static final int BANDWIDTH_STATS_FLUSH_INTERVAL_MS = 60_000;
+    // Max number of networks whose bandwidth stats are kept in memory
+    private static final int DEFAULT_MAX_NETWORKS_IN_MEMORY = 64;
+    private static final String PROPERTY_MAX_NETWORKS_IN_MEMORY =
+            "persist.radio.lbe_max_networks_in_memory";
+
     // TODO: move the following parameters to xml file
     private static final int TRAFFIC_STATS_POLL_INTERVAL_MS = 1_000;
     private static final int MODEM_POLL_MIN_INTERVAL_MS = 5_000;
@@ -355,6 +367,9 @@ public class LinkBandwidthEstimator extends Handler {
             case MSG_DATA_REG_STATE_OR_RAT_CHANGED:
                 handleDrsOrRatChanged((AsyncResult) msg.obj);
                 break;
+            case MSG_FLUSH_BANDWIDTH_STATS:
+                flushBandwidthStats();
+                break;
             default:
                 Rlog.e(TAG, "invalid message " + msg.what);
                 break;
@@ -454,6 +469,8 @@ public class LinkBandwidthEstimator extends Handler {
             handleTrafficStatsPoll();
         } else {
             logd("Traffic status poll stopped");
+            // No samples are taken until the poll restarts, write the pending ones now.
+            flushBandwidthStats();
             if (mDataActivity != TelephonyManager.DATA_ACTIVITY_NONE) {
                 mDataActivity = TelephonyManager.DATA_ACTIVITY_NONE;
                 mLinkBandwidthEstimatorCallbacks.forEach(callback -> callback.invokeFromExecutor(
@@ -1127,7 +1144,53 @@ public class LinkBandwidthEstimator extends Handler {
     // Map with NetworkKey as the key and NetworkBandwidth as the value.
     // NetworkKey is specified by the PLMN, data RAT and TAC of network.
     // NetworkBandwidth represents the bandwidth related stats of each network.
-    private final Map<NetworkKey, NetworkBandwidth> mNetworkMap = new ArrayMap<>();
+    // Only the recently used networks are kept in memory. The stats of the others are reloaded
+    // from the shared preferences when they are visited again.
+    private final LruCache<NetworkKey, NetworkBandwidth> mNetworkMap =
+            new LruCache<>(SystemProperties.getInt(PROPERTY_MAX_NETWORKS_IN_MEMORY,
+                    DEFAULT_MAX_NETWORKS_IN_MEMORY)) {
+                @Override
+                protected void entryRemoved(boolean evicted, NetworkKey key,
+                        NetworkBandwidth oldValue, NetworkBandwidth newValue) {
+                    // Write the pending stats so that they are reloaded on the next visit.
+                    if (mDirtyNetworks.remove(oldValue)) {
+                        SharedPreferences.Editor editor = getSharedPreferences().edit();
+                        oldValue.writeTo(editor);
+                        editor.apply();
+                    }
+                }
+            };
+
+    // Networks with bandwidth stats not written to the shared preferences yet.
+    private final Set<NetworkBandwidth> mDirtyNetworks = new ArraySet<>();
+
+    private SharedPreferences getSharedPreferences() {
+        return PreferenceManager.getDefaultSharedPreferences(mPhone.getContext());
+    }
+
+    /**
+     * Write the pending bandwidth stats to the shared preferences without waiting for the next
+     * periodic flush, e.g. before the device shuts down. Can be called from any thread.
+     */
+    public void requestFlushBandwidthStats() {
+        sendEmptyMessage(MSG_FLUSH_BANDWIDTH_STATS);
+    }
+
+    /** Write all the pending bandwidth stats to the shared preferences in one batch. */
+    @VisibleForTesting
+    public void flushBandwidthStats() {
+        removeMessages(MSG_FLUSH_BANDWIDTH_STATS);
+        if (mDirtyNetworks.isEmpty()) {
+            return;
+        }
+        SharedPreferences.Editor editor = getSharedPreferences().edit();
+        for (NetworkBandwidth network : mDirtyNetworks) {
+            network.writeTo(editor);
+        }
+        editor.apply();
+        logd("Flushed bandwidth stats of " + mDirtyNetworks.size() + " networks");
+        mDirtyNetworks.clear();
+    }
 
     private static class NetworkKey {
 
@@ -1192,6 +1255,9 @@ public class LinkBandwidthEstimator extends Handler {
     public class NetworkBandwidth {
 
         private final String mKey;
+        // Accumulated values and counts per link and signal level, loaded on first access.
+        private long[] mValues;
+        private int[] mCounts;
 
         NetworkBandwidth(String key) {
             mKey = key;
@@ -1199,16 +1265,48 @@ public class LinkBandwidthEstimator extends Handler {
 
         /** Update link bandwidth stats */
         public void update(long value, int link, int level) {
-            SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(
-                    mPhone.getContext());
-            String valueKey = getValueKey(link, level);
-            String countKey = getCountKey(link, level);
-            SharedPreferences.Editor editor = sp.edit();
-            long currValue = sp.getLong(valueKey, 0);
-            int currCount = sp.getInt(countKey, 0);
-            editor.putLong(valueKey, currValue + value);
-            editor.putInt(countKey, currCount + 1);
-            editor.apply();
+            load();
+            int index = getIndex(link, level);
+            mValues[index] += value;
+            mCounts[index]++;
+            if (mDirtyNetworks.add(this) && !hasMessages(MSG_FLUSH_BANDWIDTH_STATS)) {
+                sendEmptyMessageDelayed(MSG_FLUSH_BANDWIDTH_STATS,
+                        BANDWIDTH_STATS_FLUSH_INTERVAL_MS);
+            }
+        }
+
+        private void load() {
+            if (mValues != null) {
+                return;
+            }
+            SharedPreferences sp = getSharedPreferences();
+            mValues = new long[NUM_LINK_DIRECTION * NUM_SIGNAL_LEVEL];
+            mCounts = new int[NUM_LINK_DIRECTION * NUM_SIGNAL_LEVEL];
+            for (int link = 0; link < NUM_LINK_DIRECTION; link++) {
+                for (int level = 0; level < NUM_SIGNAL_LEVEL; level++) {
+                    int index = getIndex(link, level);
+                    mValues[index] = sp.getLong(getValueKey(link, level), 0);
+                    mCounts[index] = sp.getInt(getCountKey(link, level), 0);
+                }
+            }
+        }
+
+        void writeTo(@NonNull SharedPreferences.Editor editor) {
+            if (mValues == null) {
+                return;
+            }
+            for (int link = 0; link < NUM_LINK_DIRECTION; link++) {
+                for (int level = 0; level < NUM_SIGNAL_LEVEL; level++) {
+                    int index = getIndex(link, level);
+                    if (mCounts[index] == 0) continue;
+                    editor.putLong(getValueKey(link, level), mValues[index]);
+                    editor.putInt(getCountKey(link, level), mCounts[index]);
+                }
+            }
+        }
+
+        private int getIndex(int link, int level) {
+            return link * NUM_SIGNAL_LEVEL + level;
         }
 
         private String getValueKey(int link, int level) {
@@ -1225,18 +1323,14 @@ public class LinkBandwidthEstimator extends Handler {
 
         /** Get the accumulated bandwidth value */
         public long getValue(int link, int level) {
-            SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(
-                    mPhone.getContext());
-            String valueKey = getValueKey(link, level);
-            return sp.getLong(valueKey, 0);
+            load();
+            return mValues[getIndex(link, level)];
         }
 
         /** Get the accumulated bandwidth count */
         public int getCount(int link, int level) {
-            SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(
-                    mPhone.getContext());
-            String countKey = getCountKey(link, level);
-            return sp.getInt(countKey, 0);
+            load();
+            return mCounts[getIndex(link, level)];
         }
 
         @Override
@@ -1270,8 +1364,8 @@ public class LinkBandwidthEstimator extends Handler {
         IndentingPrintWriter pw = new IndentingPrintWriter(printWriter, " ");
         pw.increaseIndent();
         pw.println("current PLMN " + mPlmn + " TAC " + mTac + " RAT " + getDataRatName(mDataRat));
-        pw.println("all networks visited since device boot");
-        for (NetworkBandwidth network : mNetworkMap.values()) {
+        pw.println("recently visited networks");
+        for (NetworkBandwidth network : mNetworkMap.snapshot().values()) {
             pw.println(network.toString());
         }
 
@@ -52,6 +52,7 @@ import android.os.PersistableBundle;
 import android.os.Registrant;
 import android.os.RegistrantList;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.telephony.CarrierConfigManager;
 import android.telephony.PhoneStateListener;
 import android.telephony.SubscriptionInfo;
@@ -78,6 +79,7 @@ import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.PhoneConfigurationManager;
 import com.android.internal.telephony.PhoneFactory;
 import com.android.internal.telephony.RadioConfig;
+import com.android.internal.telephony.RilLatencyTracker.LatencyHistogram;
 import com.android.internal.telephony.TelephonyIntents;
 import com.android.internal.telephony.data.DataNetworkController.NetworkRequestList;
 import com.android.internal.telephony.data.DataSettingsManager.DataSettingsManagerCallback;
@@ -199,6 +201,15 @@ public class PhoneSwitcher extends Handler {
     /** The reason for the last time changing preferred data sub **/
     private int mLastSwitchPreferredDataReason = -1;
     private boolean mPendingSwitchNeedValidation;
+    /**
+     * The elapsed real time the current preferred data switch started, or {@code 0} if no switch
+     * is in progress.
+     */
+    private long mSwitchStartTimeMillis;
+    /** Time from the start of a switch to the validation result on the target sub. */
+    private final LatencyHistogram mValidationLatency = new LatencyHistogram();
+    /** Time from the start of a switch to the modem confirming the new preferred data phone. */
+    private final LatencyHistogram mSwitchLatency = new LatencyHistogram();
     @VisibleForTesting
     public final CellularNetworkValidator.ValidationCallback mValidationCallback =
             new CellularNetworkValidator.ValidationCallback() {
@@ -1138,6 +1149,7 @@ public class PhoneSwitcher extends Handler {
             removeMessages(EVENT_NETWORK_AVAILABLE);
             mPendingSwitchSubId = INVALID_SUBSCRIPTION_ID;
             mPendingSwitchNeedValidation = false;
+            mSwitchStartTimeMillis = 0;
         }
     }
 
@@ -1648,11 +1660,14 @@ public class PhoneSwitcher extends Handler {
                 switchReason);
         registerDefaultNetworkChangeCallback(subIdToValidate,
                 switchReason);
+        mSwitchStartTimeMillis = SystemClock.elapsedRealtime();
 
         // If validation feature is not supported, set it directly. Otherwise,
         // start validation on the subscription first.
         if (!mValidator.isValidationFeatureSupported()) {
             setAutoSelectedDataSubIdInternal(subId);
+            // As in confirmSwitch, don't time a switch that sends no modem command.
+            if (mPreferredDataSubId.get() != subId) mSwitchStartTimeMillis = 0;
             sendSetOpptCallbackHelper(callback, SET_OPPORTUNISTIC_SUB_SUCCESS);
             return;
         }
@@ -1708,12 +1723,17 @@ public class PhoneSwitcher extends Handler {
 
     private void confirmSwitch(int subId, boolean confirm) {
         logl("confirmSwitch: subId " + subId + (confirm ? " confirmed." : " cancelled."));
+        if (mSwitchStartTimeMillis != 0) {
+            mValidationLatency.record(SystemClock.elapsedRealtime() - mSwitchStartTimeMillis);
+        }
         int resultForCallBack;
         if (!isActiveSubId(subId)) {
             logl("confirmSwitch: subId " + subId + " is no longer active");
             resultForCallBack = SET_OPPORTUNISTIC_SUB_INACTIVE_SUBSCRIPTION;
+            mSwitchStartTimeMillis = 0;
         } else if (!confirm) {
             resultForCallBack = SET_OPPORTUNISTIC_SUB_VALIDATION_FAILED;
+            mSwitchStartTimeMillis = 0;
 
             // retry for auto data switch validation failure
             if (mLastSwitchPreferredDataReason == DataSwitch.Reason.DATA_SWITCH_REASON_AUTO) {
@@ -1727,6 +1747,8 @@ public class PhoneSwitcher extends Handler {
             }
             resultForCallBack = SET_OPPORTUNISTIC_SUB_SUCCESS;
             mAutoDataSwitchController.resetFailedCount();
+            // No modem command follows if the preferred data sub did not change.
+            if (mPreferredDataSubId.get() != subId) mSwitchStartTimeMillis = 0;
         }
 
         // Trigger callback if needed
@@ -1897,6 +1919,15 @@ public class PhoneSwitcher extends Handler {
         return mPreferredDataSubId.get();
     }
 
+    /**
+     * @return The time from the start of a preferred data switch to the modem confirming it.
+     */
+    @VisibleForTesting
+    @NonNull
+    public LatencyHistogram getSwitchLatencyHistogram() {
+        return mSwitchLatency;
+    }
+
     /**
      * @return The auto selected data subscription id.
      */
@@ -1932,6 +1963,8 @@ public class PhoneSwitcher extends Handler {
         pw.println("mCurrentDdsSwitchFailure=" + mCurrentDdsSwitchFailure);
         pw.println("mLastSwitchPreferredDataReason="
                 + switchReasonToString(mLastSwitchPreferredDataReason));
+        pw.println("Validation latency (ms): " + mValidationLatency);
+        pw.println("Switch latency (ms): " + mSwitchLatency);
         pw.println("Local logs:");
         pw.increaseIndent();
         mLocalLog.dump(fd, pw, args);
@@ -1982,6 +2015,10 @@ public class PhoneSwitcher extends Handler {
         }
         if (commandSuccess) {
             logl("onDdsSwitchResponse: DDS switch success on phoneId = " + phoneId);
+            if (mSwitchStartTimeMillis != 0 && phoneId == mPreferredDataPhoneId) {
+                mSwitchLatency.record(SystemClock.elapsedRealtime() - mSwitchStartTimeMillis);
+                mSwitchStartTimeMillis = 0;
+            }
             mAutoDataSwitchController.displayAutoDataSwitchNotification(phoneId,
                     mLastSwitchPreferredDataReason == DataSwitch.Reason.DATA_SWITCH_REASON_AUTO);
         }
@@ -18,6 +18,7 @@ package com.android.internal.telephony.data;
 
 import android.annotation.NonNull;
 import android.annotation.Nullable;
+import android.net.InetAddresses;
 import android.net.LinkAddress;
 import android.net.NetworkAgent;
 import android.net.QosFilter;
@@ -37,7 +38,6 @@ import com.android.telephony.Rlog;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -53,6 +53,9 @@ public class QosCallbackTracker extends Handler {
     private static final int DEDICATED_BEARER_EVENT_STATE_MODIFIED = 2;
     private static final int DEDICATED_BEARER_EVENT_STATE_DELETED = 3;
 
+    /** The address used to match the session filters without address. */
+    private static final InetAddress ANY_ADDRESS = InetAddresses.parseNumericAddress("0.0.0.0");
+
     @NonNull
     private final String mLogTag;
     @NonNull
@@ -66,6 +69,15 @@ public class QosCallbackTracker extends Handler {
     @NonNull
     private final Map<Integer, IFilter> mCallbacksToFilter;
 
+    /**
+     * The matching QoS bearer filter of each session in {@link #mQosBearerSessions}, keyed by
+     * session id and then by callback id. Callbacks not matching the session are absent. This is
+     * the state reported to the callbacks, so that the filters are only evaluated against the
+     * incoming sessions on update.
+     */
+    @NonNull
+    private final Map<Integer, Map<Integer, QosBearerFilter>> mMatchedFilters;
+
     private final int mPhoneId;
 
     /**
@@ -110,6 +122,7 @@ public class QosCallbackTracker extends Handler {
     public QosCallbackTracker(@NonNull TelephonyNetworkAgent networkAgent, @NonNull Phone phone) {
         mQosBearerSessions = new HashMap<>();
         mCallbacksToFilter = new HashMap<>();
+        mMatchedFilters = new HashMap<>();
         mNetworkAgent = networkAgent;
         mPhoneId = phone.getPhoneId();
         mRcsStats = RcsStats.getInstance();
@@ -161,10 +174,17 @@ public class QosCallbackTracker extends Handler {
 
             //On first change. Check all sessions and send.
             for (final QosBearerSession session : mQosBearerSessions.values()) {
-                if (doFiltersMatch(session, filter)) {
-                    sendSessionAvailable(callbackId, session, filter);
+                final Map<Integer, QosBearerFilter> matchedFilters =
+                        mMatchedFilters.get(session.getQosBearerSessionId());
+                final QosBearerFilter qosBearerFilter =
+                        getMatchingQosBearerFilter(session, filter);
+                if (qosBearerFilter != null) {
+                    matchedFilters.put(callbackId, qosBearerFilter);
+                    sendSessionAvailable(callbackId, session, qosBearerFilter);
 
                     notifyMetricDedicatedBearerListenerAdded(callbackId, session);
+                } else {
+                    matchedFilters.remove(callbackId);
                 }
             }
         });
@@ -179,6 +199,9 @@ public class QosCallbackTracker extends Handler {
         post(() -> {
             log("removeFilter: callbackId=" + callbackId);
             mCallbacksToFilter.remove(callbackId);
+            for (final Map<Integer, QosBearerFilter> matchedFilters : mMatchedFilters.values()) {
+                matchedFilters.remove(callbackId);
+            }
             notifyMetricDedicatedBearerListenerRemoved(callbackId);
         });
     }
@@ -196,22 +219,33 @@ public class QosCallbackTracker extends Handler {
 
             final List<QosBearerSession> sessionsToAdd = new ArrayList<>();
             final Map<Integer, QosBearerSession> incomingSessions = new HashMap<>();
+            final Map<Integer, Map<Integer, QosBearerFilter>> incomingMatchedFilters =
+                    new HashMap<>();
             final HashSet<Integer> sessionsReportedToMetric = new HashSet<>();
             for (final QosBearerSession incomingSession : sessions) {
                 int sessionId = incomingSession.getQosBearerSessionId();
                 incomingSessions.put(sessionId, incomingSession);
 
                 final QosBearerSession existingSession = mQosBearerSessions.get(sessionId);
-                for (final int callbackId : mCallbacksToFilter.keySet()) {
-                    final IFilter filter = mCallbacksToFilter.get(callbackId);
-
-                    final boolean incomingSessionMatch = doFiltersMatch(incomingSession, filter);
+                final Map<Integer, QosBearerFilter> existingMatchedFilters =
+                        existingSession != null ? mMatchedFilters.get(sessionId) : Map.of();
+                final Map<Integer, QosBearerFilter> matchedFilters = new HashMap<>();
+                incomingMatchedFilters.put(sessionId, matchedFilters);
+                for (final Map.Entry<Integer, IFilter> entry : mCallbacksToFilter.entrySet()) {
+                    final int callbackId = entry.getKey();
+                    final QosBearerFilter qosBearerFilter =
+                            getMatchingQosBearerFilter(incomingSession, entry.getValue());
+
+                    final boolean incomingSessionMatch = qosBearerFilter != null;
                     final boolean existingSessionMatch =
-                            existingSession != null && doFiltersMatch(existingSession, filter);
+                            existingMatchedFilters.containsKey(callbackId);
+                    if (incomingSessionMatch) {
+                        matchedFilters.put(callbackId, qosBearerFilter);
+                    }
 
                     if (!existingSessionMatch && incomingSessionMatch) {
                         // The filter matches now and didn't match earlier
-                        sendSessionAvailable(callbackId, incomingSession, filter);
+                        sendSessionAvailable(callbackId, incomingSession, qosBearerFilter);
 
                         bearerState = DEDICATED_BEARER_EVENT_STATE_ADDED;
                     }
@@ -220,7 +254,7 @@ public class QosCallbackTracker extends Handler {
                         // The same sessions matches the same filter, but if the qos changed,
                         // the callback still needs to be notified
                         if (!incomingSession.getQos().equals(existingSession.getQos())) {
-                            sendSessionAvailable(callbackId, incomingSession, filter);
+                            sendSessionAvailable(callbackId, incomingSession, qosBearerFilter);
                             bearerState = DEDICATED_BEARER_EVENT_STATE_MODIFIED;
                         }
                     }
@@ -250,15 +284,12 @@ public class QosCallbackTracker extends Handler {
             for (final QosBearerSession existingSession : mQosBearerSessions.values()) {
                 final int sessionId = existingSession.getQosBearerSessionId();
                 if (!incomingSessions.containsKey(sessionId)) {
-                    for (final int callbackId : mCallbacksToFilter.keySet()) {
-                        final IFilter filter = mCallbacksToFilter.get(callbackId);
+                    for (final int callbackId : mMatchedFilters.get(sessionId).keySet()) {
                         // The filter matches which means it was previously available, and now is
                         // lost
-                        if (doFiltersMatch(existingSession, filter)) {
-                            sendSessionLost(callbackId, existingSession);
-                            notifyMetricDedicatedBearerEvent(existingSession, bearerState, true);
-                            sessionsReportedToMetric.add(sessionId);
-                        }
+                        sendSessionLost(callbackId, existingSession);
+                        notifyMetricDedicatedBearerEvent(existingSession, bearerState, true);
+                        sessionsReportedToMetric.add(sessionId);
                     }
                     sessionsToRemove.add(sessionId);
                     if (!sessionsReportedToMetric.contains(sessionId)) {
@@ -272,19 +303,16 @@ public class QosCallbackTracker extends Handler {
             for (final QosBearerSession sessionToAdd : sessionsToAdd) {
                 mQosBearerSessions.put(sessionToAdd.getQosBearerSessionId(), sessionToAdd);
             }
+            mMatchedFilters.putAll(incomingMatchedFilters);
 
             // Remove any old sessions
             for (final int sessionToRemove : sessionsToRemove) {
                 mQosBearerSessions.remove(sessionToRemove);
+                mMatchedFilters.remove(sessionToRemove);
             }
         });
     }
 
-    private boolean doFiltersMatch(@NonNull final QosBearerSession qosBearerSession,
-                                   @NonNull final IFilter filter) {
-        return getMatchingQosBearerFilter(qosBearerSession, filter) != null;
-    }
-
     private boolean matchesByLocalAddress(@NonNull final QosBearerFilter sessionFilter,
                                           @NonNull final IFilter filter) {
         int portStart;
@@ -299,13 +327,7 @@ public class QosCallbackTracker extends Handler {
             return false;
         }
         if (sessionFilter.getLocalAddresses().isEmpty()) {
-            InetAddress anyAddress;
-            try {
-                anyAddress = InetAddress.getByAddress(new byte[] {0, 0, 0, 0});
-            } catch (UnknownHostException e) {
-                return false;
-            }
-            return filter.matchesLocalAddress(anyAddress, portStart, portEnd);
+            return filter.matchesLocalAddress(ANY_ADDRESS, portStart, portEnd);
         } else {
             for (final LinkAddress qosAddress : sessionFilter.getLocalAddresses()) {
                 return filter.matchesLocalAddress(qosAddress.getAddress(), portStart, portEnd);
@@ -329,13 +351,7 @@ public class QosCallbackTracker extends Handler {
             return false;
         }
         if (sessionFilter.getRemoteAddresses().isEmpty()) {
-            InetAddress anyAddress;
-            try {
-                anyAddress = InetAddress.getByAddress(new byte[] {0, 0, 0, 0});
-            } catch (UnknownHostException e) {
-                return false;
-            }
-            result = filter.matchesRemoteAddress(anyAddress, portStart, portEnd);
+            result = filter.matchesRemoteAddress(ANY_ADDRESS, portStart, portEnd);
         } else {
             for (final LinkAddress qosAddress : sessionFilter.getRemoteAddresses()) {
                 result = filter.matchesRemoteAddress(qosAddress.getAddress(), portStart, portEnd);
@@ -407,10 +423,9 @@ public class QosCallbackTracker extends Handler {
     }
 
     private void sendSessionAvailable(final int callbackId, @NonNull final QosBearerSession session,
-                                      @NonNull IFilter filter) {
-        QosBearerFilter qosBearerFilter = getMatchingQosBearerFilter(session, filter);
+                                      @NonNull QosBearerFilter qosBearerFilter) {
         List<InetSocketAddress> remoteAddresses = new ArrayList<>();
-        if (qosBearerFilter != null && !qosBearerFilter.getRemoteAddresses().isEmpty()
+        if (!qosBearerFilter.getRemoteAddresses().isEmpty()
                 && qosBearerFilter.getRemotePortRange() != null) {
             remoteAddresses.add(
                     new InetSocketAddress(qosBearerFilter.getRemoteAddresses().get(0).getAddress(),
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.metrics;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Index of the atoms stored in one repeated field of {@code PersistAtoms} by their dimension
+ * values, so that {@link PersistAtomsStorage} can aggregate a new atom into an existing one without
+ * comparing it against every stored atom.
+ *
+ * <p>The index is an open-addressed hash table of the atoms, keyed by the hash of their dimension
+ * values. The dimension values are written into two reusable {@link DimensionKey}s, one for the
+ * queried atom and one for a stored atom with the same hash, so a lookup does not allocate.
+ *
+ * <p>The index is built for one array instance. {@link PersistAtomsStorage} replaces the array
+ * whenever atoms are inserted, evicted, loaded or pulled, so the index is lazily rebuilt when it is
+ * queried with a different array. Aggregating into an existing atom only changes its metric values
+ * and does not invalidate the index.
+ *
+ * <p>This class is not thread-safe. Callers should hold the lock protecting the indexed atoms.
+ *
+ * @param <T> the type of the atoms.
+ */
+public class AtomDimensionIndex<T> {
+    /** Writes the dimension values that identify an atom. */
+    public interface KeyFunction<T> {
+        /** Adds the dimension values of {@code atom} to {@code key}, in a fixed order. */
+        void writeKey(@NonNull T atom, @NonNull DimensionKey key);
+    }
+
+    private static final int MIN_CAPACITY = 8;
+
+    @NonNull private final KeyFunction<T> mKeyFunction;
+
+    /** Dimension values of the queried atom. */
+    @NonNull private final DimensionKey mKey = new DimensionKey();
+    /** Dimension values of a stored atom, compared against {@link #mKey}. */
+    @NonNull private final DimensionKey mCandidateKey = new DimensionKey();
+
+    /** Stored atoms by slot, or null for an empty slot. The length is a power of two. */
+    @NonNull private Object[] mSlotAtoms = new Object[MIN_CAPACITY];
+    /** Hash of the dimension values of the atom in each slot. */
+    @NonNull private int[] mSlotHashes = new int[MIN_CAPACITY];
+
+    /** The array the index was built for. */
+    @Nullable private T[] mIndexedAtoms;
+
+    public AtomDimensionIndex(@NonNull KeyFunction<T> keyFunction) {
+        mKeyFunction = keyFunction;
+    }
+
+    /**
+     * Returns the atom in {@code atoms} that has the same dimension values as {@code key}, or
+     * {@code null} if it does not exist.
+     */
+    @Nullable
+    public T find(@NonNull T[] atoms, @NonNull T key) {
+        if (atoms != mIndexedAtoms) {
+            rebuild(atoms);
+        }
+        int slot = findSlot(key);
+        return slot < 0 ? null : atomAt(slot);
+    }
+
+    private void rebuild(@NonNull T[] atoms) {
+        int capacity = MIN_CAPACITY;
+        // Keep the load factor at or below 1/2.
+        while (capacity < atoms.length * 2) {
+            capacity *= 2;
+        }
+        if (capacity > mSlotAtoms.length) {
+            mSlotAtoms = new Object[capacity];
+            mSlotHashes = new int[capacity];
+        } else {
+            Arrays.fill(mSlotAtoms, null);
+        }
+        for (T atom : atoms) {
+            int slot = findSlot(atom);
+            // Keep the first match, same as a linear search would.
+            if (slot < 0) {
+                slot = -slot - 1;
+                mSlotAtoms[slot] = atom;
+                mSlotHashes[slot] = mKey.hashCode();
+            }
+        }
+        mIndexedAtoms = atoms;
+    }
+
+    /**
+     * Returns the slot of the stored atom with the same dimension values as {@code atom}, or
+     * {@code -(empty slot) - 1} if there is none. Leaves the dimension values of {@code atom} in
+     * {@link #mKey}.
+     */
+    private int findSlot(@NonNull T atom) {
+        mKey.clear();
+        mKeyFunction.writeKey(atom, mKey);
+        int hash = mKey.hashCode();
+        int mask = mSlotAtoms.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            if (mSlotAtoms[slot] == null) {
+                return -slot - 1;
+            }
+            if (mSlotHashes[slot] == hash) {
+                mCandidateKey.clear();
+                mKeyFunction.writeKey(atomAt(slot), mCandidateKey);
+                if (mKey.equals(mCandidateKey)) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T atomAt(int slot) {
+        return (T) mSlotAtoms[slot];
+    }
+
+    /** Mixes the high bits of the hash into the low bits used to pick a slot. */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Dimension values of an atom, packed into primitives where possible. Reused across lookups.
+     */
+    public static final class DimensionKey {
+        private long[] mValues = new long[16];
+        private int mNumValues;
+        private String[] mStrings = new String[4];
+        private int mNumStrings;
+        private int mHashCode;
+
+        DimensionKey() {}
+
+        /** Adds an integer dimension value. */
+        @NonNull
+        public DimensionKey add(long value) {
+            if (mNumValues == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mNumValues * 2);
+            }
+            mValues[mNumValues++] = value;
+            mHashCode = 31 * mHashCode + Long.hashCode(value);
+            return this;
+        }
+
+        /** Adds a floating point dimension value. */
+        @NonNull
+        public DimensionKey add(float value) {
+            return add((long) Float.floatToIntBits(value));
+        }
+
+        /** Adds a boolean dimension value. */
+        @NonNull
+        public DimensionKey add(boolean value) {
+            return add(value ? 1L : 0L);
+        }
+
+        /** Adds a string dimension value. */
+        @NonNull
+        public DimensionKey add(@Nullable String value) {
+            if (mNumStrings == mStrings.length) {
+                mStrings = Arrays.copyOf(mStrings, mNumStrings * 2);
+            }
+            mStrings[mNumStrings++] = value;
+            mHashCode = 31 * mHashCode + Objects.hashCode(value);
+            return this;
+        }
+
+        /** Removes the values added so far. */
+        void clear() {
+            Arrays.fill(mStrings, 0, mNumStrings, null);
+            mNumValues = 0;
+            mNumStrings = 0;
+            mHashCode = 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof DimensionKey)) return false;
+            DimensionKey that = (DimensionKey) o;
+            return mHashCode == that.mHashCode
+                    && Arrays.equals(mValues, 0, mNumValues, that.mValues, 0, that.mNumValues)
+                    && Arrays.equals(mStrings, 0, mNumStrings, that.mStrings, 0, that.mNumStrings);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.metrics;
+
+import android.annotation.NonNull;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.telephony.nano.PersistAtomsProto.PersistAtoms;
+import com.android.telephony.Rlog;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of {@link PersistAtoms} deltas, written on top of the snapshot saved by
+ * {@link PersistAtomsStorage}.
+ *
+ * <p>Each record is a serialized {@link PersistAtoms} which only holds the repeated atom fields
+ * changed since the previous record. A record replaces the corresponding fields of the snapshot
+ * when replayed, so it is usually a small fraction of the size of the snapshot.
+ *
+ * <p>The journal is bound to the snapshot it applies to by the checksum of the snapshot bytes. If
+ * the device crashes after a new snapshot was written but before the journal was reset, the stale
+ * journal no longer matches and is ignored on the next load. Every record carries its own checksum
+ * so that a torn write at the tail of the journal only drops that record.
+ *
+ * <p>Calls to {@link #readRecords}, {@link #append} and {@link #reset} must be serialized by the
+ * caller. {@link #isAppendable} can be called from any thread.
+ */
+public class PersistAtomsJournal {
+    private static final String TAG = PersistAtomsJournal.class.getSimpleName();
+
+    /** Format version of the journal header. */
+    private static final int VERSION = 1;
+
+    /** Size of the journal header: version and snapshot checksum. */
+    private static final int HEADER_SIZE_BYTES = Integer.BYTES + Long.BYTES;
+
+    /** Size of the framing of each record: length and checksum. */
+    private static final int RECORD_OVERHEAD_BYTES = Integer.BYTES + Long.BYTES;
+
+    @NonNull private final File mFile;
+
+    /** Size of the journal after which it should be compacted into a new snapshot. */
+    private final int mMaxSizeBytes;
+
+    /** Current size of the journal file, or {@code -1} if it does not match the snapshot. */
+    private volatile long mSizeBytes = -1;
+
+    /** Checksum of the snapshot the journal applies to. */
+    private long mSnapshotChecksum;
+
+    /** Number of bytes appended to the journal since creation, for diagnostics. */
+    private long mBytesAppended;
+
+    /** Number of records appended to the journal since creation, for diagnostics. */
+    private int mRecordsAppended;
+
+    public PersistAtomsJournal(@NonNull File file, int maxSizeBytes) {
+        mFile = file;
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Reads the records that apply to the given snapshot, in the order they were appended.
+     *
+     * <p>If the journal belongs to another snapshot, no records are returned and the journal must
+     * be {@link #reset} before appending. A corrupted record ends the replay; the journal is then
+     * reported as not appendable so that the storage writes a new snapshot.
+     */
+    @NonNull
+    public List<PersistAtoms> readRecords(@NonNull byte[] snapshot) {
+        List<PersistAtoms> records = new ArrayList<>();
+        mSnapshotChecksum = checksum(snapshot);
+        mSizeBytes = -1;
+        byte[] journal;
+        try {
+            journal = Files.readAllBytes(mFile.toPath());
+        } catch (NoSuchFileException e) {
+            return records;
+        } catch (IOException e) {
+            Rlog.e(TAG, "cannot read journal", e);
+            return records;
+        }
+
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(journal))) {
+            if (input.readInt() != VERSION || input.readLong() != mSnapshotChecksum) {
+                Rlog.d(TAG, "journal does not match snapshot, ignored");
+                return records;
+            }
+            long size = HEADER_SIZE_BYTES;
+            while (input.available() > 0) {
+                int length = input.readInt();
+                long crc = input.readLong();
+                if (length < 0 || length > input.available()) {
+                    Rlog.e(TAG, "truncated journal record at " + size);
+                    return records;
+                }
+                byte[] data = new byte[length];
+                input.readFully(data);
+                if (checksum(data) != crc) {
+                    Rlog.e(TAG, "corrupted journal record at " + size);
+                    return records;
+                }
+                records.add(PersistAtoms.parseFrom(data));
+                size += RECORD_OVERHEAD_BYTES + length;
+            }
+            mSizeBytes = size;
+        } catch (IOException e) {
+            // Includes a record cut in the middle of its framing, keep what was parsed so far.
+            Rlog.e(TAG, "cannot parse journal", e);
+        }
+        return records;
+    }
+
+    /**
+     * Returns whether a delta can be appended, or the journal should be compacted into a new
+     * snapshot instead.
+     */
+    public boolean isAppendable() {
+        long size = mSizeBytes;
+        return size >= 0 && size < mMaxSizeBytes;
+    }
+
+    /**
+     * Appends the serialized {@link PersistAtoms} delta to the journal.
+     *
+     * @return {@code true} if the delta was persisted, {@code false} if the journal does not match
+     *     the snapshot or could not be written, and must be reset with a new snapshot.
+     */
+    public boolean append(@NonNull byte[] data) {
+        if (mSizeBytes < 0) {
+            return false;
+        }
+        try (DataOutputStream output =
+                new DataOutputStream(new FileOutputStream(mFile, true /* append */))) {
+            output.writeInt(data.length);
+            output.writeLong(checksum(data));
+            output.write(data);
+        } catch (IOException e) {
+            Rlog.e(TAG, "cannot append to journal", e);
+            // The tail of the journal is unknown, force a new snapshot.
+            mSizeBytes = -1;
+            return false;
+        }
+        mSizeBytes += RECORD_OVERHEAD_BYTES + data.length;
+        mBytesAppended += RECORD_OVERHEAD_BYTES + data.length;
+        mRecordsAppended++;
+        return true;
+    }
+
+    /** Discards all records and binds the journal to the given, already persisted, snapshot. */
+    public void reset(@NonNull byte[] snapshot) {
+        mSnapshotChecksum = checksum(snapshot);
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(mFile))) {
+            output.writeInt(VERSION);
+            output.writeLong(mSnapshotChecksum);
+            mSizeBytes = HEADER_SIZE_BYTES;
+        } catch (IOException e) {
+            Rlog.e(TAG, "cannot reset journal", e);
+            mSizeBytes = -1;
+        }
+    }
+
+    /** Returns the number of bytes appended to the journal since creation. */
+    @VisibleForTesting
+    public long getBytesAppended() {
+        return mBytesAppended;
+    }
+
+    /** Returns the number of records appended to the journal since creation. */
+    @VisibleForTesting
+    public int getRecordsAppended() {
+        return mRecordsAppended;
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+}
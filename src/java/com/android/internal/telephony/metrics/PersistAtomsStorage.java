@@ -24,10 +24,12 @@ import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemProperties;
 import android.telephony.TelephonyManager;
 import android.telephony.TelephonyManager.NetworkTypeBitMask;
 import android.util.SparseIntArray;
 
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.nano.PersistAtomsProto.CarrierIdMismatch;
 import com.android.internal.telephony.nano.PersistAtomsProto.CarrierRoamingSatelliteControllerStats;
@@ -76,8 +78,10 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 import java.util.stream.IntStream;
 
 /**
@@ -92,6 +96,20 @@ public class PersistAtomsStorage {
     /** Name of the file where cached statistics are saved to. */
     private static final String FILENAME = "persist_atoms.pb";
 
+    /** Name of the file where changes to cached statistics are appended to, if enabled. */
+    private static final String JOURNAL_FILENAME = "persist_atoms_journal.pb";
+
+    /** System property to save changes to a journal instead of rewriting the whole file. */
+    private static final String JOURNAL_ENABLED_PROPERTY = "persist.radio.persist_atoms_journal";
+
+    /**
+     * Size of the journal after which it is compacted into the snapshot.
+     *
+     * <p>Changes to aggregated atoms are journaled with their whole array, so this bounds both the
+     * load time and the space used by the journal to a few snapshots.
+     */
+    private static final int MAX_JOURNAL_SIZE_BYTES = 64 * 1024;
+
     /** Delay to store atoms to persistent storage to bundle multiple operations together. */
     private static final int SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS = 30000;
 
@@ -192,6 +210,254 @@ public class PersistAtomsStorage {
     /** Whether atoms should be saved immediately, skipping the delay. */
     @VisibleForTesting protected boolean mSaveImmediately;
 
+    /** Journal of changes on top of the saved snapshot, or {@code null} if disabled. */
+    @Nullable private final PersistAtomsJournal mJournal;
+
+    /**
+     * Repeated atom fields of {@link #mAtoms} changed since the last save, which are appended to
+     * {@link #mJournal} instead of saving the whole {@link #mAtoms}.
+     */
+    private PersistAtoms mAtomsDelta = new PersistAtoms();
+
+    /** Whether the next save must write the whole {@link #mAtoms}, as it was not only added to. */
+    private volatile boolean mSnapshotRequired;
+
+    /** Serialized atoms waiting to be written to the file. */
+    @GuardedBy("mPendingWrites")
+    private final ArrayDeque<PendingWrite> mPendingWrites = new ArrayDeque<>();
+
+    /**
+     * Lock held while writing to the files, so that writes happen in the order the atoms were
+     * serialized. Must not be acquired before the storage lock.
+     */
+    private final Object mFileLock = new Object();
+
+    // Indexes of aggregated atoms by their dimension values, used to find the atom that a new
+    // atom should be aggregated into.
+
+    private final AtomDimensionIndex<CellularServiceState> mCellularServiceStateIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.voiceRat)
+                            .add(atom.dataRat)
+                            .add(atom.voiceRoamingType)
+                            .add(atom.dataRoamingType)
+                            .add(atom.isEndc)
+                            .add(atom.simSlotIndex)
+                            .add(atom.isMultiSim)
+                            .add(atom.carrierId)
+                            .add(atom.isEmergencyOnly)
+                            .add(atom.isInternetPdnUp)
+                            .add(atom.foldState)
+                            .add(atom.overrideVoiceService)
+                            .add(atom.isDataEnabled)
+                            .add(atom.isIwlanCrossSim)
+                            .add(atom.isNtn));
+
+    private final AtomDimensionIndex<CellularDataServiceSwitch> mCellularDataServiceSwitchIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.ratFrom)
+                            .add(atom.ratTo)
+                            .add(atom.simSlotIndex)
+                            .add(atom.isMultiSim)
+                            .add(atom.carrierId));
+
+    private final AtomDimensionIndex<ImsRegistrationStats> mImsRegistrationStatsIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.carrierId)
+                            .add(atom.simSlotIndex)
+                            .add(atom.rat)
+                            .add(atom.isIwlanCrossSim));
+
+    private final AtomDimensionIndex<ImsRegistrationTermination> mImsRegistrationTerminationIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.carrierId)
+                            .add(atom.isMultiSim)
+                            .add(atom.ratAtEnd)
+                            .add(atom.isIwlanCrossSim)
+                            .add(atom.setupFailed)
+                            .add(atom.reasonCode)
+                            .add(atom.extraCode)
+                            .add(atom.extraMessage));
+
+    private final AtomDimensionIndex<NetworkRequestsV2> mNetworkRequestsV2Index =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.carrierId)
+                            .add(atom.capability));
+
+    private final AtomDimensionIndex<ImsDedicatedBearerListenerEvent>
+            mImsDedicatedBearerListenerEventIndex =
+                    new AtomDimensionIndex<>(
+                            (atom, key) -> key
+                                    .add(atom.carrierId)
+                                    .add(atom.slotId)
+                                    .add(atom.ratAtEnd)
+                                    .add(atom.qci)
+                                    .add(atom.dedicatedBearerEstablished));
+
+    private final AtomDimensionIndex<ImsDedicatedBearerEvent> mImsDedicatedBearerEventIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.carrierId)
+                            .add(atom.slotId)
+                            .add(atom.ratAtEnd)
+                            .add(atom.qci)
+                            .add(atom.bearerState)
+                            .add(atom.localConnectionInfoReceived)
+                            .add(atom.remoteConnectionInfoReceived)
+                            .add(atom.hasListeners));
+
+    private final AtomDimensionIndex<ImsRegistrationFeatureTagStats>
+            mImsRegistrationFeatureTagStatsIndex =
+                    new AtomDimensionIndex<>(
+                            (atom, key) -> key
+                                    .add(atom.carrierId)
+                                    .add(atom.slotId)
+                                    .add(atom.featureTagName)
+                                    .add(atom.registrationTech));
+
+    private final AtomDimensionIndex<RcsClientProvisioningStats> mRcsClientProvisioningStatsIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.carrierId)
+                            .add(atom.slotId)
+                            .add(atom.event));
+
+    private final AtomDimensionIndex<RcsAcsProvisioningStats> mRcsAcsProvisioningStatsIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.carrierId)
+                            .add(atom.slotId)
+                            .add(atom.responseCode)
+                            .add(atom.responseType)
+                            .add(atom.isSingleRegistrationEnabled));
+
+    private final AtomDimensionIndex<SipMessageResponse> mSipMessageResponseIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.carrierId)
+                            .add(atom.slotId)
+                            .add(atom.sipMessageMethod)
+                            .add(atom.sipMessageResponse)
+                            .add(atom.sipMessageDirection)
+                            .add(atom.messageError));
+
+    private final AtomDimensionIndex<SipTransportSession> mSipTransportSessionIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.carrierId)
+                            .add(atom.slotId)
+                            .add(atom.sessionMethod)
+                            .add(atom.sipMessageDirection)
+                            .add(atom.sipResponse));
+
+    private final AtomDimensionIndex<ImsRegistrationServiceDescStats>
+            mImsRegistrationServiceDescStatsIndex =
+                    new AtomDimensionIndex<>(
+                            (atom, key) -> key
+                                    .add(atom.carrierId)
+                                    .add(atom.slotId)
+                                    .add(atom.serviceIdName)
+                                    .add(atom.serviceIdVersion)
+                                    .add(atom.registrationTech));
+
+    private final AtomDimensionIndex<UceEventStats> mUceEventStatsIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.carrierId)
+                            .add(atom.slotId)
+                            .add(atom.type)
+                            .add(atom.successful)
+                            .add(atom.commandCode)
+                            .add(atom.networkResponse));
+
+    private final AtomDimensionIndex<PresenceNotifyEvent> mPresenceNotifyEventIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.carrierId)
+                            .add(atom.slotId)
+                            .add(atom.reason)
+                            .add(atom.contentBodyReceived));
+
+    private final AtomDimensionIndex<GbaEvent> mGbaEventIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.carrierId)
+                            .add(atom.slotId)
+                            .add(atom.successful)
+                            .add(atom.failedReason));
+
+    private final AtomDimensionIndex<SipTransportFeatureTagStats>
+            mSipTransportFeatureTagStatsIndex =
+                    new AtomDimensionIndex<>(
+                            (atom, key) -> key
+                                    .add(atom.carrierId)
+                                    .add(atom.slotId)
+                                    .add(atom.featureTagName)
+                                    .add(atom.sipTransportDeregisteredReason)
+                                    .add(atom.sipTransportDeniedReason));
+
+    private final AtomDimensionIndex<OutgoingShortCodeSms> mOutgoingShortCodeSmsIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.category)
+                            .add(atom.xmlVersion));
+
+    private final AtomDimensionIndex<SatelliteSession> mSatelliteSessionIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.satelliteServiceInitializationResult)
+                            .add(atom.satelliteTechnology)
+                            .add(atom.satelliteServiceTerminationResult)
+                            .add(atom.initializationProcessingTimeMillis)
+                            .add(atom.terminationProcessingTimeMillis)
+                            .add(atom.sessionDurationSeconds)
+                            .add(atom.countOfOutgoingDatagramSuccess)
+                            .add(atom.countOfOutgoingDatagramFailed)
+                            .add(atom.countOfIncomingDatagramSuccess)
+                            .add(atom.countOfIncomingDatagramFailed)
+                            .add(atom.isDemoMode)
+                            .add(atom.maxNtnSignalStrengthLevel));
+
+    private final AtomDimensionIndex<SatelliteSosMessageRecommender>
+            mSatelliteSosMessageRecommenderIndex =
+                    new AtomDimensionIndex<>(
+                            (atom, key) -> key
+                                    .add(atom.isDisplaySosMessageSent)
+                                    .add(atom.countOfTimerStarted)
+                                    .add(atom.isImsRegistered)
+                                    .add(atom.cellularServiceState)
+                                    .add(atom.isMultiSim)
+                                    .add(atom.recommendingHandoverType));
+
+    private final AtomDimensionIndex<DataNetworkValidation> mDataNetworkValidationIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.networkType)
+                            .add(atom.apnTypeBitmask)
+                            .add(atom.signalStrength)
+                            .add(atom.validationResult)
+                            .add(atom.handoverAttempted));
+
+    private final AtomDimensionIndex<SatelliteEntitlement> mSatelliteEntitlementIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.carrierId)
+                            .add(atom.result)
+                            .add(atom.entitlementStatus)
+                            .add(atom.isRetry));
+
+    private final AtomDimensionIndex<SatelliteConfigUpdater> mSatelliteConfigUpdaterIndex =
+            new AtomDimensionIndex<>(
+                    (atom, key) -> key
+                            .add(atom.configVersion)
+                            .add(atom.oemConfigResult)
+                            .add(atom.carrierConfigResult));
+
     private final Context mContext;
     private final Handler mHandler;
     private final HandlerThread mHandlerThread;
@@ -205,8 +471,34 @@ public class PersistAtomsStorage {
                 }
             };
 
+    private final Runnable mWriteRunnable = this::writePendingAtoms;
+
+    /** Atoms serialized while holding the storage lock, to be written after releasing it. */
+    private static final class PendingWrite {
+        /** Serialized {@link PersistAtoms}. */
+        final byte[] mData;
+
+        /** Whether the data should be appended to the journal rather than replace the file. */
+        final boolean mIsDelta;
+
+        PendingWrite(byte[] data, boolean isDelta) {
+            mData = data;
+            mIsDelta = isDelta;
+        }
+    }
+
     public PersistAtomsStorage(Context context) {
+        this(context, SystemProperties.getBoolean(JOURNAL_ENABLED_PROPERTY, false));
+    }
+
+    /** Allows enabling the journal. Used during unit tests. */
+    @VisibleForTesting
+    public PersistAtomsStorage(Context context, boolean journalEnabled) {
         mContext = context;
+        mJournal = journalEnabled
+                ? new PersistAtomsJournal(
+                        mContext.getFileStreamPath(JOURNAL_FILENAME), MAX_JOURNAL_SIZE_BYTES)
+                : null;
 
         if (mContext.getPackageManager().hasSystemFeature(PackageManager.FEATURE_RAM_LOW)) {
             Rlog.i(TAG, "Low RAM device");
@@ -274,7 +566,8 @@ public class PersistAtomsStorage {
     public synchronized void addVoiceCallSession(VoiceCallSession call) {
         mAtoms.voiceCallSession =
                 insertAtRandomPlace(mAtoms.voiceCallSession, call, mMaxNumVoiceCallSessions);
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.voiceCallSession = mAtoms.voiceCallSession;
+        saveAtomsDeltaToFile();
 
         Rlog.d(TAG, "Add new voice call session: " + call.toString());
     }
@@ -283,14 +576,16 @@ public class PersistAtomsStorage {
     public synchronized void addVoiceCallRatUsage(VoiceCallRatTracker ratUsages) {
         mVoiceCallRatTracker.mergeWith(ratUsages);
         mAtoms.voiceCallRatUsage = mVoiceCallRatTracker.toProto();
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.voiceCallRatUsage = mAtoms.voiceCallRatUsage;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds an incoming SMS to the storage. */
     public synchronized void addIncomingSms(IncomingSms sms) {
         sms.hashCode = SmsStats.getSmsHashCode(sms);
         mAtoms.incomingSms = insertAtRandomPlace(mAtoms.incomingSms, sms, mMaxNumSms);
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.incomingSms = mAtoms.incomingSms;
+        saveAtomsDeltaToFile();
 
         // To be removed
         Rlog.d(TAG, "Add new incoming SMS atom: " + sms.toString());
@@ -309,7 +604,8 @@ public class PersistAtomsStorage {
         }
 
         mAtoms.outgoingSms = insertAtRandomPlace(mAtoms.outgoingSms, sms, mMaxNumSms);
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.outgoingSms = mAtoms.outgoingSms;
+        saveAtomsDeltaToFile();
 
         // To be removed
         Rlog.d(TAG, "Add new outgoing SMS atom: " + sms.toString());
@@ -344,7 +640,9 @@ public class PersistAtomsStorage {
             }
         }
 
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.cellularServiceState = mAtoms.cellularServiceState;
+        mAtomsDelta.cellularDataServiceSwitch = mAtoms.cellularDataServiceSwitch;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a data call session to the storage. */
@@ -370,7 +668,8 @@ public class PersistAtomsStorage {
                     insertAtRandomPlace(mAtoms.dataCallSession, dataCall, mMaxNumDataCallSessions);
         }
 
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.dataCallSession = mAtoms.dataCallSession;
+        saveAtomsDeltaToFile();
     }
 
     /**
@@ -402,7 +701,8 @@ public class PersistAtomsStorage {
                             carrierIdMismatch,
                             true);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.carrierIdMismatch = mAtoms.carrierIdMismatch;
+        saveAtomsDeltaToFile();
         return true;
     }
 
@@ -429,7 +729,8 @@ public class PersistAtomsStorage {
                     insertAtRandomPlace(
                             mAtoms.imsRegistrationStats, stats, mMaxNumImsRegistrationStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.imsRegistrationStats = mAtoms.imsRegistrationStats;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds IMS registration termination to the storage. */
@@ -446,7 +747,8 @@ public class PersistAtomsStorage {
                             termination,
                             mMaxNumImsRegistrationTerminations);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.imsRegistrationTermination = mAtoms.imsRegistrationTermination;
+        saveAtomsDeltaToFile();
     }
 
     /**
@@ -486,7 +788,8 @@ public class PersistAtomsStorage {
                     ArrayUtils.appendElement(
                             NetworkRequestsV2.class, mAtoms.networkRequestsV2, newMetrics, true);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.networkRequestsV2 = mAtoms.networkRequestsV2;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link ImsRegistrationFeatureTagStats} to the storage. */
@@ -500,7 +803,8 @@ public class PersistAtomsStorage {
                 insertAtRandomPlace(mAtoms.imsRegistrationFeatureTagStats,
                     stats, mMaxNumImsRegistrationFeatureStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.imsRegistrationFeatureTagStats = mAtoms.imsRegistrationFeatureTagStats;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link RcsClientProvisioningStats} to the storage. */
@@ -513,7 +817,8 @@ public class PersistAtomsStorage {
                 insertAtRandomPlace(mAtoms.rcsClientProvisioningStats, stats,
                         mMaxNumRcsClientProvisioningStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.rcsClientProvisioningStats = mAtoms.rcsClientProvisioningStats;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link RcsAcsProvisioningStats} to the storage. */
@@ -529,14 +834,16 @@ public class PersistAtomsStorage {
                 insertAtRandomPlace(mAtoms.rcsAcsProvisioningStats, stats,
                         mMaxNumRcsAcsProvisioningStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.rcsAcsProvisioningStats = mAtoms.rcsAcsProvisioningStats;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link SipDelegateStats} to the storage. */
     public synchronized void addSipDelegateStats(SipDelegateStats stats) {
         mAtoms.sipDelegateStats = insertAtRandomPlace(mAtoms.sipDelegateStats, stats,
                 mMaxNumSipDelegateStats);
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.sipDelegateStats = mAtoms.sipDelegateStats;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link SipTransportFeatureTagStats} to the storage. */
@@ -549,7 +856,8 @@ public class PersistAtomsStorage {
                     insertAtRandomPlace(mAtoms.sipTransportFeatureTagStats, stats,
                             mMaxNumSipTransportFeatureTagStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.sipTransportFeatureTagStats = mAtoms.sipTransportFeatureTagStats;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link SipMessageResponse} to the storage. */
@@ -561,7 +869,8 @@ public class PersistAtomsStorage {
             mAtoms.sipMessageResponse = insertAtRandomPlace(mAtoms.sipMessageResponse, stats,
                     mMaxNumSipMessageResponseStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.sipMessageResponse = mAtoms.sipMessageResponse;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link SipTransportSession} to the storage. */
@@ -577,7 +886,8 @@ public class PersistAtomsStorage {
                     insertAtRandomPlace(mAtoms.sipTransportSession, stats,
                             mMaxNumSipTransportSessionStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.sipTransportSession = mAtoms.sipTransportSession;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link ImsDedicatedBearerListenerEvent} to the storage. */
@@ -591,7 +901,8 @@ public class PersistAtomsStorage {
                 insertAtRandomPlace(mAtoms.imsDedicatedBearerListenerEvent,
                     stats, mMaxNumDedicatedBearerListenerEventStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.imsDedicatedBearerListenerEvent = mAtoms.imsDedicatedBearerListenerEvent;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link ImsDedicatedBearerEvent} to the storage. */
@@ -604,7 +915,8 @@ public class PersistAtomsStorage {
                 insertAtRandomPlace(mAtoms.imsDedicatedBearerEvent, stats,
                         mMaxNumDedicatedBearerEventStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.imsDedicatedBearerEvent = mAtoms.imsDedicatedBearerEvent;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link ImsRegistrationServiceDescStats} to the storage. */
@@ -618,7 +930,8 @@ public class PersistAtomsStorage {
                 insertAtRandomPlace(mAtoms.imsRegistrationServiceDescStats,
                     stats, mMaxNumImsRegistrationServiceDescStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.imsRegistrationServiceDescStats = mAtoms.imsRegistrationServiceDescStats;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link UceEventStats} to the storage. */
@@ -630,7 +943,8 @@ public class PersistAtomsStorage {
             mAtoms.uceEventStats =
                 insertAtRandomPlace(mAtoms.uceEventStats, stats, mMaxNumUceEventStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.uceEventStats = mAtoms.uceEventStats;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link PresenceNotifyEvent} to the storage. */
@@ -646,7 +960,8 @@ public class PersistAtomsStorage {
                 insertAtRandomPlace(mAtoms.presenceNotifyEvent, stats,
                         mMaxNumPresenceNotifyEventStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.presenceNotifyEvent = mAtoms.presenceNotifyEvent;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link GbaEvent} to the storage. */
@@ -658,7 +973,8 @@ public class PersistAtomsStorage {
             mAtoms.gbaEvent =
                 insertAtRandomPlace(mAtoms.gbaEvent, stats, mMaxNumGbaEventStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.gbaEvent = mAtoms.gbaEvent;
+        saveAtomsDeltaToFile();
     }
 
     /**
@@ -692,7 +1008,8 @@ public class PersistAtomsStorage {
         }
         // Only save if something changes.
         if (needToSave) {
-            saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+            mAtomsDelta.unmeteredNetworks = mAtoms.unmeteredNetworks;
+            saveAtomsDeltaToFile();
         }
     }
 
@@ -705,7 +1022,8 @@ public class PersistAtomsStorage {
             mAtoms.outgoingShortCodeSms = insertAtRandomPlace(mAtoms.outgoingShortCodeSms,
                     shortCodeSms, mMaxOutgoingShortCodeSms);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.outgoingShortCodeSms = mAtoms.outgoingShortCodeSms;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link SatelliteController} to the storage. */
@@ -772,7 +1090,8 @@ public class PersistAtomsStorage {
         atom.countOfSatelliteAccessCheckFail += stats.countOfSatelliteAccessCheckFail;
 
         mAtoms.satelliteController = atomArray;
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.satelliteController = mAtoms.satelliteController;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link SatelliteSession} to the storage. */
@@ -784,28 +1103,32 @@ public class PersistAtomsStorage {
             mAtoms.satelliteSession =
                     insertAtRandomPlace(mAtoms.satelliteSession, stats, mMaxNumSatelliteStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.satelliteSession = mAtoms.satelliteSession;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link SatelliteIncomingDatagram} to the storage. */
     public synchronized void addSatelliteIncomingDatagramStats(SatelliteIncomingDatagram stats) {
         mAtoms.satelliteIncomingDatagram =
                 insertAtRandomPlace(mAtoms.satelliteIncomingDatagram, stats, mMaxNumSatelliteStats);
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.satelliteIncomingDatagram = mAtoms.satelliteIncomingDatagram;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link SatelliteOutgoingDatagram} to the storage. */
     public synchronized void addSatelliteOutgoingDatagramStats(SatelliteOutgoingDatagram stats) {
         mAtoms.satelliteOutgoingDatagram =
                 insertAtRandomPlace(mAtoms.satelliteOutgoingDatagram, stats, mMaxNumSatelliteStats);
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.satelliteOutgoingDatagram = mAtoms.satelliteOutgoingDatagram;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link SatelliteProvision} to the storage. */
     public synchronized void addSatelliteProvisionStats(SatelliteProvision stats) {
         mAtoms.satelliteProvision =
                 insertAtRandomPlace(mAtoms.satelliteProvision, stats, mMaxNumSatelliteStats);
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.satelliteProvision = mAtoms.satelliteProvision;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link SatelliteSosMessageRecommender} to the storage. */
@@ -819,7 +1142,8 @@ public class PersistAtomsStorage {
                     insertAtRandomPlace(mAtoms.satelliteSosMessageRecommender, stats,
                             mMaxNumSatelliteStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.satelliteSosMessageRecommender = mAtoms.satelliteSosMessageRecommender;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a data network validation to the storage. */
@@ -838,7 +1162,8 @@ public class PersistAtomsStorage {
             mAtoms.dataNetworkValidation = insertAtRandomPlace(
                     mAtoms.dataNetworkValidation, dataNetworkValidation, mMaxNumDataCallSessions);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.dataNetworkValidation = mAtoms.dataNetworkValidation;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link CarrierRoamingSatelliteSession} to the storage. */
@@ -847,7 +1172,8 @@ public class PersistAtomsStorage {
         mAtoms.carrierRoamingSatelliteSession = insertAtRandomPlace(
                 mAtoms.carrierRoamingSatelliteSession, stats,
                 mMaxNumCarrierRoamingSatelliteSessionStats);
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.carrierRoamingSatelliteSession = mAtoms.carrierRoamingSatelliteSession;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link CarrierRoamingSatelliteControllerStats} to the storage. */
@@ -871,7 +1197,9 @@ public class PersistAtomsStorage {
         atom.satelliteSessionGapMaxSec = stats.satelliteSessionGapMaxSec;
 
         mAtoms.carrierRoamingSatelliteControllerStats = atomArray;
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.carrierRoamingSatelliteControllerStats =
+                mAtoms.carrierRoamingSatelliteControllerStats;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link SatelliteEntitlement} to the storage. */
@@ -883,7 +1211,8 @@ public class PersistAtomsStorage {
             mAtoms.satelliteEntitlement = insertAtRandomPlace(mAtoms.satelliteEntitlement,
                     stats, mMaxNumSatelliteStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.satelliteEntitlement = mAtoms.satelliteEntitlement;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link SatelliteConfigUpdater} to the storage. */
@@ -895,7 +1224,8 @@ public class PersistAtomsStorage {
             mAtoms.satelliteConfigUpdater = insertAtRandomPlace(mAtoms.satelliteConfigUpdater,
                     stats, mMaxNumSatelliteStats);
         }
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.satelliteConfigUpdater = mAtoms.satelliteConfigUpdater;
+        saveAtomsDeltaToFile();
     }
 
     /** Adds a new {@link SatelliteAccessController} to the storage. */
@@ -903,7 +1233,8 @@ public class PersistAtomsStorage {
         mAtoms.satelliteAccessController =
                 insertAtRandomPlace(mAtoms.satelliteAccessController, stats,
                         mMaxNumSatelliteStats);
-        saveAtomsToFile(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+        mAtomsDelta.satelliteAccessController = mAtoms.satelliteAccessController;
+        saveAtomsDeltaToFile();
     }
 
     /**
@@ -1679,27 +2010,49 @@ public class PersistAtomsStorage {
         }
     }
 
-    /** Saves {@link PersistAtoms} to a file in private storage immediately. */
-    public synchronized void flushAtoms() {
-        saveAtomsToFile(0);
+    /**
+     * Saves {@link PersistAtoms} to a file in private storage immediately.
+     *
+     * <p>The file is written on the calling thread, after releasing the storage lock.
+     */
+    public void flushAtoms() {
+        synchronized (this) {
+            mHandler.removeCallbacks(mSaveRunnable);
+            mSnapshotRequired = true;
+        }
+        saveAtomsToFileNow();
     }
 
     /** Clears atoms for testing purpose. */
-    public synchronized void clearAtoms() {
-        mAtoms = makeNewPersistAtoms();
-        saveAtomsToFile(0);
+    public void clearAtoms() {
+        synchronized (this) {
+            mAtoms = makeNewPersistAtoms();
+        }
+        flushAtoms();
     }
 
-    /** Loads {@link PersistAtoms} from a file in private storage. */
+    /**
+     * Loads {@link PersistAtoms} from a file in private storage.
+     *
+     * <p>If the atoms in the file are discarded, the first save writes a snapshot, so that the
+     * journal does not append to the discarded atoms.
+     */
     private PersistAtoms loadAtomsFromFile() {
         try {
-            PersistAtoms atoms =
-                    PersistAtoms.parseFrom(
-                            Files.readAllBytes(mContext.getFileStreamPath(FILENAME).toPath()));
+            byte[] snapshot = Files.readAllBytes(mContext.getFileStreamPath(FILENAME).toPath());
+            PersistAtoms atoms = PersistAtoms.parseFrom(snapshot);
+            if (mJournal != null) {
+                List<PersistAtoms> deltas = mJournal.readRecords(snapshot);
+                for (PersistAtoms delta : deltas) {
+                    applyAtomsDelta(atoms, delta);
+                }
+                Rlog.d(TAG, "replayed " + deltas.size() + " journal records");
+            }
             // Start from scratch if build changes, since mixing atoms from different builds could
             // produce strange results
             if (!Build.FINGERPRINT.equals(atoms.buildFingerprint)) {
                 Rlog.d(TAG, "Build changed");
+                mSnapshotRequired = true;
                 return makeNewPersistAtoms();
             }
             // check all the fields in case of situations such as OTA or crash during saving
@@ -1928,6 +2281,7 @@ public class PersistAtomsStorage {
         } catch (IOException | NullPointerException e) {
             Rlog.e(TAG, "cannot load/parse PersistAtoms", e);
         }
+        mSnapshotRequired = true;
         return makeNewPersistAtoms();
     }
 
@@ -1938,22 +2292,241 @@ public class PersistAtomsStorage {
      * impact the power consumption.
      */
     private synchronized void saveAtomsToFile(int delayMillis) {
+        mSnapshotRequired = true;
+        scheduleSaveAtoms(delayMillis);
+    }
+
+    /**
+     * Posts message to save the atoms recorded in {@link #mAtomsDelta} after a delay.
+     *
+     * <p>Only the changed atoms are appended to the journal if enabled, otherwise this is the same
+     * as {@link #saveAtomsToFile}.
+     */
+    private synchronized void saveAtomsDeltaToFile() {
+        if (mJournal == null) {
+            mSnapshotRequired = true;
+        }
+        scheduleSaveAtoms(SAVE_TO_FILE_DELAY_FOR_UPDATE_MILLIS);
+    }
+
+    @GuardedBy("this")
+    private void scheduleSaveAtoms(int delayMillis) {
         mHandler.removeCallbacks(mSaveRunnable);
         if (delayMillis > 0 && !mSaveImmediately) {
             if (mHandler.postDelayed(mSaveRunnable, delayMillis)) {
                 return;
             }
         }
-        // In case of error posting the event or if delay is 0, save immediately
-        saveAtomsToFileNow();
+        // In case of error posting the event or if delay is 0, save immediately. The caller holds
+        // the storage lock, so the file is written on the handler thread.
+        serializeAtomsToSave();
+        postWritePendingAtoms();
+    }
+
+    /** Writes the serialized atoms on the handler thread, without waiting for the write. */
+    @VisibleForTesting
+    protected void postWritePendingAtoms() {
+        if (!mHandler.post(mWriteRunnable)) {
+            // The atoms stay queued and are written by the next save.
+            Rlog.e(TAG, "cannot post PersistAtoms write");
+        }
+    }
+
+    /**
+     * Saves a copy of {@link PersistAtoms} to a file in private storage.
+     *
+     * <p>The atoms are serialized while holding the storage lock, but written to the file after
+     * releasing it, so that recording atoms from other threads is not blocked by disk I/O.
+     */
+    private void saveAtomsToFileNow() {
+        synchronized (this) {
+            serializeAtomsToSave();
+        }
+        writePendingAtoms();
     }
 
-    /** Saves a copy of {@link PersistAtoms} to a file in private storage. */
-    private synchronized void saveAtomsToFileNow() {
-        try (FileOutputStream stream = mContext.openFileOutput(FILENAME, Context.MODE_PRIVATE)) {
-            stream.write(PersistAtoms.toByteArray(mAtoms));
-        } catch (IOException e) {
-            Rlog.e(TAG, "cannot save PersistAtoms", e);
+    /**
+     * Serializes the atoms to save and queues them for {@link #writePendingAtoms}.
+     *
+     * <p>If only atoms were added since the last save, only they are serialized to be appended to
+     * the journal. Otherwise, or if the journal is full, the whole {@link PersistAtoms} is
+     * serialized to replace the file and reset the journal.
+     */
+    @GuardedBy("this")
+    private void serializeAtomsToSave() {
+        PendingWrite write;
+        if (mJournal != null && !mSnapshotRequired && mJournal.isAppendable()) {
+            write = new PendingWrite(PersistAtoms.toByteArray(mAtomsDelta), true /* isDelta */);
+        } else {
+            write = new PendingWrite(PersistAtoms.toByteArray(mAtoms), false /* isDelta */);
+            mSnapshotRequired = false;
+        }
+        mAtomsDelta = new PersistAtoms();
+        synchronized (mPendingWrites) {
+            mPendingWrites.add(write);
+        }
+    }
+
+    /**
+     * Writes the serialized atoms, in the order they were serialized. Must not be called while
+     * holding the storage lock.
+     */
+    @VisibleForTesting
+    protected void writePendingAtoms() {
+        synchronized (mFileLock) {
+            PendingWrite write;
+            while ((write = pollPendingWrite()) != null) {
+                if (write.mIsDelta) {
+                    if (!mJournal.append(write.mData)) {
+                        // The journal can no longer be replayed, save all atoms instead.
+                        mSnapshotRequired = true;
+                        mHandler.post(mSaveRunnable);
+                    }
+                    continue;
+                }
+                try (FileOutputStream stream =
+                        mContext.openFileOutput(FILENAME, Context.MODE_PRIVATE)) {
+                    stream.write(write.mData);
+                } catch (IOException e) {
+                    Rlog.e(TAG, "cannot save PersistAtoms", e);
+                    mSnapshotRequired = true;
+                    continue;
+                }
+                if (mJournal != null) {
+                    mJournal.reset(write.mData);
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private PendingWrite pollPendingWrite() {
+        synchronized (mPendingWrites) {
+            return mPendingWrites.poll();
+        }
+    }
+
+    /**
+     * Replaces the repeated atom fields of {@code atoms} with the ones present in {@code delta}.
+     *
+     * <p>Empty fields are not part of the delta, as clearing atoms always saves the whole {@link
+     * PersistAtoms}.
+     */
+    private static void applyAtomsDelta(PersistAtoms atoms, PersistAtoms delta) {
+        if (delta.voiceCallRatUsage.length > 0) {
+            atoms.voiceCallRatUsage = delta.voiceCallRatUsage;
+        }
+        if (delta.voiceCallSession.length > 0) {
+            atoms.voiceCallSession = delta.voiceCallSession;
+        }
+        if (delta.incomingSms.length > 0) {
+            atoms.incomingSms = delta.incomingSms;
+        }
+        if (delta.outgoingSms.length > 0) {
+            atoms.outgoingSms = delta.outgoingSms;
+        }
+        if (delta.carrierIdMismatch.length > 0) {
+            atoms.carrierIdMismatch = delta.carrierIdMismatch;
+        }
+        if (delta.dataCallSession.length > 0) {
+            atoms.dataCallSession = delta.dataCallSession;
+        }
+        if (delta.cellularServiceState.length > 0) {
+            atoms.cellularServiceState = delta.cellularServiceState;
+        }
+        if (delta.cellularDataServiceSwitch.length > 0) {
+            atoms.cellularDataServiceSwitch = delta.cellularDataServiceSwitch;
+        }
+        if (delta.imsRegistrationTermination.length > 0) {
+            atoms.imsRegistrationTermination = delta.imsRegistrationTermination;
+        }
+        if (delta.imsRegistrationStats.length > 0) {
+            atoms.imsRegistrationStats = delta.imsRegistrationStats;
+        }
+        if (delta.imsRegistrationFeatureTagStats.length > 0) {
+            atoms.imsRegistrationFeatureTagStats = delta.imsRegistrationFeatureTagStats;
+        }
+        if (delta.rcsClientProvisioningStats.length > 0) {
+            atoms.rcsClientProvisioningStats = delta.rcsClientProvisioningStats;
+        }
+        if (delta.rcsAcsProvisioningStats.length > 0) {
+            atoms.rcsAcsProvisioningStats = delta.rcsAcsProvisioningStats;
+        }
+        if (delta.sipDelegateStats.length > 0) {
+            atoms.sipDelegateStats = delta.sipDelegateStats;
+        }
+        if (delta.sipTransportFeatureTagStats.length > 0) {
+            atoms.sipTransportFeatureTagStats = delta.sipTransportFeatureTagStats;
+        }
+        if (delta.sipMessageResponse.length > 0) {
+            atoms.sipMessageResponse = delta.sipMessageResponse;
+        }
+        if (delta.sipTransportSession.length > 0) {
+            atoms.sipTransportSession = delta.sipTransportSession;
+        }
+        if (delta.imsDedicatedBearerListenerEvent.length > 0) {
+            atoms.imsDedicatedBearerListenerEvent = delta.imsDedicatedBearerListenerEvent;
+        }
+        if (delta.imsDedicatedBearerEvent.length > 0) {
+            atoms.imsDedicatedBearerEvent = delta.imsDedicatedBearerEvent;
+        }
+        if (delta.imsRegistrationServiceDescStats.length > 0) {
+            atoms.imsRegistrationServiceDescStats = delta.imsRegistrationServiceDescStats;
+        }
+        if (delta.uceEventStats.length > 0) {
+            atoms.uceEventStats = delta.uceEventStats;
+        }
+        if (delta.presenceNotifyEvent.length > 0) {
+            atoms.presenceNotifyEvent = delta.presenceNotifyEvent;
+        }
+        if (delta.gbaEvent.length > 0) {
+            atoms.gbaEvent = delta.gbaEvent;
+        }
+        if (delta.networkRequestsV2.length > 0) {
+            atoms.networkRequestsV2 = delta.networkRequestsV2;
+        }
+        if (delta.unmeteredNetworks.length > 0) {
+            atoms.unmeteredNetworks = delta.unmeteredNetworks;
+        }
+        if (delta.outgoingShortCodeSms.length > 0) {
+            atoms.outgoingShortCodeSms = delta.outgoingShortCodeSms;
+        }
+        if (delta.satelliteController.length > 0) {
+            atoms.satelliteController = delta.satelliteController;
+        }
+        if (delta.satelliteSession.length > 0) {
+            atoms.satelliteSession = delta.satelliteSession;
+        }
+        if (delta.satelliteIncomingDatagram.length > 0) {
+            atoms.satelliteIncomingDatagram = delta.satelliteIncomingDatagram;
+        }
+        if (delta.satelliteOutgoingDatagram.length > 0) {
+            atoms.satelliteOutgoingDatagram = delta.satelliteOutgoingDatagram;
+        }
+        if (delta.satelliteProvision.length > 0) {
+            atoms.satelliteProvision = delta.satelliteProvision;
+        }
+        if (delta.satelliteSosMessageRecommender.length > 0) {
+            atoms.satelliteSosMessageRecommender = delta.satelliteSosMessageRecommender;
+        }
+        if (delta.dataNetworkValidation.length > 0) {
+            atoms.dataNetworkValidation = delta.dataNetworkValidation;
+        }
+        if (delta.carrierRoamingSatelliteSession.length > 0) {
+            atoms.carrierRoamingSatelliteSession = delta.carrierRoamingSatelliteSession;
+        }
+        if (delta.carrierRoamingSatelliteControllerStats.length > 0) {
+            atoms.carrierRoamingSatelliteControllerStats =
+                    delta.carrierRoamingSatelliteControllerStats;
+        }
+        if (delta.satelliteEntitlement.length > 0) {
+            atoms.satelliteEntitlement = delta.satelliteEntitlement;
+        }
+        if (delta.satelliteConfigUpdater.length > 0) {
+            atoms.satelliteConfigUpdater = delta.satelliteConfigUpdater;
+        }
+        if (delta.satelliteAccessController.length > 0) {
+            atoms.satelliteAccessController = delta.satelliteAccessController;
         }
     }
 
@@ -1962,26 +2535,7 @@ public class PersistAtomsStorage {
      * null} if it does not exist.
      */
     private @Nullable CellularServiceState find(CellularServiceState key) {
-        for (CellularServiceState state : mAtoms.cellularServiceState) {
-            if (state.voiceRat == key.voiceRat
-                    && state.dataRat == key.dataRat
-                    && state.voiceRoamingType == key.voiceRoamingType
-                    && state.dataRoamingType == key.dataRoamingType
-                    && state.isEndc == key.isEndc
-                    && state.simSlotIndex == key.simSlotIndex
-                    && state.isMultiSim == key.isMultiSim
-                    && state.carrierId == key.carrierId
-                    && state.isEmergencyOnly == key.isEmergencyOnly
-                    && state.isInternetPdnUp == key.isInternetPdnUp
-                    && state.foldState == key.foldState
-                    && state.overrideVoiceService == key.overrideVoiceService
-                    && state.isDataEnabled == key.isDataEnabled
-                    && state.isIwlanCrossSim == key.isIwlanCrossSim
-                    && state.isNtn == key.isNtn) {
-                return state;
-            }
-        }
-        return null;
+        return mCellularServiceStateIndex.find(mAtoms.cellularServiceState, key);
     }
 
     /**
@@ -1989,16 +2543,7 @@ public class PersistAtomsStorage {
      * {@code null} if it does not exist.
      */
     private @Nullable CellularDataServiceSwitch find(CellularDataServiceSwitch key) {
-        for (CellularDataServiceSwitch serviceSwitch : mAtoms.cellularDataServiceSwitch) {
-            if (serviceSwitch.ratFrom == key.ratFrom
-                    && serviceSwitch.ratTo == key.ratTo
-                    && serviceSwitch.simSlotIndex == key.simSlotIndex
-                    && serviceSwitch.isMultiSim == key.isMultiSim
-                    && serviceSwitch.carrierId == key.carrierId) {
-                return serviceSwitch;
-            }
-        }
-        return null;
+        return mCellularDataServiceSwitchIndex.find(mAtoms.cellularDataServiceSwitch, key);
     }
 
     /**
@@ -2022,15 +2567,7 @@ public class PersistAtomsStorage {
      * {@code null} if it does not exist.
      */
     private @Nullable ImsRegistrationStats find(ImsRegistrationStats key) {
-        for (ImsRegistrationStats stats : mAtoms.imsRegistrationStats) {
-            if (stats.carrierId == key.carrierId
-                    && stats.simSlotIndex == key.simSlotIndex
-                    && stats.rat == key.rat
-                    && stats.isIwlanCrossSim == key.isIwlanCrossSim) {
-                return stats;
-            }
-        }
-        return null;
+        return mImsRegistrationStatsIndex.find(mAtoms.imsRegistrationStats, key);
     }
 
     /**
@@ -2038,19 +2575,7 @@ public class PersistAtomsStorage {
      * one, or {@code null} if it does not exist.
      */
     private @Nullable ImsRegistrationTermination find(ImsRegistrationTermination key) {
-        for (ImsRegistrationTermination termination : mAtoms.imsRegistrationTermination) {
-            if (termination.carrierId == key.carrierId
-                    && termination.isMultiSim == key.isMultiSim
-                    && termination.ratAtEnd == key.ratAtEnd
-                    && termination.isIwlanCrossSim == key.isIwlanCrossSim
-                    && termination.setupFailed == key.setupFailed
-                    && termination.reasonCode == key.reasonCode
-                    && termination.extraCode == key.extraCode
-                    && termination.extraMessage.equals(key.extraMessage)) {
-                return termination;
-            }
-        }
-        return null;
+        return mImsRegistrationTerminationIndex.find(mAtoms.imsRegistrationTermination, key);
     }
 
     /**
@@ -2058,12 +2583,7 @@ public class PersistAtomsStorage {
      * one, or {@code null} if it does not exist.
      */
     private @Nullable NetworkRequestsV2 find(NetworkRequestsV2 key) {
-        for (NetworkRequestsV2 item : mAtoms.networkRequestsV2) {
-            if (item.carrierId == key.carrierId && item.capability == key.capability) {
-                return item;
-            }
-        }
-        return null;
+        return mNetworkRequestsV2Index.find(mAtoms.networkRequestsV2, key);
     }
 
     /**
@@ -2083,16 +2603,8 @@ public class PersistAtomsStorage {
      * and established state as the given one, or {@code null} if it does not exist.
      */
     private @Nullable ImsDedicatedBearerListenerEvent find(ImsDedicatedBearerListenerEvent key) {
-        for (ImsDedicatedBearerListenerEvent stats : mAtoms.imsDedicatedBearerListenerEvent) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.ratAtEnd == key.ratAtEnd
-                    && stats.qci == key.qci
-                    && stats.dedicatedBearerEstablished == key.dedicatedBearerEstablished) {
-                return stats;
-            }
-        }
-        return null;
+        return mImsDedicatedBearerListenerEventIndex.find(
+                mAtoms.imsDedicatedBearerListenerEvent, key);
     }
 
     /**
@@ -2101,19 +2613,7 @@ public class PersistAtomsStorage {
      * or {@code null} if it does not exist.
      */
     private @Nullable ImsDedicatedBearerEvent find(ImsDedicatedBearerEvent key) {
-        for (ImsDedicatedBearerEvent stats : mAtoms.imsDedicatedBearerEvent) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.ratAtEnd == key.ratAtEnd
-                    && stats.qci == key.qci
-                    && stats.bearerState == key.bearerState
-                    && stats.localConnectionInfoReceived == key.localConnectionInfoReceived
-                    && stats.remoteConnectionInfoReceived == key.remoteConnectionInfoReceived
-                    && stats.hasListeners == key.hasListeners) {
-                return stats;
-            }
-        }
-        return null;
+        return mImsDedicatedBearerEventIndex.find(mAtoms.imsDedicatedBearerEvent, key);
     }
 
     /**
@@ -2122,15 +2622,8 @@ public class PersistAtomsStorage {
      * or {@code null} if it does not exist.
      */
     private @Nullable ImsRegistrationFeatureTagStats find(ImsRegistrationFeatureTagStats key) {
-        for (ImsRegistrationFeatureTagStats stats : mAtoms.imsRegistrationFeatureTagStats) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.featureTagName == key.featureTagName
-                    && stats.registrationTech == key.registrationTech) {
-                return stats;
-            }
-        }
-        return null;
+        return mImsRegistrationFeatureTagStatsIndex.find(
+                mAtoms.imsRegistrationFeatureTagStats, key);
     }
 
     /**
@@ -2138,14 +2631,7 @@ public class PersistAtomsStorage {
      * one, or {@code null} if it does not exist.
      */
     private @Nullable RcsClientProvisioningStats find(RcsClientProvisioningStats key) {
-        for (RcsClientProvisioningStats stats : mAtoms.rcsClientProvisioningStats) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.event == key.event) {
-                return stats;
-            }
-        }
-        return null;
+        return mRcsClientProvisioningStatsIndex.find(mAtoms.rcsClientProvisioningStats, key);
     }
 
     /**
@@ -2153,16 +2639,7 @@ public class PersistAtomsStorage {
      * and SR supported as the given one, or {@code null} if it does not exist.
      */
     private @Nullable RcsAcsProvisioningStats find(RcsAcsProvisioningStats key) {
-        for (RcsAcsProvisioningStats stats : mAtoms.rcsAcsProvisioningStats) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.responseCode == key.responseCode
-                    && stats.responseType == key.responseType
-                    && stats.isSingleRegistrationEnabled == key.isSingleRegistrationEnabled) {
-                return stats;
-            }
-        }
-        return null;
+        return mRcsAcsProvisioningStatsIndex.find(mAtoms.rcsAcsProvisioningStats, key);
     }
 
     /**
@@ -2170,17 +2647,7 @@ public class PersistAtomsStorage {
      * direction and error as the given one, or {@code null} if it does not exist.
      */
     private @Nullable SipMessageResponse find(SipMessageResponse key) {
-        for (SipMessageResponse stats : mAtoms.sipMessageResponse) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.sipMessageMethod == key.sipMessageMethod
-                    && stats.sipMessageResponse == key.sipMessageResponse
-                    && stats.sipMessageDirection == key.sipMessageDirection
-                    && stats.messageError == key.messageError) {
-                return stats;
-            }
-        }
-        return null;
+        return mSipMessageResponseIndex.find(mAtoms.sipMessageResponse, key);
     }
 
     /**
@@ -2188,16 +2655,7 @@ public class PersistAtomsStorage {
      * response as the given one, or {@code null} if it does not exist.
      */
     private @Nullable SipTransportSession find(SipTransportSession key) {
-        for (SipTransportSession stats : mAtoms.sipTransportSession) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.sessionMethod == key.sessionMethod
-                    && stats.sipMessageDirection == key.sipMessageDirection
-                    && stats.sipResponse == key.sipResponse) {
-                return stats;
-            }
-        }
-        return null;
+        return mSipTransportSessionIndex.find(mAtoms.sipTransportSession, key);
     }
 
     /**
@@ -2206,16 +2664,8 @@ public class PersistAtomsStorage {
      * or {@code null} if it does not exist.
      */
     private @Nullable ImsRegistrationServiceDescStats find(ImsRegistrationServiceDescStats key) {
-        for (ImsRegistrationServiceDescStats stats : mAtoms.imsRegistrationServiceDescStats) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.serviceIdName == key.serviceIdName
-                    && stats.serviceIdVersion == key.serviceIdVersion
-                    && stats.registrationTech == key.registrationTech) {
-                return stats;
-            }
-        }
-        return null;
+        return mImsRegistrationServiceDescStatsIndex.find(
+                mAtoms.imsRegistrationServiceDescStats, key);
     }
 
     /**
@@ -2223,17 +2673,7 @@ public class PersistAtomsStorage {
      * network response as the given one, or {@code null} if it does not exist.
      */
     private @Nullable UceEventStats find(UceEventStats key) {
-        for (UceEventStats stats : mAtoms.uceEventStats) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.type == key.type
-                    && stats.successful == key.successful
-                    && stats.commandCode == key.commandCode
-                    && stats.networkResponse == key.networkResponse) {
-                return stats;
-            }
-        }
-        return null;
+        return mUceEventStatsIndex.find(mAtoms.uceEventStats, key);
     }
 
     /**
@@ -2241,15 +2681,7 @@ public class PersistAtomsStorage {
      * response as the given one, or {@code null} if it does not exist.
      */
     private @Nullable PresenceNotifyEvent find(PresenceNotifyEvent key) {
-        for (PresenceNotifyEvent stats : mAtoms.presenceNotifyEvent) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.reason == key.reason
-                    && stats.contentBodyReceived == key.contentBodyReceived) {
-                return stats;
-            }
-        }
-        return null;
+        return mPresenceNotifyEventIndex.find(mAtoms.presenceNotifyEvent, key);
     }
 
     /**
@@ -2257,15 +2689,7 @@ public class PersistAtomsStorage {
      * as the given one, or {@code null} if it does not exist.
      */
     private @Nullable GbaEvent find(GbaEvent key) {
-        for (GbaEvent stats : mAtoms.gbaEvent) {
-            if (stats.carrierId == key.carrierId
-                    && stats.slotId == key.slotId
-                    && stats.successful == key.successful
-                    && stats.failedReason == key.failedReason) {
-                return stats;
-            }
-        }
-        return null;
+        return mGbaEventIndex.find(mAtoms.gbaEvent, key);
     }
 
     /**
@@ -2274,16 +2698,7 @@ public class PersistAtomsStorage {
      * the given one, or {@code null} if it does not exist.
      */
     private @Nullable SipTransportFeatureTagStats find(SipTransportFeatureTagStats key) {
-        for (SipTransportFeatureTagStats stat : mAtoms.sipTransportFeatureTagStats) {
-            if (stat.carrierId == key.carrierId
-                    && stat.slotId == key.slotId
-                    && stat.featureTagName == key.featureTagName
-                    && stat.sipTransportDeregisteredReason == key.sipTransportDeregisteredReason
-                    && stat.sipTransportDeniedReason == key.sipTransportDeniedReason) {
-                return stat;
-            }
-        }
-        return null;
+        return mSipTransportFeatureTagStatsIndex.find(mAtoms.sipTransportFeatureTagStats, key);
     }
 
     /** Returns the UnmeteredNetworks given a phone id. */
@@ -2301,60 +2716,24 @@ public class PersistAtomsStorage {
      * or {@code null} if it does not exist.
      */
     private @Nullable OutgoingShortCodeSms find(OutgoingShortCodeSms key) {
-        for (OutgoingShortCodeSms shortCodeSms : mAtoms.outgoingShortCodeSms) {
-            if (shortCodeSms.category == key.category
-                    && shortCodeSms.xmlVersion == key.xmlVersion) {
-                return shortCodeSms;
-            }
-        }
-        return null;
+        return mOutgoingShortCodeSmsIndex.find(mAtoms.outgoingShortCodeSms, key);
     }
 
     /**
      * Returns SatelliteSession atom that has same values or {@code null}
      * if it does not exist.
      */
-    private @Nullable SatelliteSession find(
-            SatelliteSession key) {
-        for (SatelliteSession stats : mAtoms.satelliteSession) {
-            if (stats.satelliteServiceInitializationResult
-                    == key.satelliteServiceInitializationResult
-                    && stats.satelliteTechnology == key.satelliteTechnology
-                    && stats.satelliteServiceTerminationResult
-                    == key.satelliteServiceTerminationResult
-                    && stats.initializationProcessingTimeMillis
-                    == key.initializationProcessingTimeMillis
-                    && stats.terminationProcessingTimeMillis == key.terminationProcessingTimeMillis
-                    && stats.sessionDurationSeconds == key.sessionDurationSeconds
-                    && stats.countOfOutgoingDatagramSuccess == key.countOfOutgoingDatagramSuccess
-                    && stats.countOfOutgoingDatagramFailed == key.countOfOutgoingDatagramFailed
-                    && stats.countOfIncomingDatagramSuccess == key.countOfIncomingDatagramSuccess
-                    && stats.countOfIncomingDatagramFailed == key.countOfIncomingDatagramFailed
-                    && stats.isDemoMode == key.isDemoMode
-                    && stats.maxNtnSignalStrengthLevel == key.maxNtnSignalStrengthLevel) {
-                return stats;
-            }
-        }
-        return null;
+    private @Nullable SatelliteSession find(SatelliteSession key) {
+        return mSatelliteSessionIndex.find(mAtoms.satelliteSession, key);
     }
 
     /**
      * Returns SatelliteSosMessageRecommender atom that has same values or {@code null}
      * if it does not exist.
      */
-    private @Nullable SatelliteSosMessageRecommender find(
-            SatelliteSosMessageRecommender key) {
-        for (SatelliteSosMessageRecommender stats : mAtoms.satelliteSosMessageRecommender) {
-            if (stats.isDisplaySosMessageSent == key.isDisplaySosMessageSent
-                    && stats.countOfTimerStarted == key.countOfTimerStarted
-                    && stats.isImsRegistered == key.isImsRegistered
-                    && stats.cellularServiceState == key.cellularServiceState
-                    && stats.isMultiSim == key.isMultiSim
-                    && stats.recommendingHandoverType == key.recommendingHandoverType) {
-                return stats;
-            }
-        }
-        return null;
+    private @Nullable SatelliteSosMessageRecommender find(SatelliteSosMessageRecommender key) {
+        return mSatelliteSosMessageRecommenderIndex.find(
+                mAtoms.satelliteSosMessageRecommender, key);
     }
 
     /**
@@ -2362,31 +2741,14 @@ public class PersistAtomsStorage {
      * if it does not exist.
      */
     private @Nullable DataNetworkValidation find(DataNetworkValidation key) {
-        for (DataNetworkValidation stats : mAtoms.dataNetworkValidation) {
-            if (stats.networkType == key.networkType
-                    && stats.apnTypeBitmask == key.apnTypeBitmask
-                    && stats.signalStrength == key.signalStrength
-                    && stats.validationResult == key.validationResult
-                    && stats.handoverAttempted == key.handoverAttempted) {
-                return stats;
-            }
-        }
-        return null;
+        return mDataNetworkValidationIndex.find(mAtoms.dataNetworkValidation, key);
     }
 
     /**
      * Returns SatelliteEntitlement atom that has same values or {@code null} if it does not exist.
      */
     private @Nullable SatelliteEntitlement find(SatelliteEntitlement key) {
-        for (SatelliteEntitlement stats : mAtoms.satelliteEntitlement) {
-            if (stats.carrierId == key.carrierId
-                    && stats.result == key.result
-                    && stats.entitlementStatus == key.entitlementStatus
-                    && stats.isRetry == key.isRetry) {
-                return stats;
-            }
-        }
-        return null;
+        return mSatelliteEntitlementIndex.find(mAtoms.satelliteEntitlement, key);
     }
 
     /**
@@ -2394,14 +2756,7 @@ public class PersistAtomsStorage {
      * or {@code null} if it does not exist.
      */
     private @Nullable SatelliteConfigUpdater find(SatelliteConfigUpdater key) {
-        for (SatelliteConfigUpdater stats : mAtoms.satelliteConfigUpdater) {
-            if (stats.configVersion == key.configVersion
-                    && stats.oemConfigResult == key.oemConfigResult
-                    && stats.carrierConfigResult == key.carrierConfigResult) {
-                return stats;
-            }
-        }
-        return null;
+        return mSatelliteConfigUpdaterIndex.find(mAtoms.satelliteConfigUpdater, key);
     }
 
     /**
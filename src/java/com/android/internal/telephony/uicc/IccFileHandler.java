@@ -16,16 +16,19 @@
 
 package com.android.internal.telephony.uicc;
 
+import android.annotation.Nullable;
 import android.compat.annotation.UnsupportedAppUsage;
 import android.os.AsyncResult;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemProperties;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CommandsInterface;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * {@hide}
@@ -100,6 +103,23 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     static protected final int EVENT_GET_RECORD_SIZE_IMG_DONE = 11;
     /** Finished retriveing record size of transparent file. */
     protected static final int EVENT_GET_EF_TRANSPARENT_SIZE_DONE = 12;
+    /** Finished loading one of the records read in parallel from a linear-fixed EF. */
+    private static final int EVENT_READ_RECORD_PIPELINED_DONE = 13;
+    /** Finished getting the header of an EF from the card, to check its cached header. */
+    private static final int EVENT_CHECK_FILE_HEADER_DONE = 14;
+
+    /**
+     * Property for the number of records of a linear-fixed EF read in parallel when loading all
+     * of them. 1, the default, reads them one after the other.
+     */
+    private static final String PROPERTY_READ_PIPELINE_DEPTH =
+            "persist.radio.icc_read_pipeline_depth";
+
+    /**
+     * Set in arg2 of the transparent EF messages when the file header came from the cache. Their
+     * obj is then the {@link FileHeaderCheck} instead of the message to send the result to.
+     */
+    private static final int HEADER_FROM_CACHE = 1;
 
      // member variables
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
@@ -109,6 +129,14 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     protected final String mAid;
 
+    // Cache of the file headers of the current card, or null if disabled.
+    @Nullable
+    private IccFileHeaderCache mFileHeaderCache;
+
+    // Number of records read in parallel when loading all the records of a linear-fixed EF.
+    private int mReadPipelineDepth =
+            Math.max(1, SystemProperties.getInt(PROPERTY_READ_PIPELINE_DEPTH, 1));
+
     public static class LoadLinearFixedContext {
 
         int mEfid;
@@ -116,6 +144,13 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         int mRecordNum, mRecordSize, mCountRecords;
         boolean mLoadAll;
         String mPath;
+        // The check of the header against the card if it came from the cache, or else null.
+        FileHeaderCheck mHeaderCheck;
+        // Records read in parallel, by record number - 1, and how many of them were received.
+        byte[][] mPipelinedRecords;
+        int mReceivedCount;
+        // Whether the parallel reads are abandoned, after an error or a restart of the load.
+        boolean mAbandoned;
 
         Message mOnLoaded;
 
@@ -148,6 +183,38 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         }
     }
 
+    /**
+     * The check of a cached EF header against the card. The GET RESPONSE is sent along with the
+     * reads made from the cached header, and the result of the load is held until the card
+     * confirms the header. A file can be resized without failing the reads, e.g. READ BINARY of
+     * the old size on a grown transparent EF, so an outdated header is only caught this way.
+     */
+    private static class FileHeaderCheck {
+        final int mFileId;
+        final String mPath;
+        final byte[] mCachedHeader;
+        final Message mOnLoaded;
+        // Restarts the load with the header from the card, if the cached one is outdated.
+        final Message mRestart;
+        // Whether the card confirmed the cached header.
+        boolean mConfirmed;
+        // Whether the load was restarted, so the reads made from the cached header are dropped.
+        boolean mAbandoned;
+        // The result of the load waiting for the confirmation.
+        boolean mLoaded;
+        Object mResult;
+        Throwable mException;
+
+        FileHeaderCheck(int fileId, String path, byte[] cachedHeader, Message onLoaded,
+                Message restart) {
+            mFileId = fileId;
+            mPath = path;
+            mCachedHeader = cachedHeader;
+            mOnLoaded = onLoaded;
+            mRestart = restart;
+        }
+    }
+
     @VisibleForTesting
     public int getEfid(LoadLinearFixedContext lc) {
         return lc.mEfid;
@@ -172,6 +239,25 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     public void dispose() {
     }
 
+    /**
+     * Set the cache of the file headers of the current card, which lets the reads of a whole
+     * transparent EF or records of a linear fixed EF start without waiting for the GET RESPONSE.
+     *
+     * @param cache The cache, or {@code null} to disable it.
+     */
+    public void setFileHeaderCache(@Nullable IccFileHeaderCache cache) {
+        mFileHeaderCache = cache;
+    }
+
+    /**
+     * Set the number of records read in parallel when loading all the records of a linear-fixed
+     * EF.
+     */
+    @VisibleForTesting
+    public void setReadPipelineDepth(int depth) {
+        mReadPipelineDepth = Math.max(1, depth);
+    }
+
     //***** Public Methods
 
     /**
@@ -188,12 +274,16 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public void loadEFLinearFixed(int fileid, String path, int recordNum, Message onLoaded) {
         String efPath = (path == null) ? getEFPath(fileid) : path;
-        Message response
-                = obtainMessage(EVENT_GET_RECORD_SIZE_DONE,
-                        new LoadLinearFixedContext(fileid, recordNum, efPath, onLoaded));
-
-        mCi.iccIOForApp(COMMAND_GET_RESPONSE, fileid, efPath,
-                        0, 0, GET_RESPONSE_EF_SIZE_BYTES, null, null, mAid, response);
+        LoadLinearFixedContext lc =
+                new LoadLinearFixedContext(fileid, recordNum, efPath, onLoaded);
+        byte[] header = getCachedFileHeader(fileid, efPath);
+        if (header != null) {
+            lc.mHeaderCheck = new FileHeaderCheck(fileid, efPath, header, onLoaded,
+                    obtainMessage(EVENT_GET_RECORD_SIZE_DONE,
+                            new LoadLinearFixedContext(fileid, recordNum, efPath, onLoaded)));
+        }
+        getFileHeader(fileid, efPath, lc.mHeaderCheck,
+                obtainMessage(EVENT_GET_RECORD_SIZE_DONE, lc));
     }
 
     /**
@@ -299,11 +389,15 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     public void loadEFLinearFixedAll(int fileid, String path, Message onLoaded) {
         String efPath = (path == null) ? getEFPath(fileid) : path;
-        Message response = obtainMessage(EVENT_GET_RECORD_SIZE_DONE,
-                        new LoadLinearFixedContext(fileid, efPath, onLoaded));
-
-        mCi.iccIOForApp(COMMAND_GET_RESPONSE, fileid, efPath,
-                        0, 0, GET_RESPONSE_EF_SIZE_BYTES, null, null, mAid, response);
+        LoadLinearFixedContext lc = new LoadLinearFixedContext(fileid, efPath, onLoaded);
+        byte[] header = getCachedFileHeader(fileid, efPath);
+        if (header != null) {
+            lc.mHeaderCheck = new FileHeaderCheck(fileid, efPath, header, onLoaded,
+                    obtainMessage(EVENT_GET_RECORD_SIZE_DONE,
+                            new LoadLinearFixedContext(fileid, efPath, onLoaded)));
+        }
+        getFileHeader(fileid, efPath, lc.mHeaderCheck,
+                obtainMessage(EVENT_GET_RECORD_SIZE_DONE, lc));
     }
 
     /**
@@ -330,11 +424,17 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
      */
     @UnsupportedAppUsage
     public void loadEFTransparent(int fileid, Message onLoaded) {
-        Message response = obtainMessage(EVENT_GET_BINARY_SIZE_DONE,
-                        fileid, 0, onLoaded);
-
-        mCi.iccIOForApp(COMMAND_GET_RESPONSE, fileid, getEFPath(fileid),
-                        0, 0, GET_RESPONSE_EF_SIZE_BYTES, null, null, mAid, response);
+        String efPath = getEFPath(fileid);
+        byte[] header = getCachedFileHeader(fileid, efPath);
+        if (header == null) {
+            getFileHeader(fileid, efPath, null,
+                    obtainMessage(EVENT_GET_BINARY_SIZE_DONE, fileid, 0, onLoaded));
+            return;
+        }
+        FileHeaderCheck check = new FileHeaderCheck(fileid, efPath, header, onLoaded,
+                obtainMessage(EVENT_GET_BINARY_SIZE_DONE, fileid, 0, onLoaded));
+        getFileHeader(fileid, efPath, check,
+                obtainMessage(EVENT_GET_BINARY_SIZE_DONE, fileid, HEADER_FROM_CACHE, check));
     }
 
     /**
@@ -438,6 +538,111 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
 
     //***** Private Methods
 
+    /**
+     * Returns the cached header of the EF, or null if not cached.
+     */
+    @Nullable
+    private byte[] getCachedFileHeader(int fileid, String path) {
+        if (mFileHeaderCache == null || path == null) {
+            return null;
+        }
+        return mFileHeaderCache.get(path, fileid);
+    }
+
+    /**
+     * Send the header of the EF to the response as the GET RESPONSE result, from the cache if
+     * there, or else from the card.
+     *
+     * @param fileid EF id
+     * @param path Path of the EF on the card
+     * @param check The check of the cached header, or null to get the header from the card
+     * @param response Message to send the GET RESPONSE result to
+     */
+    private void getFileHeader(int fileid, String path, @Nullable FileHeaderCheck check,
+            Message response) {
+        if (check != null) {
+            // The reads start from the cached header while the card confirms it.
+            mCi.iccIOForApp(COMMAND_GET_RESPONSE, fileid, path,
+                    0, 0, GET_RESPONSE_EF_SIZE_BYTES, null, null, mAid,
+                    obtainMessage(EVENT_CHECK_FILE_HEADER_DONE, check));
+            AsyncResult.forMessage(response, new IccIoResult(0x90, 0x00, check.mCachedHeader),
+                    null);
+            response.sendToTarget();
+            return;
+        }
+        mCi.iccIOForApp(COMMAND_GET_RESPONSE, fileid, path,
+                        0, 0, GET_RESPONSE_EF_SIZE_BYTES, null, null, mAid, response);
+    }
+
+    /**
+     * Handle the header of the EF from the card, and send the result of the load if it confirms
+     * the cached header, or else restart the load with it.
+     */
+    private void onFileHeaderChecked(FileHeaderCheck check, AsyncResult ar) {
+        IccIoResult result = (IccIoResult) ar.result;
+        if (ar.exception == null && result != null && result.getException() == null
+                && Arrays.equals(check.mCachedHeader, result.payload)) {
+            check.mConfirmed = true;
+            if (check.mLoaded) {
+                sendResult(check.mOnLoaded, check.mResult, check.mException);
+            }
+            return;
+        }
+        // The file changed since its header was cached. Whatever was read from the cached
+        // header is dropped, and the load goes on as if the header was not cached.
+        invalidateFileHeader(check.mFileId, check.mPath);
+        check.mAbandoned = true;
+        AsyncResult.forMessage(check.mRestart, ar.result, ar.exception);
+        check.mRestart.sendToTarget();
+    }
+
+    /**
+     * Send the result of the load, or hold it until the card confirms the cached header.
+     *
+     * @param check The check of the cached header, or null if the header came from the card
+     */
+    private void sendLoadResult(@Nullable FileHeaderCheck check, Message response,
+            Object result, Throwable ex) {
+        if (check == null || check.mConfirmed) {
+            sendResult(response, result, ex);
+            return;
+        }
+        check.mLoaded = true;
+        check.mResult = result;
+        check.mException = ex;
+    }
+
+    /**
+     * Cache the header of the EF read from the card.
+     */
+    private void cacheFileHeader(int fileid, String path, byte[] header) {
+        if (mFileHeaderCache != null && path != null) {
+            mFileHeaderCache.put(path, fileid, header);
+        }
+    }
+
+    /**
+     * Send the read of the next record of a linear-fixed EF read in parallel.
+     */
+    private void readNextPipelinedRecord(LoadLinearFixedContext lc, String path) {
+        int recordNum = lc.mRecordNum++;
+        mCi.iccIOForApp(COMMAND_READ_RECORD, lc.mEfid, path,
+                recordNum,
+                READ_RECORD_MODE_ABSOLUTE,
+                lc.mRecordSize, null, null, mAid,
+                obtainMessage(EVENT_READ_RECORD_PIPELINED_DONE, recordNum, 0, lc));
+    }
+
+    /**
+     * Drop the cached header of the EF, which the card proved outdated.
+     */
+    private void invalidateFileHeader(int fileid, String path) {
+        loge("Cached header outdated for EF " + Integer.toHexString(fileid));
+        if (mFileHeaderCache != null && path != null) {
+            mFileHeaderCache.remove(path, fileid);
+        }
+    }
+
     private void sendResult(Message response, Object result, Throwable ex) {
         if (response == null) {
             return;
@@ -449,16 +654,27 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
     }
 
     private boolean processException(Message response, AsyncResult ar) {
+        return processException(null, response, ar);
+    }
+
+    /**
+     * Send the error of the command as the result of the load, if any.
+     *
+     * @param check The check of the cached header the load started from, or null if none
+     * @return true if the command failed
+     */
+    private boolean processException(@Nullable FileHeaderCheck check, Message response,
+            AsyncResult ar) {
         IccException iccException;
         boolean flag = false;
         IccIoResult result = (IccIoResult) ar.result;
         if (ar.exception != null) {
-            sendResult(response, null, ar.exception);
+            sendLoadResult(check, response, null, ar.exception);
             flag = true;
         } else {
             iccException = result.getException();
             if (iccException != null) {
-                sendResult(response, null, iccException);
+                sendLoadResult(check, response, null, iccException);
                 flag = true;
             }
         }
@@ -474,6 +690,7 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
         Message response = null;
         String str;
         LoadLinearFixedContext lc;
+        FileHeaderCheck check;
 
         byte data[];
         int size;
@@ -544,6 +761,20 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 if (path == null) {
                     path = getEFPath(lc.mEfid);
                 }
+                if (msg.what == EVENT_GET_RECORD_SIZE_DONE && lc.mHeaderCheck == null) {
+                    cacheFileHeader(lc.mEfid, path, data);
+                }
+                if (msg.what == EVENT_GET_RECORD_SIZE_DONE && lc.mLoadAll
+                        && mReadPipelineDepth > 1 && lc.mCountRecords > 1) {
+                    // Keep up to mReadPipelineDepth reads in flight, so that the card does
+                    // not wait for each response to go through this handler.
+                    lc.mPipelinedRecords = new byte[lc.mCountRecords][];
+                    int count = Math.min(mReadPipelineDepth, lc.mCountRecords);
+                    for (int i = 0; i < count; i++) {
+                        readNextPipelinedRecord(lc, path);
+                    }
+                    break;
+                }
                 mCi.iccIOForApp(COMMAND_READ_RECORD, lc.mEfid, path,
                         lc.mRecordNum,
                         READ_RECORD_MODE_ABSOLUTE,
@@ -552,8 +783,12 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 break;
             case EVENT_GET_BINARY_SIZE_DONE:
                 ar = (AsyncResult)msg.obj;
-                response = (Message) ar.userObj;
                 result = (IccIoResult) ar.result;
+                if (msg.arg2 == HEADER_FROM_CACHE) {
+                    response = ((FileHeaderCheck) ar.userObj).mOnLoaded;
+                } else {
+                    response = (Message) ar.userObj;
+                }
 
                 if (processException(response, (AsyncResult) msg.obj)) {
                     break;
@@ -577,11 +812,14 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 }
 
                 size = getDataFileSize(data);
+                if (msg.arg2 != HEADER_FROM_CACHE) {
+                    cacheFileHeader(fileid, getEFPath(fileid), data);
+                }
 
                 mCi.iccIOForApp(COMMAND_READ_BINARY, fileid, getEFPath(fileid),
                                 0, 0, size, null, null, mAid,
                                 obtainMessage(EVENT_READ_BINARY_DONE,
-                                            fileid, 0, response));
+                                            fileid, msg.arg2, ar.userObj));
             break;
 
             case EVENT_READ_IMG_DONE:
@@ -593,19 +831,23 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
                 response = lc.mOnLoaded;
                 path = lc.mPath;
 
-                if (processException(response, (AsyncResult) msg.obj)) {
+                if (lc.mHeaderCheck != null && lc.mHeaderCheck.mAbandoned) {
+                    break;
+                }
+
+                if (processException(lc.mHeaderCheck, response, (AsyncResult) msg.obj)) {
                     break;
                 }
 
                 if (!lc.mLoadAll) {
-                    sendResult(response, result.payload, null);
+                    sendLoadResult(lc.mHeaderCheck, response, result.payload, null);
                 } else {
                     lc.results.add(result.payload);
 
                     lc.mRecordNum++;
 
                     if (lc.mRecordNum > lc.mCountRecords) {
-                        sendResult(response, lc.results, null);
+                        sendLoadResult(lc.mHeaderCheck, response, lc.results, null);
                     } else {
                         if (path == null) {
                             path = getEFPath(lc.mEfid);
@@ -621,19 +863,60 @@ public abstract class IccFileHandler extends Handler implements IccConstants {
 
             break;
 
+            case EVENT_READ_RECORD_PIPELINED_DONE:
+                ar = (AsyncResult) msg.obj;
+                lc = (LoadLinearFixedContext) ar.userObj;
+                response = lc.mOnLoaded;
+                path = lc.mPath;
+
+                if (lc.mAbandoned || (lc.mHeaderCheck != null && lc.mHeaderCheck.mAbandoned)) {
+                    break;
+                }
+
+                if (processException(lc.mHeaderCheck, response, ar)) {
+                    lc.mAbandoned = true;
+                    break;
+                }
+
+                result = (IccIoResult) ar.result;
+                lc.mPipelinedRecords[msg.arg1 - 1] = result.payload;
+                lc.mReceivedCount++;
+                if (lc.mReceivedCount == lc.mCountRecords) {
+                    // The results are in record order, whatever the order of the responses.
+                    lc.results = new ArrayList<>(Arrays.asList(lc.mPipelinedRecords));
+                    sendLoadResult(lc.mHeaderCheck, response, lc.results, null);
+                } else if (lc.mRecordNum <= lc.mCountRecords) {
+                    readNextPipelinedRecord(lc, path);
+                }
+                break;
+
             case EVENT_READ_BINARY_DONE:
             case EVENT_READ_ICON_DONE:
                 ar = (AsyncResult)msg.obj;
-                response = (Message) ar.userObj;
                 result = (IccIoResult) ar.result;
+                check = null;
+                if (msg.what == EVENT_READ_BINARY_DONE && msg.arg2 == HEADER_FROM_CACHE) {
+                    check = (FileHeaderCheck) ar.userObj;
+                    if (check.mAbandoned) {
+                        break;
+                    }
+                    response = check.mOnLoaded;
+                } else {
+                    response = (Message) ar.userObj;
+                }
 
-                if (processException(response, (AsyncResult) msg.obj)) {
+                if (processException(check, response, (AsyncResult) msg.obj)) {
                     break;
                 }
 
-                sendResult(response, result.payload, null);
+                sendLoadResult(check, response, result.payload, null);
             break;
 
+            case EVENT_CHECK_FILE_HEADER_DONE:
+                ar = (AsyncResult) msg.obj;
+                onFileHeaderChecked((FileHeaderCheck) ar.userObj, ar);
+                break;
+
             case EVENT_GET_EF_TRANSPARENT_SIZE_DONE:
                 ar = (AsyncResult) msg.obj;
                 response = (Message) ar.userObj;
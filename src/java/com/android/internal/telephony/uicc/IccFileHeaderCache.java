@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.uicc;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Persistent cache of the GET RESPONSE headers of the elementary files, i.e. their structure and
+ * size, keyed by the ICCID of the card. With the header cached, the READ of a file is sent along
+ * with its GET RESPONSE instead of after it, and the card confirms the header before the contents
+ * are used. The file contents are never cached and always read from the card.
+ * <p/>
+ * The cache of a phone holds the files of a single card. It is cleared when a different card is
+ * bound, and the owner must drop the files the card reports changed.
+ */
+public class IccFileHeaderCache {
+    /** The prefix of the shared preferences file, followed by the phone id. */
+    private static final String PREF_FILE_PREFIX = "icc_file_header_cache_";
+
+    /** The key of the ICCID of the card the cached headers belong to. */
+    private static final String KEY_ICCID = "iccid";
+
+    /** The cached headers, in hex string, keyed by the file path and id. */
+    @NonNull
+    private final SharedPreferences mPrefs;
+
+    /** The ICCID of the bound card. */
+    @Nullable
+    private String mIccId;
+
+    /** The number of headers served from the cache. */
+    private int mHitCount;
+
+    /** The number of headers not found in the cache. */
+    private int mMissCount;
+
+    /** The number of cached headers found outdated. */
+    private int mInvalidatedCount;
+
+    /**
+     * Constructor
+     *
+     * @param context The context.
+     * @param phoneId The phone id.
+     */
+    public IccFileHeaderCache(@NonNull Context context, int phoneId) {
+        mPrefs = context.getSharedPreferences(PREF_FILE_PREFIX + phoneId, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Bind the cache to the card, dropping the headers of the previous card if different.
+     *
+     * @param iccId The ICCID of the card.
+     */
+    public void bind(@NonNull String iccId) {
+        if (iccId.equals(mIccId)) return;
+        mIccId = iccId;
+        if (!iccId.equals(mPrefs.getString(KEY_ICCID, null))) {
+            mPrefs.edit().clear().putString(KEY_ICCID, iccId).apply();
+        }
+    }
+
+    /**
+     * Get the cached header of the file.
+     *
+     * @param path The path of the file.
+     * @param fileId The file id.
+     * @return The GET RESPONSE payload of the file, or {@code null} if not cached.
+     */
+    @Nullable
+    public byte[] get(@NonNull String path, int fileId) {
+        if (mIccId == null) return null;
+        String header = mPrefs.getString(getKey(path, fileId), null);
+        if (header == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return IccUtils.hexStringToBytes(header);
+    }
+
+    /**
+     * Cache the header of the file.
+     *
+     * @param path The path of the file.
+     * @param fileId The file id.
+     * @param header The GET RESPONSE payload of the file.
+     */
+    public void put(@NonNull String path, int fileId, @NonNull byte[] header) {
+        if (mIccId == null) return;
+        mPrefs.edit().putString(getKey(path, fileId), IccUtils.bytesToHexString(header)).apply();
+    }
+
+    /**
+     * Remove the header of the file, which the card proved outdated.
+     *
+     * @param path The path of the file.
+     * @param fileId The file id.
+     */
+    public void remove(@NonNull String path, int fileId) {
+        mInvalidatedCount++;
+        mPrefs.edit().remove(getKey(path, fileId)).apply();
+    }
+
+    /**
+     * Remove the headers of the file under any path, e.g. when the card reports it changed.
+     *
+     * @param fileId The file id.
+     */
+    public void remove(int fileId) {
+        String suffix = "/" + Integer.toHexString(fileId);
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (String key : mPrefs.getAll().keySet()) {
+            if (key.endsWith(suffix)) {
+                editor.remove(key);
+            }
+        }
+        editor.apply();
+    }
+
+    /** Remove all the headers of the bound card, e.g. when its files changed. */
+    public void clear() {
+        SharedPreferences.Editor editor = mPrefs.edit().clear();
+        if (mIccId != null) {
+            editor.putString(KEY_ICCID, mIccId);
+        }
+        editor.apply();
+    }
+
+    @NonNull
+    private static String getKey(@NonNull String path, int fileId) {
+        return path + "/" + Integer.toHexString(fileId);
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        return "[IccFileHeaderCache: hits=" + mHitCount + ", misses=" + mMissCount
+                + ", invalidated=" + mInvalidatedCount + "]";
+    }
+}
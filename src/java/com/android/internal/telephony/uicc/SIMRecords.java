@@ -26,6 +26,8 @@ import android.os.AsyncResult;
 import android.os.Build;
 import android.os.Message;
 import android.os.PersistableBundle;
+import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.telephony.CarrierConfigManager;
 import android.telephony.PhoneNumberUtils;
 import android.telephony.SmsMessage;
@@ -99,6 +101,15 @@ public class SIMRecords extends IccRecords {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     UsimServiceTable mUsimServiceTable;
 
+    // Cache of the EF headers of the card, saving a round trip per EF when loading the records.
+    private IccFileHeaderCache mFileHeaderCache;
+
+    // Time the records were requested, or 0 if they are not being loaded.
+    private long mFetchStartTimeMillis;
+
+    // Time it took to load all the records the last time, or -1 if never loaded.
+    private long mLastRecordsLoadTimeMillis = -1;
+
     @Override
     public String toString() {
         return "SimRecords: " + super.toString()
@@ -122,6 +133,9 @@ public class SIMRecords extends IccRecords {
     static final int TAG_SPDI = 0xA3;
     static final int TAG_SPDI_PLMN_LIST = 0x80;
 
+    // Property to enable the persistent EF header cache
+    private static final String PROPERTY_FILE_HEADER_CACHE = "persist.radio.sim_file_header_cache";
+
     // Full Name IEI from TS 24.008
     static final int TAG_FULL_NETWORK_NAME = 0x43;
 
@@ -615,6 +629,7 @@ public class SIMRecords extends IccRecords {
     @Override
     public void onRefresh(boolean fileChanged, int[] fileList) {
         if (fileChanged) {
+            invalidateFileHeaderCache();
             // A future optimization would be to inspect fileList and
             // only reload those files that we care about.  For now,
             // just re-fetch all SIM records that we cache.
@@ -1397,6 +1412,9 @@ public class SIMRecords extends IccRecords {
 
     @Override
     protected void handleFileUpdate(int efid) {
+        if (mFileHeaderCache != null) {
+            mFileHeaderCache.remove(efid);
+        }
         switch(efid) {
             case EF_MBDN:
                 mRecordsToLoad++;
@@ -1555,6 +1573,11 @@ public class SIMRecords extends IccRecords {
     @Override
     protected void onAllRecordsLoaded() {
         if (DBG) log("record load complete");
+        if (mFetchStartTimeMillis != 0) {
+            mLastRecordsLoadTimeMillis = SystemClock.elapsedRealtime() - mFetchStartTimeMillis;
+            mFetchStartTimeMillis = 0;
+            log("records loaded in " + mLastRecordsLoadTimeMillis + "ms, " + mFileHeaderCache);
+        }
 
         setSimLanguageFromEF();
         setVoiceCallForwardingFlagFromSimRecords();
@@ -1651,6 +1674,37 @@ public class SIMRecords extends IccRecords {
         }
     }
 
+    /**
+     * Bind the EF header cache to the card if enabled, so that loading the records doesn't wait
+     * for the GET RESPONSE of every EF whose header is cached from a previous load of the card.
+     */
+    private void setUpFileHeaderCache() {
+        if (!SystemProperties.getBoolean(PROPERTY_FILE_HEADER_CACHE, false)) {
+            return;
+        }
+        // The ICCID from the card status is known before EF_ICCID is read.
+        UiccPort port = UiccController.getInstance().getUiccPort(mParentApp.getPhoneId());
+        String iccId = port != null ? port.getIccId() : null;
+        if (TextUtils.isEmpty(iccId)) {
+            mFh.setFileHeaderCache(null);
+            return;
+        }
+        if (mFileHeaderCache == null) {
+            mFileHeaderCache = new IccFileHeaderCache(mContext, mParentApp.getPhoneId());
+        }
+        mFileHeaderCache.bind(iccId);
+        mFh.setFileHeaderCache(mFileHeaderCache);
+    }
+
+    /**
+     * Drop the cached EF headers, as the files of the card may have changed.
+     */
+    private void invalidateFileHeaderCache() {
+        if (mFileHeaderCache != null) {
+            mFileHeaderCache.clear();
+        }
+    }
+
     private void loadCallForwardingRecords() {
         mRecordsRequested = true;
         mFh.loadEFLinearFixed(EF_CFIS, 1, obtainMessage(EVENT_GET_CFIS_DONE));
@@ -1662,6 +1716,8 @@ public class SIMRecords extends IccRecords {
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     protected void fetchSimRecords() {
         mRecordsRequested = true;
+        mFetchStartTimeMillis = SystemClock.elapsedRealtime();
+        setUpFileHeaderCache();
 
         if (DBG) log("fetchSimRecords " + mRecordsToLoad);
 
@@ -2203,6 +2259,8 @@ public class SIMRecords extends IccRecords {
         pw.println(" mEfCPHS_MWI[]=" + Arrays.toString(mEfCPHS_MWI));
         pw.println(" mEfCff[]=" + Arrays.toString(mEfCff));
         pw.println(" mEfCfis[]=" + Arrays.toString(mEfCfis));
+        pw.println(" mLastRecordsLoadTimeMillis=" + mLastRecordsLoadTimeMillis);
+        pw.println(" mFileHeaderCache=" + mFileHeaderCache);
         pw.println(" mCarrierNameDisplayCondition=" + mCarrierNameDisplayCondition);
         pw.println(" mSpdi[]=" + Arrays.toString(mSpdi));
         pw.println(" mUsimServiceTable=" + mUsimServiceTable);
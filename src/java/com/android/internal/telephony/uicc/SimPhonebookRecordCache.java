@@ -24,6 +24,7 @@ import android.os.Message;
 import android.telephony.Rlog;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
+import android.util.Pair;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CommandsInterface;
@@ -33,12 +34,14 @@ import com.android.internal.telephony.uicc.IccConstants;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 
@@ -85,6 +88,10 @@ public class SimPhonebookRecordCache extends Handler {
     private Object mReadLock = new Object();
     private final ConcurrentSkipListMap<Integer, AdnRecord> mSimPbRecords =
             new ConcurrentSkipListMap<Integer, AdnRecord>();
+    // The record IDs of mSimPbRecords keyed by the alpha tag and number, so that searching a
+    // record for update doesn't scan the whole phonebook. Guarded by itself.
+    private final Map<Pair<String, String>, TreeSet<Integer>> mSimPbRecordIndex =
+            new HashMap<>();
     private final List<UpdateRequest> mUpdateRequests =
             Collections.synchronizedList(new ArrayList<UpdateRequest>());
     // If true, clear the records in the cache and re-query from modem
@@ -136,6 +143,7 @@ public class SimPhonebookRecordCache extends Handler {
     private void reset() {
         mAdnCapacity.set(null);
         mSimPbRecords.clear();
+        clearSimPbRecordIndex();
         mIsCacheInvalidated.set(false);
         mIsRecordLoading.set(false);
         mIsInRetry.set(false);
@@ -255,6 +263,7 @@ public class SimPhonebookRecordCache extends Handler {
     public void clear() {
         if (!ENABLE_INFLATE_WITH_EMPTY_RECORDS) {
             mSimPbRecords.clear();
+            clearSimPbRecordIndex();
         }
     }
 
@@ -287,12 +296,7 @@ public class SimPhonebookRecordCache extends Handler {
         int recordId = INVALID_RECORD_ID; // The ID isn't specified by caller
 
         if (oldAdn != null && !oldAdn.isEmpty()) {
-            for(AdnRecord adn : mSimPbRecords.values()) {
-                if (oldAdn.isEqual(adn)) {
-                    recordId = adn.getRecId();
-                    break;
-                }
-            }
+            recordId = findSimPbRecordId(oldAdn);
         }
         if (recordId == INVALID_RECORD_ID
                 && mAdnCapacity.get() != null && mAdnCapacity.get().isSimFull()) {
@@ -472,8 +476,10 @@ public class SimPhonebookRecordCache extends Handler {
             logd("inflateWithEmptyRecords");
             if (capacity != null && mSimPbRecords.isEmpty()) {
                 for (int i = 1; i <= capacity.getMaxAdnCount(); i++) {
-                    mSimPbRecords.putIfAbsent(i,
-                            new AdnRecord(IccConstants.EF_ADN, i, null, null, null, null));
+                    AdnRecord adn = new AdnRecord(IccConstants.EF_ADN, i, null, null, null, null);
+                    if (mSimPbRecords.putIfAbsent(i, adn) == null) {
+                        indexSimPbRecord(i, null, adn);
+                    }
                 }
             }
         }
@@ -561,15 +567,16 @@ public class SimPhonebookRecordCache extends Handler {
 
     private void populateAdnRecords(List<SimPhonebookRecord> records) {
         if (records != null) {
-            Map<Integer, AdnRecord> newRecords = records.stream().map(record -> {return
-                    new AdnRecord(IccConstants.EF_ADN,
-                    record.getRecordId(),
-                    record.getAlphaTag(),
-                    record.getNumber(),
-                    record.getEmails(),
-                    record.getAdditionalNumbers());})
-                    .collect(Collectors.toMap(AdnRecord::getRecId, adn -> adn));
-            mSimPbRecords.putAll(newRecords);
+            // Only the received records change, the rest of the cache and index are kept.
+            for (SimPhonebookRecord record : records) {
+                AdnRecord adn = new AdnRecord(IccConstants.EF_ADN,
+                        record.getRecordId(),
+                        record.getAlphaTag(),
+                        record.getNumber(),
+                        record.getEmails(),
+                        record.getAdditionalNumbers());
+                indexSimPbRecord(adn.getRecId(), mSimPbRecords.put(adn.getRecId(), adn), adn);
+            }
         }
     }
 
@@ -586,9 +593,12 @@ public class SimPhonebookRecordCache extends Handler {
         logd("Record number for the added or changed ADN is " + recordId);
         record.setRecId(recordId);
         if (ENABLE_INFLATE_WITH_EMPTY_RECORDS) {
-            mSimPbRecords.replace(recordId, record);
+            AdnRecord oldRecord = mSimPbRecords.replace(recordId, record);
+            if (oldRecord != null) {
+                indexSimPbRecord(recordId, oldRecord, record);
+            }
         } else {
-            mSimPbRecords.put(recordId, record);
+            indexSimPbRecord(recordId, mSimPbRecords.put(recordId, record), record);
         }
     }
 
@@ -596,12 +606,14 @@ public class SimPhonebookRecordCache extends Handler {
     private void deleteSimPbRecord(int recordId) {
         logd("Record number for the deleted ADN is " + recordId);
         if (ENABLE_INFLATE_WITH_EMPTY_RECORDS) {
-            mSimPbRecords.replace(recordId,
-                    new AdnRecord(IccConstants.EF_ADN, recordId, null, null, null, null));
-        } else {
-            if (mSimPbRecords.containsKey(recordId)) {
-                mSimPbRecords.remove(recordId);
+            AdnRecord emptyRecord =
+                    new AdnRecord(IccConstants.EF_ADN, recordId, null, null, null, null);
+            AdnRecord oldRecord = mSimPbRecords.replace(recordId, emptyRecord);
+            if (oldRecord != null) {
+                indexSimPbRecord(recordId, oldRecord, emptyRecord);
             }
+        } else {
+            indexSimPbRecord(recordId, mSimPbRecords.remove(recordId), null);
         }
     }
 
@@ -611,9 +623,80 @@ public class SimPhonebookRecordCache extends Handler {
         if (ENABLE_INFLATE_WITH_EMPTY_RECORDS) {
             mSimPbRecords.replaceAll((k, v) ->
                     new AdnRecord(IccConstants.EF_ADN, k, null, null, null, null));
+            rebuildSimPbRecordIndex();
         } else {
             mSimPbRecords.clear();
+            clearSimPbRecordIndex();
+        }
+    }
+
+    private static Pair<String, String> getSimPbRecordIndexKey(AdnRecord adn) {
+        // AdnRecord#isEqual treats null and empty strings alike.
+        return Pair.create(TextUtils.emptyIfNull(adn.getAlphaTag()),
+                TextUtils.emptyIfNull(adn.getNumber()));
+    }
+
+    /**
+     * Move the record ID from the index key of the old record to the one of the new record.
+     *
+     * @param recordId The record ID.
+     * @param oldRecord The record replaced or removed, or {@code null} if none.
+     * @param newRecord The record added, or {@code null} if removed.
+     */
+    private void indexSimPbRecord(int recordId, AdnRecord oldRecord, AdnRecord newRecord) {
+        synchronized (mSimPbRecordIndex) {
+            if (oldRecord != null) {
+                Pair<String, String> key = getSimPbRecordIndexKey(oldRecord);
+                TreeSet<Integer> recordIds = mSimPbRecordIndex.get(key);
+                if (recordIds != null) {
+                    recordIds.remove(recordId);
+                    if (recordIds.isEmpty()) {
+                        mSimPbRecordIndex.remove(key);
+                    }
+                }
+            }
+            if (newRecord != null) {
+                mSimPbRecordIndex.computeIfAbsent(getSimPbRecordIndexKey(newRecord),
+                        k -> new TreeSet<>()).add(recordId);
+            }
+        }
+    }
+
+    private void rebuildSimPbRecordIndex() {
+        synchronized (mSimPbRecordIndex) {
+            mSimPbRecordIndex.clear();
+            for (Map.Entry<Integer, AdnRecord> entry : mSimPbRecords.entrySet()) {
+                indexSimPbRecord(entry.getKey(), null, entry.getValue());
+            }
+        }
+    }
+
+    private void clearSimPbRecordIndex() {
+        synchronized (mSimPbRecordIndex) {
+            mSimPbRecordIndex.clear();
+        }
+    }
+
+    /**
+     * Find the record equal to the given one, as the lowest record ID matches when duplicated.
+     *
+     * @param adn The record to find.
+     * @return The record ID, or {@link #INVALID_RECORD_ID} if not found.
+     */
+    private int findSimPbRecordId(AdnRecord adn) {
+        synchronized (mSimPbRecordIndex) {
+            TreeSet<Integer> recordIds = mSimPbRecordIndex.get(getSimPbRecordIndexKey(adn));
+            if (recordIds != null) {
+                // Only the alpha tag and number are indexed, check the emails and ANRs too.
+                for (int recordId : recordIds) {
+                    AdnRecord record = mSimPbRecords.get(recordId);
+                    if (record != null && adn.isEqual(record)) {
+                        return recordId;
+                    }
+                }
+            }
         }
+        return INVALID_RECORD_ID;
     }
 
     private void logd(String msg) {
@@ -35,12 +35,13 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CommandException;
 import com.android.telephony.Rlog;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -91,15 +92,15 @@ public class UiccCarrierPrivilegeRules extends Handler {
      *       DB
      */
     // Values from the data standard.
-    private static final String TAG_ALL_REF_AR_DO = "FF40";
-    private static final String TAG_REF_AR_DO = "E2";
-    private static final String TAG_REF_DO = "E1";
-    private static final String TAG_DEVICE_APP_ID_REF_DO = "C1";
-    private static final String TAG_PKG_REF_DO = "CA";
-    private static final String TAG_AR_DO = "E3";
-    private static final String TAG_PERM_AR_DO = "DB";
-    private static final String TAG_AID_REF_DO = "4F";
-    private static final String CARRIER_PRIVILEGE_AID = "FFFFFFFFFFFF";
+    private static final int TAG_ALL_REF_AR_DO = 0xFF40;
+    private static final int TAG_REF_AR_DO = 0xE2;
+    private static final int TAG_REF_DO = 0xE1;
+    private static final int TAG_DEVICE_APP_ID_REF_DO = 0xC1;
+    private static final int TAG_PKG_REF_DO = 0xCA;
+    private static final int TAG_AR_DO = 0xE3;
+    private static final int TAG_PERM_AR_DO = 0xDB;
+    private static final int TAG_AID_REF_DO = 0x4F;
+    private static final int CARRIER_PRIVILEGE_AID_LENGTH = 6;
 
     private static final int EVENT_OPEN_LOGICAL_CHANNEL_DONE = 1;
     private static final int EVENT_TRANSMIT_LOGICAL_CHANNEL_DONE = 2;
@@ -185,12 +186,138 @@ public class UiccCarrierPrivilegeRules extends Handler {
         }
     }
 
+    // Reads the BER-TLV data objects of the rules in place, without copying the data. Each call
+    // to next() consumes one data object, whose value can then be read or walked with a nested
+    // reader. Malformed data throws IllegalArgumentException.
+    @VisibleForTesting
+    static class TlvReader {
+        private static final int SINGLE_BYTE_MAX_LENGTH = 0x80;
+        private static final int MAX_LENGTH_BYTES = 3;
+        private static final int MAX_TAG_BYTES = 4;
+        private final byte[] mData;
+        private final int mEnd;
+        private int mOffset;
+        // Tag, value offset and value length of the data object last read.
+        private int mTag;
+        private int mValueOffset;
+        private int mValueLength;
+
+        TlvReader(byte[] data, int offset, int end) {
+            mData = data;
+            mOffset = offset;
+            mEnd = end;
+        }
+
+        public boolean hasNext() {
+            return mOffset < mEnd;
+        }
+
+        // Returns the tag of the next data object without consuming it.
+        public int peekTag() {
+            readHeader();
+            return mTag;
+        }
+
+        // Returns the number of bytes the next data object spans, which may exceed the data read
+        // so far.
+        public int peekSize() {
+            readHeader();
+            return mValueOffset - mOffset + mValueLength;
+        }
+
+        // Consumes the next data object, which must have the given tag.
+        public void next(int tag) {
+            readHeader();
+            if (mTag != tag) {
+                throw new IllegalArgumentException("Tags don't match.");
+            }
+            skip();
+        }
+
+        // Consumes the next data object, whatever its tag.
+        public void skip() {
+            readHeader();
+            if (mValueLength > mEnd - mValueOffset) {
+                throw new IllegalArgumentException("Not enough data.");
+            }
+            mOffset = mValueOffset + mValueLength;
+        }
+
+        // Throws if any data is left after the data object last read.
+        public void requireEnd() {
+            if (hasNext()) {
+                throw new IllegalArgumentException("Did not consume all.");
+            }
+        }
+
+        // Returns a reader over the value of the data object last read.
+        public TlvReader valueReader() {
+            return new TlvReader(mData, mValueOffset, mValueOffset + mValueLength);
+        }
+
+        public byte[] valueBytes() {
+            return Arrays.copyOfRange(mData, mValueOffset, mValueOffset + mValueLength);
+        }
+
+        public String valueString() {
+            return new String(mData, mValueOffset, mValueLength);
+        }
+
+        // Returns true if the value of the data object last read has the given length and all
+        // its bytes are 0xFF.
+        public boolean isValueAllFf(int length) {
+            if (mValueLength != length) return false;
+            for (int i = mValueOffset; i < mValueOffset + mValueLength; i++) {
+                if (mData[i] != (byte) 0xFF) return false;
+            }
+            return true;
+        }
+
+        // Decodes the tag and length at the current offset, without consuming them.
+        private void readHeader() {
+            int index = mOffset;
+            if (index >= mEnd) {
+                throw new IllegalArgumentException("No tag.");
+            }
+            int tag = mData[index++] & 0xFF;
+            // Subsequent tag bytes follow if the tag number bits of the first byte are all set.
+            if ((tag & 0x1F) == 0x1F) {
+                int b;
+                do {
+                    if (index >= mEnd || index - mOffset >= MAX_TAG_BYTES) {
+                        throw new IllegalArgumentException("Invalid tag.");
+                    }
+                    b = mData[index++] & 0xFF;
+                    tag = (tag << 8) | b;
+                } while ((b & 0x80) != 0);
+            }
+            if (index >= mEnd) {
+                throw new IllegalArgumentException("No length.");
+            }
+            // Length encoding is in GPC_Specification_2.2.1: 11.1.5 APDU Message and Data Length.
+            int length = mData[index++] & 0xFF;
+            if (length >= SINGLE_BYTE_MAX_LENGTH) {
+                int numBytes = length - SINGLE_BYTE_MAX_LENGTH;
+                if (numBytes == 0 || numBytes > MAX_LENGTH_BYTES || index + numBytes > mEnd) {
+                    throw new IllegalArgumentException("Invalid length.");
+                }
+                length = 0;
+                for (int i = 0; i < numBytes; i++) {
+                    length = (length << 8) | (mData[index++] & 0xFF);
+                }
+            }
+            mTag = tag;
+            mValueOffset = index;
+            mValueLength = length;
+        }
+    }
+
     private UiccProfile mUiccProfile;  // Parent
     private UiccPkcs15 mUiccPkcs15; // ARF fallback
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private AtomicInteger mState;
     private List<UiccAccessRule> mAccessRules;
-    private String mRules;
+    private ByteArrayOutputStream mRules;
     @UnsupportedAppUsage(maxTargetSdk = Build.VERSION_CODES.R, trackingBug = 170729553)
     private Message mLoadedCallback;
     // LocalLog buffer to hold important status messages for debugging.
@@ -220,7 +347,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
         mState = new AtomicInteger(STATE_LOADING);
         mStatusMessage.log("Not loaded.");
         mLoadedCallback = loadedCallback;
-        mRules = "";
+        mRules = new ByteArrayOutputStream();
         mAccessRules = new ArrayList<>();
 
         // Open logical channel with ARA_D.
@@ -232,7 +359,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
     public UiccCarrierPrivilegeRules(List<UiccAccessRule> rules) {
         mAccessRules = rules;
         mState = new AtomicInteger(STATE_LOADED);
-        mRules = "";
+        mRules = new ByteArrayOutputStream();
         mStatusMessage.log("Loaded from test rules.");
     }
 
@@ -438,7 +565,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
                     } else {
                         if (mAIDInUse == ARAD) {
                             // Open logical channel with ARA_M.
-                            mRules = "";
+                            mRules.reset();
                             openChannel(ARAM);
                         }
                         if (mAIDInUse == ARAM) {
@@ -471,12 +598,12 @@ public class UiccCarrierPrivilegeRules extends Handler {
                     if (response.sw1 == 0x90 && response.sw2 == 0x00
                             && response.payload != null && response.payload.length > 0) {
                         try {
-                            mRules += IccUtils.bytesToHexString(response.payload)
-                                    .toUpperCase(Locale.US);
-                            if (isDataComplete()) {
+                            mRules.write(response.payload, 0, response.payload.length);
+                            byte[] rules = mRules.toByteArray();
+                            if (isDataComplete(rules)) {
                                 //TODO: here's where AccessRules are being updated from the psim
                                 // b/139133814
-                                mAccessRules.addAll(parseRules(mRules));
+                                mAccessRules.addAll(parseRules(rules));
                                 if (mAIDInUse == ARAD) {
                                     mCheckedRules = true;
                                 } else {
@@ -528,7 +655,7 @@ public class UiccCarrierPrivilegeRules extends Handler {
                 log("EVENT_CLOSE_LOGICAL_CHANNEL_DONE");
                 if (mAIDInUse == ARAD) {
                     // Close logical channel with ARA_D and then open logical channel with ARA_M.
-                    mRules = "";
+                    mRules.reset();
                     openChannel(ARAM);
                 }
                 break;
@@ -556,44 +683,37 @@ public class UiccCarrierPrivilegeRules extends Handler {
      * Check if all rule bytes have been read from UICC.
      * For long payload, we need to fetch it repeatly before start parsing it.
      */
-    private boolean isDataComplete() {
-        log("isDataComplete mRules:" + mRules);
-        if (mRules.startsWith(TAG_ALL_REF_AR_DO)) {
-            TLV allRules = new TLV(TAG_ALL_REF_AR_DO);
-            String lengthBytes = allRules.parseLength(mRules);
-            log("isDataComplete lengthBytes: " + lengthBytes);
-            if (mRules.length() == TAG_ALL_REF_AR_DO.length() + lengthBytes.length() +
-                    allRules.length) {
-                log("isDataComplete yes");
-                return true;
-            } else {
-                log("isDataComplete no");
-                return false;
-            }
-        } else {
+    private static boolean isDataComplete(byte[] rules) {
+        TlvReader reader = new TlvReader(rules, 0, rules.length);
+        if (reader.peekTag() != TAG_ALL_REF_AR_DO) {
             throw new IllegalArgumentException("Tags don't match.");
         }
+        boolean complete = rules.length == reader.peekSize();
+        log("isDataComplete " + complete);
+        return complete;
     }
 
     /*
-     * Parses the rules from the input string.
+     * Parses the rules from the input bytes.
      */
-    private static List<UiccAccessRule> parseRules(String rules) {
-        log("Got rules: " + rules);
+    @VisibleForTesting
+    static List<UiccAccessRule> parseRules(byte[] rules) {
+        if (DBG) log("Got rules: " + IccUtils.bytesToHexString(rules));
 
-        TLV allRefArDo = new TLV(TAG_ALL_REF_AR_DO); //FF40
-        allRefArDo.parse(rules, true);
+        TlvReader allRefArDo = new TlvReader(rules, 0, rules.length);
+        allRefArDo.next(TAG_ALL_REF_AR_DO); //FF40
+        allRefArDo.requireEnd();
 
-        String arDos = allRefArDo.value;
+        TlvReader arDos = allRefArDo.valueReader();
         List<UiccAccessRule> accessRules = new ArrayList<>();
-        while (!arDos.isEmpty()) {
-            TLV refArDo = new TLV(TAG_REF_AR_DO); //E2
-            arDos = refArDo.parse(arDos, false);
-            UiccAccessRule accessRule = parseRefArdo(refArDo.value);
+        while (arDos.hasNext()) {
+            arDos.next(TAG_REF_AR_DO); //E2
+            UiccAccessRule accessRule = parseRefArdo(arDos.valueReader());
             if (accessRule != null) {
                 accessRules.add(accessRule);
             } else {
-                Rlog.e(LOG_TAG, "Skip unrecognized rule." + refArDo.value);
+                Rlog.e(LOG_TAG, "Skip unrecognized rule."
+                        + IccUtils.bytesToHexString(arDos.valueBytes()));
             }
         }
         return accessRules;
@@ -602,73 +722,64 @@ public class UiccCarrierPrivilegeRules extends Handler {
     /*
      * Parses a single rule.
      */
-    private static UiccAccessRule parseRefArdo(String rule) {
-        log("Got rule: " + rule);
-
-        String certificateHash = null;
+    private static UiccAccessRule parseRefArdo(TlvReader rule) {
+        byte[] certificateHash = null;
         String packageName = null;
-        String tmp = null;
         long accessType = 0;
 
-        while (!rule.isEmpty()) {
-            if (rule.startsWith(TAG_REF_DO)) {
-                TLV refDo = new TLV(TAG_REF_DO); //E1
-                rule = refDo.parse(rule, false);
+        while (rule.hasNext()) {
+            int tag = rule.peekTag();
+            if (tag == TAG_REF_DO) {
+                rule.next(TAG_REF_DO); //E1
+                TlvReader refDo = rule.valueReader();
                 // Allow 4F tag with a default value "FF FF FF FF FF FF" to be compatible with
                 // devices having GP access control enforcer:
                 //  - If no 4F tag is present, it's a CP rule.
                 //  - If 4F tag has value "FF FF FF FF FF FF", it's a CP rule.
                 //  - If 4F tag has other values, it's not a CP rule and Android should ignore it.
-                TLV deviceDo = new TLV(TAG_DEVICE_APP_ID_REF_DO); //C1
-                if (refDo.value.startsWith(TAG_AID_REF_DO)) {
-                    TLV cpDo = new TLV(TAG_AID_REF_DO); //4F
-                    String remain = cpDo.parse(refDo.value, false);
-                    if (!cpDo.lengthBytes.equals("06") || !cpDo.value.equals(CARRIER_PRIVILEGE_AID)
-                            || remain.isEmpty() || !remain.startsWith(TAG_DEVICE_APP_ID_REF_DO)) {
+                if (!refDo.hasNext()) {
+                    return null;
+                }
+                if (refDo.peekTag() == TAG_AID_REF_DO) {
+                    refDo.next(TAG_AID_REF_DO); //4F
+                    if (!refDo.isValueAllFf(CARRIER_PRIVILEGE_AID_LENGTH) || !refDo.hasNext()
+                            || refDo.peekTag() != TAG_DEVICE_APP_ID_REF_DO) {
                         return null;
                     }
-                    tmp = deviceDo.parse(remain, false);
-                    certificateHash = deviceDo.value;
-                } else if (refDo.value.startsWith(TAG_DEVICE_APP_ID_REF_DO)) {
-                    tmp = deviceDo.parse(refDo.value, false);
-                    certificateHash = deviceDo.value;
-                } else {
+                } else if (refDo.peekTag() != TAG_DEVICE_APP_ID_REF_DO) {
                     return null;
                 }
-                if (!tmp.isEmpty()) {
-                    if (!tmp.startsWith(TAG_PKG_REF_DO)) {
+                refDo.next(TAG_DEVICE_APP_ID_REF_DO); //C1
+                certificateHash = refDo.valueBytes();
+                if (refDo.hasNext()) {
+                    if (refDo.peekTag() != TAG_PKG_REF_DO) {
                         return null;
                     }
-                    TLV pkgDo = new TLV(TAG_PKG_REF_DO); //CA
-                    pkgDo.parse(tmp, true);
-                    packageName = new String(IccUtils.hexStringToBytes(pkgDo.value));
+                    refDo.next(TAG_PKG_REF_DO); //CA
+                    refDo.requireEnd();
+                    packageName = refDo.valueString();
                 } else {
                     packageName = null;
                 }
-            } else if (rule.startsWith(TAG_AR_DO)) {
-                TLV arDo = new TLV(TAG_AR_DO); //E3
-                rule = arDo.parse(rule, false);
-                // Skip all the irrelevant tags (All the optional tags here are two bytes
-                // according to the spec GlobalPlatform Secure Element Access Control).
-                String remain = arDo.value;
-                while (!remain.isEmpty() && !remain.startsWith(TAG_PERM_AR_DO)) {
-                    TLV tmpDo = new TLV(remain.substring(0, 2));
-                    remain = tmpDo.parse(remain, false);
+            } else if (tag == TAG_AR_DO) {
+                rule.next(TAG_AR_DO); //E3
+                // Skip all the irrelevant tags.
+                TlvReader arDo = rule.valueReader();
+                while (arDo.hasNext() && arDo.peekTag() != TAG_PERM_AR_DO) {
+                    arDo.skip();
                 }
-                if (remain.isEmpty()) {
+                if (!arDo.hasNext()) {
                     return null;
                 }
-                TLV permDo = new TLV(TAG_PERM_AR_DO); //DB
-                permDo.parse(remain, true);
+                arDo.next(TAG_PERM_AR_DO); //DB
+                arDo.requireEnd();
             } else  {
                 // Spec requires it must be either TAG_REF_DO or TAG_AR_DO.
                 throw new RuntimeException("Invalid Rule type");
             }
         }
 
-        UiccAccessRule accessRule = new UiccAccessRule(
-                IccUtils.hexStringToBytes(certificateHash), packageName, accessType);
-        return accessRule;
+        return new UiccAccessRule(certificateHash, packageName, accessType);
     }
 
     /*
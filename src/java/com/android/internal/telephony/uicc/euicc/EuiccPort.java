@@ -168,6 +168,20 @@ public class EuiccPort extends UiccPort {
         }
     }
 
+    @Override
+    public void dispose() {
+        // Don't hold the logical channel of a card going away.
+        mApduSender.closeIdleChannel();
+        super.dispose();
+    }
+
+    @Override
+    public boolean resetAppWithAid(String aid, boolean reset) {
+        // The card has been refreshed, the logical channel kept open is no longer valid.
+        mApduSender.closeIdleChannel();
+        return super.resetAppWithAid(aid, reset);
+    }
+
     /**
      * Updates MEP(Multiple Enabled Profile) supported mode flag.
      * The flag can be updated after the port creation.
@@ -1164,7 +1178,7 @@ public class EuiccPort extends UiccPort {
             Handler handler) {
         sendApdu(requestBuilder, responseHandler,
                 (e) -> callback.onException(new EuiccCardException("Cannot send APDU.", e)),
-                null, callback, handler);
+                null, false /* requireNewChannel */, callback, handler);
     }
 
     private <T> void sendApdu(RequestProvider requestBuilder,
@@ -1173,13 +1187,15 @@ public class EuiccPort extends UiccPort {
             AsyncResultCallback<T> callback, Handler handler) {
         sendApdu(requestBuilder, responseHandler,
                 (e) -> callback.onException(new EuiccCardException("Cannot send APDU.", e)),
-                intermediateResultHandler, callback, handler);
+                intermediateResultHandler, false /* requireNewChannel */, callback, handler);
     }
 
     /**
      * This is a workaround solution to the bug that a SIM refresh may interrupt the modem to return
      * the reset of responses of the original APDU command. This applies to disable profile, switch
-     * profile, and reset eUICC memory.
+     * profile, and reset eUICC memory. As the card refreshes after these operations, the logical
+     * channel is not kept open for the next request. The request is always sent on a new channel,
+     * so that it is never retried after the card failed it on a reused channel.
      *
      * <p>TODO: Use
      * {@link #sendApdu(RequestProvider, ApduResponseHandler, AsyncResultCallback, Handler)} when
@@ -1188,7 +1204,10 @@ public class EuiccPort extends UiccPort {
     private void sendApduWithSimResetErrorWorkaround(
             RequestProvider requestBuilder, ApduResponseHandler<Void> responseHandler,
             AsyncResultCallback<Void> callback, Handler handler) {
-        sendApdu(requestBuilder, responseHandler, (e) -> {
+        sendApdu(requestBuilder, (byte[] response) -> {
+            mApduSender.closeIdleChannel();
+            return responseHandler.handleResult(response);
+        }, (e) -> {
             if (e instanceof ApduException
                     && ((ApduException) e).getApduStatus() == APDU_ERROR_SIM_REFRESH) {
                 logi("Sim is refreshed after disabling profile, no response got.");
@@ -1196,13 +1215,14 @@ public class EuiccPort extends UiccPort {
             } else {
                 callback.onException(new EuiccCardException("Cannot send APDU.", e));
             }
-        }, null, callback, handler);
+        }, null, true /* requireNewChannel */, callback, handler);
     }
 
     private <T> void sendApdu(RequestProvider requestBuilder,
             ApduResponseHandler<T> responseHandler,
             ApduExceptionHandler exceptionHandler,
             @Nullable ApduIntermediateResultHandler intermediateResultHandler,
+            boolean requireNewChannel,
             AsyncResultCallback<T> callback,
             Handler handler) {
         mApduSender.send(requestBuilder, new ApduSenderResultCallback() {
@@ -1230,7 +1250,7 @@ public class EuiccPort extends UiccPort {
             public void onException(Throwable e) {
                 exceptionHandler.handleException(e);
             }
-        }, handler);
+        }, handler, requireNewChannel);
     }
 
     private static void buildProfile(Asn1Node profileNode, EuiccProfileInfo.Builder profileBuilder)
@@ -1432,6 +1452,7 @@ public class EuiccPort extends UiccPort {
         pw.increaseIndent();
         pw.println("mEid=" + mEid);
         pw.println("mSupportedMepMode=" + mSupportedMepMode);
+        pw.println("mApduSender=" + mApduSender);
         pw.decreaseIndent();
     }
 }
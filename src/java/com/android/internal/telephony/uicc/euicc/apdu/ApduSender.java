@@ -21,10 +21,12 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemProperties;
 import android.preference.PreferenceManager;
 import android.telephony.IccOpenLogicalChannelResponse;
 import android.util.Base64;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CommandsInterface;
 import com.android.internal.telephony.uicc.IccIoResult;
 import com.android.internal.telephony.uicc.euicc.async.AsyncResultCallback;
@@ -42,6 +44,12 @@ import java.util.NoSuchElementException;
  * APDU command will be returned. If any APDU command returns an error status (other than
  * {@link #STATUS_NO_ERROR}) or causing an exception, an {@link ApduException} will be returned
  * immediately without sending the rest of commands. This class is thread-safe.
+ * <p/>
+ * If {@link #PROPERTY_CHANNEL_IDLE_TIMEOUT} is set, the logical channel is kept open after all APDU
+ * commands are sent successfully, and reused by the following requests until it stays idle for
+ * that long. A burst of eUICC operations then opens and closes the channel only once. If the card
+ * reports that a reused channel is not open anymore, e.g. because it was refreshed meanwhile, the
+ * channel is closed and the request is retried once on a newly opened channel.
  *
  * @hide
  */
@@ -55,12 +63,22 @@ public class ApduSender {
     // Status code of APDU response
     private static final int STATUS_NO_ERROR = 0x9000;
     private static final int SW1_NO_ERROR = 0x91;
+    // Returned by the card for a command on a logical channel that is not open.
+    private static final int STATUS_LOGICAL_CHANNEL_NOT_SUPPORTED = 0x6881;
+    private static final int STATUS_CLASS_NOT_SUPPORTED = 0x6E00;
 
     private static final int WAIT_TIME_MS = 2000;
     private static final String CHANNEL_ID_PRE = "esim-channel";
     private static final String ISD_R_AID = "A0000005591010FFFFFFFF8900000100";
     private static final String CHANNEL_RESPONSE_ID_PRE = "esim-res-id";
 
+    /**
+     * The time in milliseconds an idle logical channel is kept open for the next request, or
+     * {@code 0} to close it after every request.
+     */
+    private static final String PROPERTY_CHANNEL_IDLE_TIMEOUT =
+            "persist.radio.euicc_channel_idle_timeout_ms";
+
     private static void logv(String msg) {
         Rlog.v(LOG_TAG, msg);
     }
@@ -83,6 +101,23 @@ public class ApduSender {
     private final Object mChannelLock = new Object();
     private boolean mChannelOpened;
 
+    // The logical channel kept open for the next request and its select response, guarded by
+    // mChannelLock. The channel is idle only when mChannelOpened is false.
+    private int mIdleChannel = IccOpenLogicalChannelResponse.INVALID_CHANNEL;
+    private byte[] mIdleSelectResponse;
+    // The handler the idle channel is closed on when it times out.
+    private Handler mIdleChannelHandler;
+    private final Runnable mCloseIdleChannelRunnable = this::closeIdleChannel;
+    private long mChannelIdleTimeoutMillis;
+
+    // The select response of the channel in use. Only accessed while mChannelOpened is true.
+    private byte[] mSelectResponse;
+
+    // Statistics of the logical channels, guarded by mChannelLock.
+    private int mOpenedChannelCount;
+    private int mReusedChannelCount;
+    private int mClosedChannelCount;
+
     /**
      * @param aid The AID that will be used to open a logical channel to.
      */
@@ -96,9 +131,20 @@ public class ApduSender {
         mTransmitApdu = new TransmitApduLogicalChannelInvocation(ci);
         mChannelKey = CHANNEL_ID_PRE + "_" + phoneId;
         mChannelResponseKey = CHANNEL_RESPONSE_ID_PRE + "_" + phoneId;
+        mChannelIdleTimeoutMillis = SystemProperties.getLong(PROPERTY_CHANNEL_IDLE_TIMEOUT, 0);
         closeExistingChannelIfExists();
     }
 
+    /**
+     * Set how long an idle logical channel is kept open for the next request.
+     *
+     * @param timeoutMillis The idle timeout, or {@code 0} to close the channel after every request.
+     */
+    @VisibleForTesting
+    public void setChannelIdleTimeoutMillis(long timeoutMillis) {
+        mChannelIdleTimeoutMillis = timeoutMillis;
+    }
+
     /**
      * Sends APDU commands.
      *
@@ -115,6 +161,22 @@ public class ApduSender {
             RequestProvider requestProvider,
             ApduSenderResultCallback resultCallback,
             Handler handler) {
+        send(requestProvider, resultCallback, handler, false /* requireNewChannel */);
+    }
+
+    /**
+     * Sends APDU commands.
+     *
+     * @param requireNewChannel Whether the request must be sent on a newly opened logical channel.
+     *     If so, the channel kept open by a previous request is closed first. This is needed by
+     *     requests that must not be sent twice, as a request on a reused channel may be retried.
+     * @see #send(RequestProvider, ApduSenderResultCallback, Handler)
+     */
+    public void send(
+            RequestProvider requestProvider,
+            ApduSenderResultCallback resultCallback,
+            Handler handler,
+            boolean requireNewChannel) {
         synchronized (mChannelLock) {
             if (mChannelOpened) {
                 if (!Looper.getMainLooper().equals(Looper.myLooper())) {
@@ -138,8 +200,38 @@ public class ApduSender {
                 }
             }
             mChannelOpened = true;
+            int idleChannel = mIdleChannel;
+            if (idleChannel != IccOpenLogicalChannelResponse.INVALID_CHANNEL) {
+                byte[] selectResponse = mIdleSelectResponse;
+                mIdleChannelHandler.removeCallbacks(mCloseIdleChannelRunnable);
+                mIdleChannel = IccOpenLogicalChannelResponse.INVALID_CHANNEL;
+                mIdleSelectResponse = null;
+                mIdleChannelHandler = null;
+                if (requireNewChannel) {
+                    logv("Close the idle channel before sending: " + idleChannel);
+                    handler.post(() -> closeAndSendOnNewChannel(idleChannel, requestProvider,
+                            resultCallback, handler));
+                    return;
+                }
+                logv("Reuse the idle channel: " + idleChannel);
+                mReusedChannelCount++;
+                handler.post(() -> sendRequest(idleChannel, selectResponse, requestProvider,
+                        true /* isReusedChannel */, resultCallback, handler));
+                return;
+            }
         }
 
+        openChannelAndSendRequest(requestProvider, resultCallback, handler);
+    }
+
+    /**
+     * Opens a new logical channel and sends the request on it. The channel must have been marked
+     * as in use by setting {@link #mChannelOpened}.
+     */
+    private void openChannelAndSendRequest(
+            RequestProvider requestProvider,
+            ApduSenderResultCallback resultCallback,
+            Handler handler) {
         mOpenChannel.invoke(mAid, new AsyncResultCallback<IccOpenLogicalChannelResponse>() {
             @Override
             public void onResult(IccOpenLogicalChannelResponse openChannelResponse) {
@@ -171,8 +263,9 @@ public class ApduSender {
                     return;
                 }
 
-                RequestBuilder builder = new RequestBuilder(channel, mSupportExtendedApdu);
-                Throwable requestException = null;
+                synchronized (mChannelLock) {
+                    mOpenedChannelCount++;
+                }
                 if (mAid.equals(ISD_R_AID)) {
                    PreferenceManager.getDefaultSharedPreferences(mContext)
                          .edit().putInt(mChannelKey, channel).apply();
@@ -180,33 +273,59 @@ public class ApduSender {
                         .edit().putString(mChannelResponseKey,
                            Base64.encodeToString(selectResponse, Base64.DEFAULT)).apply();
                 }
-                try {
-                    requestProvider.buildRequest(selectResponse, builder);
-                } catch (Throwable e) {
-                    requestException = e;
-                }
-                if (builder.getCommands().isEmpty() || requestException != null) {
-                    // Just close the channel if we don't have commands to send or an error
-                    // was encountered.
-                    closeAndReturn(channel, null /* response */, requestException, resultCallback,
-                            handler);
-                    return;
-                }
-                sendCommand(builder.getCommands(), 0 /* index */, resultCallback, handler);
+                sendRequest(channel, selectResponse, requestProvider, false /* isReusedChannel */,
+                        resultCallback, handler);
             }
         }, handler);
     }
 
+    /**
+     * Builds the request on the opened logical channel and sends its APDU commands.
+     *
+     * @param channel The opened logical channel.
+     * @param selectResponse The response of selecting the AID on the channel.
+     * @param isReusedChannel Whether the channel was kept open by a previous request. If so, the
+     *     request is retried on a new channel if the card reports the channel is not open.
+     */
+    private void sendRequest(
+            int channel,
+            byte[] selectResponse,
+            RequestProvider requestProvider,
+            boolean isReusedChannel,
+            ApduSenderResultCallback resultCallback,
+            Handler handler) {
+        mSelectResponse = selectResponse;
+        RequestBuilder builder = new RequestBuilder(channel, mSupportExtendedApdu);
+        Throwable requestException = null;
+        try {
+            requestProvider.buildRequest(selectResponse, builder);
+        } catch (Throwable e) {
+            requestException = e;
+        }
+        if (builder.getCommands().isEmpty() || requestException != null) {
+            // Just close the channel if we don't have commands to send or an error
+            // was encountered.
+            closeAndReturn(channel, null /* response */, requestException, resultCallback,
+                    handler);
+            return;
+        }
+        sendCommand(builder.getCommands(), 0 /* index */,
+                isReusedChannel ? requestProvider : null, resultCallback, handler);
+    }
+
     /**
      * Sends the current command and then continue to send the next one. If this is the last
      * command or any error happens, {@code resultCallback} will be called.
      *
      * @param commands All commands to be sent.
      * @param index The current command index.
+     * @param retryRequestProvider If not null, the request is retried with it on a new channel
+     *     instead of returning an error if the card reports the channel is not open.
      */
     private void sendCommand(
             List<ApduCommand> commands,
             int index,
+            @Nullable RequestProvider retryRequestProvider,
             ApduSenderResultCallback resultCallback,
             Handler handler) {
         ApduCommand command = commands.get(index);
@@ -222,6 +341,16 @@ public class ApduSender {
                                 logv("Full APDU response: " + fullResponse);
                                 int status = (fullResponse.sw1 << 8) | fullResponse.sw2;
                                 if (status != STATUS_NO_ERROR && fullResponse.sw1 != SW1_NO_ERROR) {
+                                    if (retryRequestProvider != null
+                                            && isChannelNotOpenStatus(status)) {
+                                        logd("Reused channel " + command.channel
+                                                + " is not open, status "
+                                                + Integer.toHexString(status)
+                                                + ", retry on a new channel.");
+                                        closeAndSendOnNewChannel(command.channel,
+                                                retryRequestProvider, resultCallback, handler);
+                                        return;
+                                    }
                                     closeAndReturn(command.channel, null /* response */,
                                             new ApduException(status), resultCallback, handler);
                                     return;
@@ -233,7 +362,9 @@ public class ApduSender {
                                                 fullResponse);
                                 if (continueSendCommand) {
                                     // Sends the next command
-                                    sendCommand(commands, index + 1, resultCallback, handler);
+                                    sendCommand(commands, index + 1,
+                                            null /* retryRequestProvider */, resultCallback,
+                                            handler);
                                 } else {
                                     // Returns the result of the last command
                                     closeAndReturn(command.channel, fullResponse.payload,
@@ -245,6 +376,38 @@ public class ApduSender {
         }, handler);
     }
 
+    /**
+     * Whether the status means the logical channel is not open on the card. Other errors, e.g.
+     * the status returned when the card refreshes after a profile switch, are not retried as the
+     * command may have been executed.
+     */
+    private static boolean isChannelNotOpenStatus(int status) {
+        return status == STATUS_LOGICAL_CHANNEL_NOT_SUPPORTED
+                || status == STATUS_CLASS_NOT_SUPPORTED;
+    }
+
+    /**
+     * Closes a logical channel kept open by a previous request, and sends the request on a new
+     * channel. The channel stays in use in between.
+     */
+    private void closeAndSendOnNewChannel(
+            int channel,
+            RequestProvider requestProvider,
+            ApduSenderResultCallback resultCallback,
+            Handler handler) {
+        mCloseChannel.invoke(channel, new AsyncResultCallback<Boolean>() {
+            @Override
+            public void onResult(Boolean isSuccess) {
+                synchronized (mChannelLock) {
+                    // Don't fall back to the failed channel when opening the new one.
+                    removeStoredChannel();
+                    mClosedChannelCount++;
+                }
+                openChannelAndSendRequest(requestProvider, resultCallback, handler);
+            }
+        }, handler);
+    }
+
     /**
      * Gets the full response.
      *
@@ -287,7 +450,8 @@ public class ApduSender {
     }
 
     /**
-     * Closes the opened logical channel.
+     * Closes the opened logical channel, or keeps it open for the next request if the request
+     * succeeded and {@link #PROPERTY_CHANNEL_IDLE_TIMEOUT} is set.
      *
      * @param response If {@code exception} is null, this will be returned to {@code resultCallback}
      *     after the channel has been closed.
@@ -300,19 +464,23 @@ public class ApduSender {
             @Nullable Throwable exception,
             ApduSenderResultCallback resultCallback,
             Handler handler) {
+        if (exception == null && mChannelIdleTimeoutMillis > 0) {
+            synchronized (mChannelLock) {
+                mIdleChannel = channel;
+                mIdleSelectResponse = mSelectResponse;
+                mIdleChannelHandler = handler;
+                mChannelOpened = false;
+                mChannelLock.notify();
+            }
+            handler.postDelayed(mCloseIdleChannelRunnable, mChannelIdleTimeoutMillis);
+            resultCallback.onResult(response);
+            return;
+        }
+
         mCloseChannel.invoke(channel, new AsyncResultCallback<Boolean>() {
             @Override
             public void onResult(Boolean aBoolean) {
-                synchronized (mChannelLock) {
-                    if (mAid.equals(ISD_R_AID)) {
-                      PreferenceManager.getDefaultSharedPreferences(mContext)
-                             .edit().remove(mChannelKey).apply();
-                      PreferenceManager.getDefaultSharedPreferences(mContext)
-                             .edit().remove(mChannelResponseKey).apply();
-                    }
-                    mChannelOpened = false;
-                    mChannelLock.notify();
-                }
+                onChannelClosed();
 
                 if (exception == null) {
                     resultCallback.onResult(response);
@@ -323,6 +491,51 @@ public class ApduSender {
         }, handler);
     }
 
+    /** Closes the logical channel kept open for the next request, if it is idle. */
+    public void closeIdleChannel() {
+        int channel;
+        Handler handler;
+        synchronized (mChannelLock) {
+            if (mChannelOpened
+                    || mIdleChannel == IccOpenLogicalChannelResponse.INVALID_CHANNEL) {
+                return;
+            }
+            channel = mIdleChannel;
+            handler = mIdleChannelHandler;
+            handler.removeCallbacks(mCloseIdleChannelRunnable);
+            mIdleChannel = IccOpenLogicalChannelResponse.INVALID_CHANNEL;
+            mIdleSelectResponse = null;
+            mIdleChannelHandler = null;
+            // Keeps the channel in use until it is closed.
+            mChannelOpened = true;
+        }
+        logv("Close the idle channel: " + channel);
+        mCloseChannel.invoke(channel, new AsyncResultCallback<Boolean>() {
+            @Override
+            public void onResult(Boolean isSuccess) {
+                onChannelClosed();
+            }
+        }, handler);
+    }
+
+    private void onChannelClosed() {
+        synchronized (mChannelLock) {
+            removeStoredChannel();
+            mClosedChannelCount++;
+            mChannelOpened = false;
+            mChannelLock.notify();
+        }
+    }
+
+    private void removeStoredChannel() {
+        if (mAid.equals(ISD_R_AID)) {
+          PreferenceManager.getDefaultSharedPreferences(mContext)
+                 .edit().remove(mChannelKey).apply();
+          PreferenceManager.getDefaultSharedPreferences(mContext)
+                 .edit().remove(mChannelResponseKey).apply();
+        }
+    }
+
     /**
      * Cleanup the existing opened channel which was remainined opened earlier due
      * to failure or crash.
@@ -357,4 +570,13 @@ public class ApduSender {
             }
         }
     }
+
+    @Override
+    public String toString() {
+        synchronized (mChannelLock) {
+            return "ApduSender{aid=" + mAid + ", idleTimeoutMillis=" + mChannelIdleTimeoutMillis
+                    + ", idleChannel=" + mIdleChannel + ", opened=" + mOpenedChannelCount
+                    + ", reused=" + mReusedChannelCount + ", closed=" + mClosedChannelCount + "}";
+        }
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static com.android.internal.telephony.RILConstants.RIL_UNSOL_CELL_INFO_LIST;
+import static com.android.internal.telephony.RILConstants.RIL_UNSOL_SIGNAL_STRENGTH;
+
+import static org.junit.Assert.assertEquals;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+public class IndicationCoalescerTest extends TelephonyTest {
+    private static final long WINDOW_MS = 1000;
+
+    private IndicationCoalescer mCoalescer;
+    private List<String> mDelivered;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        mCoalescer = new IndicationCoalescer(new Handler(Looper.myLooper()), WINDOW_MS);
+        mDelivered = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mCoalescer = null;
+        mDelivered = null;
+        super.tearDown();
+    }
+
+    @Test
+    @SmallTest
+    public void deliver_firstIndicationImmediate() {
+        deliver(RIL_UNSOL_SIGNAL_STRENGTH, "ss1");
+
+        assertEquals(List.of("ss1"), mDelivered);
+        assertEquals(0, mCoalescer.getCoalescedCount(RIL_UNSOL_SIGNAL_STRENGTH));
+    }
+
+    @Test
+    @SmallTest
+    public void deliver_latestWinsWithinWindow() {
+        deliver(RIL_UNSOL_SIGNAL_STRENGTH, "ss1");
+        deliver(RIL_UNSOL_SIGNAL_STRENGTH, "ss2");
+        deliver(RIL_UNSOL_SIGNAL_STRENGTH, "ss3");
+        deliver(RIL_UNSOL_SIGNAL_STRENGTH, "ss4");
+        processAllMessages();
+        assertEquals(List.of("ss1"), mDelivered);
+
+        moveTimeForward(WINDOW_MS);
+        processAllMessages();
+
+        assertEquals(List.of("ss1", "ss4"), mDelivered);
+        assertEquals(2, mCoalescer.getCoalescedCount(RIL_UNSOL_SIGNAL_STRENGTH));
+    }
+
+    @Test
+    @SmallTest
+    public void deliver_typesCoalescedIndependently() {
+        deliver(RIL_UNSOL_SIGNAL_STRENGTH, "ss1");
+        deliver(RIL_UNSOL_CELL_INFO_LIST, "ci1");
+        deliver(RIL_UNSOL_SIGNAL_STRENGTH, "ss2");
+        deliver(RIL_UNSOL_CELL_INFO_LIST, "ci2");
+        deliver(RIL_UNSOL_CELL_INFO_LIST, "ci3");
+        processAllFutureMessages();
+
+        assertEquals(List.of("ss1", "ci1", "ss2", "ci3"), mDelivered);
+        assertEquals(0, mCoalescer.getCoalescedCount(RIL_UNSOL_SIGNAL_STRENGTH));
+        assertEquals(1, mCoalescer.getCoalescedCount(RIL_UNSOL_CELL_INFO_LIST));
+    }
+
+    @Test
+    @SmallTest
+    public void deliver_immediateAfterQuietWindow() {
+        deliver(RIL_UNSOL_SIGNAL_STRENGTH, "ss1");
+        moveTimeForward(WINDOW_MS);
+        processAllMessages();
+
+        deliver(RIL_UNSOL_SIGNAL_STRENGTH, "ss2");
+
+        assertEquals(List.of("ss1", "ss2"), mDelivered);
+    }
+
+    private void deliver(int indication, String value) {
+        mCoalescer.deliver(indication, () -> mDelivered.add(value));
+    }
+}
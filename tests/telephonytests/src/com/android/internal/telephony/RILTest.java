@@ -93,6 +93,7 @@ import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 
@@ -2538,6 +2539,47 @@ public class RILTest extends TelephonyTest {
         assertEquals("WorkChain{(100, foo), (200, bar)}", request.getWorkSourceClientId());
     }
 
+    @Test
+    public void testObtainCachesClientId() {
+        WorkSource ws = new WorkSource();
+        ws.add(100, "foo");
+        RILRequest request1 = RILRequest.obtain(0, null, ws);
+        RILRequest request2 = RILRequest.obtain(0, null, new WorkSource(ws));
+        assertEquals("100:foo", request1.mClientId);
+        assertSame(request1.mClientId, request2.mClientId);
+
+        // A WorkSource modified after being used must not get the cached ID.
+        ws.add(200, "bar");
+        RILRequest request3 = RILRequest.obtain(0, null, ws);
+        assertEquals(request3.getWorkSourceClientId(), request3.mClientId);
+    }
+
+    @Test
+    public void testReleasedRequestReused() {
+        RILRequest request = RILRequest.obtain(0, null, new WorkSource());
+        int serial = request.mSerial;
+        request.release();
+        assertTrue(RILRequest.getPoolSize() > 0);
+        assertNull(request.mWorkSource);
+        assertNull(request.mClientId);
+
+        RILRequest reused = RILRequest.obtain(1, null, new WorkSource());
+        assertSame(request, reused);
+        assertTrue(serial != reused.mSerial);
+        assertEquals(1, reused.mRequest);
+    }
+
+    @Test
+    public void testSerialString() {
+        RILRequest request = RILRequest.obtain(0, null, null);
+        request.mSerial = 7;
+        assertEquals("[0007]", request.serialString());
+        request.mSerial = 123456;
+        assertEquals("[3456]", request.serialString());
+        request.mSerial = 0;
+        assertEquals("[0000]", request.serialString());
+    }
+
     @Test
     public void testCellInfoTimestamp_1_4() {
         ArrayList<Object> records = new ArrayList<>();
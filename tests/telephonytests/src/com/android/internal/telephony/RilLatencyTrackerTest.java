@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.TelephonyManager;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.internal.telephony.RilLatencyTracker.LatencyHistogram;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class RilLatencyTrackerTest {
+    private RilLatencyTracker mTracker;
+
+    @Before
+    public void setUp() {
+        mTracker = new RilLatencyTracker();
+    }
+
+    @Test
+    @SmallTest
+    public void bucketIndex_boundsContainValue() {
+        for (long value = 0; value < 100_000; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+            }
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void bucketIndex_relativePrecision() {
+        for (long value = 8; value < 100_000; value++) {
+            long upperBound =
+                    LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value));
+            assertTrue(upperBound - value <= value / 8);
+        }
+    }
+
+    @Test
+    @SmallTest
+    public void getPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(5000);
+
+        assertEquals(101, histogram.getCount());
+        assertEquals(5000, histogram.getMaxMillis());
+        assertEquals(6, histogram.getPercentile(5));
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 51 && p50 <= 51 + 51 / 8);
+        assertEquals(5000, histogram.getPercentile(100));
+    }
+
+    @Test
+    @SmallTest
+    public void onResponse_recordedPerService() {
+        mTracker.onResponse(TelephonyManager.HAL_SERVICE_DATA, 27, 30);
+        mTracker.onResponse(TelephonyManager.HAL_SERVICE_DATA, 27, 40);
+        mTracker.onResponse(TelephonyManager.HAL_SERVICE_VOICE, 10, 2000);
+
+        LatencyHistogram data = mTracker.getServiceHistogram(TelephonyManager.HAL_SERVICE_DATA);
+        assertEquals(2, data.getCount());
+        assertEquals(40, data.getMaxMillis());
+        assertEquals(1,
+                mTracker.getServiceHistogram(TelephonyManager.HAL_SERVICE_VOICE).getCount());
+        assertEquals(0, mTracker.getServiceHistogram(TelephonyManager.HAL_SERVICE_SIM).getCount());
+    }
+
+    @Test
+    @SmallTest
+    public void onRequestSent_tracksMaxOutstanding() {
+        mTracker.onRequestSent(1);
+        mTracker.onRequestSent(7);
+        mTracker.onRequestSent(3);
+
+        assertEquals(7, mTracker.getMaxOutstandingRequests());
+    }
+
+    @Test
+    @SmallTest
+    public void dump() {
+        mTracker.onResponse(TelephonyManager.HAL_SERVICE_NETWORK, 20, 15);
+        StringWriter sw = new StringWriter();
+        mTracker.dump(new PrintWriter(sw));
+
+        assertTrue(sw.toString().contains("count=1"));
+    }
+}
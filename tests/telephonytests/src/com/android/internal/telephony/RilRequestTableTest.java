@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RilRequestTableTest {
+    private static final int NUM_THREADS = 8;
+    private static final int REQUESTS_PER_THREAD = 5000;
+
+    @Test
+    @SmallTest
+    public void addGetRemove() {
+        RilRequestTable table = new RilRequestTable();
+        RILRequest rr = RILRequest.obtain(0, null, null);
+
+        assertEquals(1, table.add(rr));
+        assertSame(rr, table.get(rr.mSerial));
+        assertNull(table.get(rr.mSerial + 1));
+        assertSame(rr, table.remove(rr.mSerial));
+        assertNull(table.remove(rr.mSerial));
+        assertNull(table.get(rr.mSerial));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    @SmallTest
+    public void slotCollision_keptInOverflow() {
+        RilRequestTable table = new RilRequestTable(4);
+        RILRequest rr1 = makeRequest(1);
+        RILRequest rr2 = makeRequest(5);
+        RILRequest rr3 = makeRequest(9);
+        table.add(rr1);
+        table.add(rr2);
+        table.add(rr3);
+
+        assertEquals(3, table.size());
+        assertSame(rr2, table.get(5));
+        assertSame(rr2, table.remove(5));
+        assertSame(rr1, table.get(1));
+        assertSame(rr3, table.get(9));
+        assertNull(table.get(13));
+        assertSame(rr1, table.remove(1));
+        assertSame(rr3, table.remove(9));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    @SmallTest
+    public void getAllAndRemoveAll_orderedBySerial() {
+        RilRequestTable table = new RilRequestTable(4);
+        RILRequest rr1 = makeRequest(6);
+        RILRequest rr2 = makeRequest(2);
+        RILRequest rr3 = makeRequest(3);
+        table.add(rr1);
+        table.add(rr2);
+        table.add(rr3);
+
+        List<RILRequest> all = table.getAll();
+        assertEquals(3, all.size());
+        assertSame(rr2, all.get(0));
+        assertSame(rr3, all.get(1));
+        assertSame(rr1, all.get(2));
+        assertEquals(3, table.size());
+
+        assertEquals(all, table.removeAll());
+        assertEquals(0, table.size());
+        assertTrue(table.getAll().isEmpty());
+    }
+
+    @Test
+    @SmallTest
+    public void getAll_orderedAcrossSerialWrap() {
+        RilRequestTable table = new RilRequestTable(4);
+        RILRequest rr1 = makeRequest(Integer.MAX_VALUE - 2);
+        RILRequest rr2 = makeRequest(Integer.MAX_VALUE - 1);
+        RILRequest rr3 = makeRequest(0);
+        RILRequest rr4 = makeRequest(1);
+        table.add(rr3);
+        table.add(rr1);
+        table.add(rr4);
+        table.add(rr2);
+
+        // The serials wrapped to 0 after Integer.MAX_VALUE - 1, so 0 and 1 are the newest.
+        List<RILRequest> all = table.getAll();
+        assertEquals(4, all.size());
+        assertSame(rr1, all.get(0));
+        assertSame(rr2, all.get(1));
+        assertSame(rr3, all.get(2));
+        assertSame(rr4, all.get(3));
+        assertEquals(all, table.removeAll());
+    }
+
+    @Test
+    @MediumTest
+    public void concurrentAddAndRemove() throws Exception {
+        // Small ring so that the overflow path is exercised as well.
+        RilRequestTable table = new RilRequestTable(64);
+        AtomicInteger nextSerial = new AtomicInteger();
+        AtomicInteger removed = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < NUM_THREADS; t++) {
+            // Requests are sent by one thread and their responses handled by another, as
+            // responses are delivered on binder threads.
+            List<RILRequest> sent = new ArrayList<>();
+            Object sentLock = new Object();
+            threads.add(new Thread(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                    RILRequest rr = makeRequest(nextSerial.getAndIncrement());
+                    table.add(rr);
+                    synchronized (sentLock) {
+                        sent.add(rr);
+                        sentLock.notify();
+                    }
+                }
+            }));
+            threads.add(new Thread(() -> {
+                awaitQuietly(start);
+                for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                    RILRequest rr;
+                    synchronized (sentLock) {
+                        while (sent.size() <= i) {
+                            try {
+                                sentLock.wait();
+                            } catch (InterruptedException e) {
+                                failures.incrementAndGet();
+                                return;
+                            }
+                        }
+                        rr = sent.get(i);
+                    }
+                    if (table.get(rr.mSerial) != rr || table.remove(rr.mSerial) != rr
+                            || table.remove(rr.mSerial) != null) {
+                        failures.incrementAndGet();
+                    }
+                    removed.incrementAndGet();
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        }
+
+        assertEquals(0, failures.get());
+        assertEquals(NUM_THREADS * REQUESTS_PER_THREAD, removed.get());
+        assertEquals(0, table.size());
+        assertTrue(table.getAll().isEmpty());
+    }
+
+    private static RILRequest makeRequest(int serial) {
+        RILRequest rr = RILRequest.obtain(0, null, null);
+        rr.mSerial = serial;
+        return rr;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.android.internal.telephony;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -27,6 +28,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @RunWith(AndroidJUnit4.class)
 public class SlidingWindowEventCounterTest {
     long mInitialTime;
@@ -83,4 +87,37 @@ public class SlidingWindowEventCounterTest {
         assertFalse(counter.addOccurrence(mInitialTime));
         assertFalse(counter.addOccurrence(mInitialTime));
     }
+
+    @Test
+    public void test_keepsLastOccurrencesOnly() {
+        SlidingWindowEventCounter counter = new SlidingWindowEventCounter(100, 3);
+        for (int i = 0; i < 10; i++) {
+            counter.addOccurrence(mInitialTime + i * 10);
+        }
+        assertEquals(3, counter.getQueuedNumOccurrences());
+    }
+
+    @Test
+    public void test_concurrentRecordersAndReaders() throws Exception {
+        SlidingWindowEventCounter counter = new SlidingWindowEventCounter(1000, 5);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    counter.addOccurrence(mInitialTime);
+                    counter.isInWindow();
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(5, counter.getQueuedNumOccurrences());
+        assertTrue(counter.isInWindow());
+        assertFalse(counter.addOccurrence(mInitialTime + 1000));
+    }
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test cases for the per-app send limit of SmsUsageMonitor, with the default limit of 30 messages
+ * per minute.
+ */
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+public class SmsUsageMonitorTest extends TelephonyTest {
+    private static final String APP = "com.example.app";
+    private static final long CHECK_PERIOD_MS = 60000;
+    private static final int MAX_ALLOWED = 30;
+
+    private SmsUsageMonitor mMonitor;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        mMonitor = new SmsUsageMonitor(mContext);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mMonitor = null;
+        super.tearDown();
+    }
+
+    @Test
+    @SmallTest
+    public void checkSendLimit_underLimit() {
+        assertTrue(mMonitor.checkSendLimit(APP, MAX_ALLOWED - 1, 0));
+        assertTrue(mMonitor.checkSendLimit(APP, 1, 1));
+        assertFalse(mMonitor.checkSendLimit(APP, 1, 2));
+    }
+
+    @Test
+    @SmallTest
+    public void checkSendLimit_tooManyWaitingNotRecorded() {
+        assertFalse(mMonitor.checkSendLimit(APP, MAX_ALLOWED + 1, 0));
+        assertTrue(mMonitor.checkSendLimit(APP, MAX_ALLOWED, 0));
+    }
+
+    @Test
+    @SmallTest
+    public void checkSendLimit_expiresAfterCheckPeriod() {
+        for (int i = 0; i < MAX_ALLOWED; i++) {
+            assertTrue(mMonitor.checkSendLimit(APP, 1, i * 1000));
+        }
+        assertFalse(mMonitor.checkSendLimit(APP, 1, CHECK_PERIOD_MS - 1));
+
+        // The first message leaves the check period.
+        assertTrue(mMonitor.checkSendLimit(APP, 1, CHECK_PERIOD_MS + 1));
+        assertFalse(mMonitor.checkSendLimit(APP, 1, CHECK_PERIOD_MS + 2));
+
+        // All of them left.
+        assertTrue(mMonitor.checkSendLimit(APP, MAX_ALLOWED, 3 * CHECK_PERIOD_MS));
+    }
+
+    @Test
+    @SmallTest
+    public void checkSendLimit_perApp() {
+        assertTrue(mMonitor.checkSendLimit(APP, MAX_ALLOWED, 0));
+        assertFalse(mMonitor.checkSendLimit(APP, 1, 0));
+        assertTrue(mMonitor.checkSendLimit("com.example.other", MAX_ALLOWED, 0));
+    }
+
+    @Test
+    @SmallTest
+    public void checkSendLimit_manyAppsRemovedOncePerCheckPeriod() {
+        for (int i = 0; i < 500; i++) {
+            assertTrue(mMonitor.checkSendLimit("app" + i, 1, 0));
+        }
+        assertEquals(500, mMonitor.getTrackedAppCount());
+
+        // The idle apps are only released on the next sweep, one check period after the last.
+        assertTrue(mMonitor.checkSendLimit(APP, 1, CHECK_PERIOD_MS - 1));
+        assertEquals(501, mMonitor.getTrackedAppCount());
+        assertTrue(mMonitor.checkSendLimit(APP, 1, 2 * CHECK_PERIOD_MS));
+        assertEquals(1, mMonitor.getTrackedAppCount());
+    }
+
+    @Test
+    @SmallTest
+    public void checkDestination_patternMatcherCachedPerCountry() {
+        CountingSmsUsageMonitor monitor = new CountingSmsUsageMonitor();
+
+        monitor.checkDestination("12345", "us");
+        monitor.checkDestination("12345", "gb");
+        monitor.checkDestination("12345", "us");
+        monitor.checkDestination("12345", "gb");
+
+        // Switching back to a recently used country does not load its patterns again.
+        assertEquals(1, monitor.getLoadCount("us"));
+        assertEquals(1, monitor.getLoadCount("gb"));
+    }
+
+    @Test
+    @SmallTest
+    public void checkDestination_leastRecentlyUsedPatternMatcherEvicted() {
+        CountingSmsUsageMonitor monitor = new CountingSmsUsageMonitor();
+
+        monitor.checkDestination("12345", "us");
+        // Fill the cache of 8 countries with others, so that "us" is the least recently used.
+        for (int i = 0; i < 8; i++) {
+            monitor.checkDestination("12345", "c" + i);
+        }
+        monitor.checkDestination("12345", "us");
+        monitor.checkDestination("12345", "c7");
+
+        assertEquals(2, monitor.getLoadCount("us"));
+        assertEquals(1, monitor.getLoadCount("c7"));
+    }
+
+    /** Counts the short code pattern loads, and finds no patterns for any country. */
+    private class CountingSmsUsageMonitor extends SmsUsageMonitor {
+        private final Map<String, Integer> mLoadCounts = new HashMap<>();
+
+        CountingSmsUsageMonitor() {
+            super(mContext);
+        }
+
+        @Override
+        ShortCodePatternMatcher loadPatternMatcher(String countryIso) {
+            mLoadCounts.merge(countryIso, 1, Integer::sum);
+            return null;
+        }
+
+        int getLoadCount(String countryIso) {
+            return mLoadCounts.getOrDefault(countryIso, 0);
+        }
+    }
+}
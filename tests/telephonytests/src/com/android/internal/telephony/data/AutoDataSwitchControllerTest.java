@@ -714,6 +714,51 @@ public class AutoDataSwitchControllerTest extends TelephonyTest {
         verify(mMockedPhoneSwitcherCallback, never()).onRequireValidation(anyInt(), anyBoolean());
     }
 
+    @Test
+    public void testRetrySwitchAfterCancelWithUnchangedScore() {
+        prepareIdealUsesNonDdsCondition();
+        processAllFutureMessages();
+        verify(mMockedPhoneSwitcherCallback).onRequireValidation(PHONE_2, true/*needValidation*/);
+
+        // The pending switch is cancelled while user data is disabled on the primary SIM.
+        doReturn(false).when(mPhone).isUserDataEnabled();
+        mAutoDataSwitchControllerUT.evaluateAutoDataSwitch(EVALUATION_REASON_DATA_SETTINGS_CHANGED);
+        processAllFutureMessages();
+        verify(mMockedPhoneSwitcherCallback).onRequireCancelAnyPendingAutoSwitchValidation();
+
+        // The next signal change of the secondary retries the switch, though its score is the
+        // same.
+        doReturn(true).when(mPhone).isUserDataEnabled();
+        clearInvocations(mMockedPhoneSwitcherCallback);
+        signalStrengthChanged(PHONE_2, SignalStrength.SIGNAL_STRENGTH_GOOD);
+        processAllFutureMessages();
+
+        verify(mMockedPhoneSwitcherCallback).onRequireValidation(PHONE_2, true/*needValidation*/);
+    }
+
+    @Test
+    public void testNoisySignalWithinScoreSkipEvaluation() {
+        prepareIdealUsesNonDdsCondition();
+        processAllFutureMessages();
+        clearInvocations(mMockedPhoneSwitcherCallback, mDataConfigManager);
+
+        // Replay a noisy trace of the secondary phone whose levels all map to the same score.
+        int[] levels = {SignalStrength.SIGNAL_STRENGTH_GOOD, SignalStrength.SIGNAL_STRENGTH_GREAT,
+                SignalStrength.SIGNAL_STRENGTH_GOOD, SignalStrength.SIGNAL_STRENGTH_GREAT,
+                SignalStrength.SIGNAL_STRENGTH_GOOD, SignalStrength.SIGNAL_STRENGTH_GREAT};
+        for (int level : levels) {
+            signalStrengthChanged(PHONE_2, level);
+        }
+        processAllFutureMessages();
+
+        // Only the changed phone is scored, once per change, and nothing is reevaluated.
+        verify(mDataConfigManager, times(levels.length)).getAutoDataSwitchScore(
+                any(TelephonyDisplayInfo.class), any(SignalStrength.class));
+        verify(mMockedPhoneSwitcherCallback, never())
+                .onRequireCancelAnyPendingAutoSwitchValidation();
+        verify(mMockedPhoneSwitcherCallback, never()).onRequireValidation(anyInt(), anyBoolean());
+    }
+
     /**
      * Trigger conditions
      * 1. service state changes
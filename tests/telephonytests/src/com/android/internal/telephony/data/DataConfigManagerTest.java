@@ -25,6 +25,7 @@ import android.net.NetworkCapabilities;
 import android.os.Looper;
 import android.os.PersistableBundle;
 import android.telephony.CarrierConfigManager;
+import android.telephony.NetworkRegistrationInfo;
 import android.telephony.SignalStrength;
 import android.telephony.TelephonyDisplayInfo;
 import android.telephony.TelephonyManager;
@@ -163,4 +164,29 @@ public class DataConfigManagerTest extends TelephonyTest {
                 NetworkCapabilities.NET_CAPABILITY_PRIORITIZE_BANDWIDTH,
                 NetworkCapabilities.NET_CAPABILITY_PRIORITIZE_LATENCY);
     }
+
+    @Test
+    public void testNonVopsNetworkTypesReplacedOnCarrierConfigChange() {
+        doReturn(true).when(mFeatureFlags).allowMmtelInNonVops();
+        mBundle.putIntArray(
+                CarrierConfigManager.Ims.KEY_IMS_PDN_ENABLED_IN_NO_VOPS_SUPPORT_INT_ARRAY,
+                new int[] {CarrierConfigManager.Ims.NETWORK_TYPE_ROAMING});
+        mDataConfigManagerUT.sendEmptyMessage(1/*EVENT_CARRIER_CONFIG_CHANGED*/);
+        processAllMessages();
+
+        assertThat(mDataConfigManagerUT.allowBringUpNetworkInNonVops(
+                NetworkRegistrationInfo.REGISTRATION_STATE_ROAMING)).isTrue();
+
+        // The types of the previous config must not be kept.
+        mBundle.putIntArray(
+                CarrierConfigManager.Ims.KEY_IMS_PDN_ENABLED_IN_NO_VOPS_SUPPORT_INT_ARRAY,
+                new int[] {CarrierConfigManager.Ims.NETWORK_TYPE_HOME});
+        mDataConfigManagerUT.sendEmptyMessage(1/*EVENT_CARRIER_CONFIG_CHANGED*/);
+        processAllMessages();
+
+        assertThat(mDataConfigManagerUT.allowBringUpNetworkInNonVops(
+                NetworkRegistrationInfo.REGISTRATION_STATE_HOME)).isTrue();
+        assertThat(mDataConfigManagerUT.allowBringUpNetworkInNonVops(
+                NetworkRegistrationInfo.REGISTRATION_STATE_ROAMING)).isFalse();
+    }
 }
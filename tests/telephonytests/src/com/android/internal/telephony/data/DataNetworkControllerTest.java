@@ -1573,6 +1573,35 @@ public class DataNetworkControllerTest extends TelephonyTest {
         verifyConnectedNetworkHasCapabilities(NetworkCapabilities.NET_CAPABILITY_INTERNET);
     }
 
+    @Test
+    public void testReevaluationTriggersCoalesced() throws Exception {
+        // PS restricted, the internet request stays unsatisfied.
+        mDataNetworkControllerUT.obtainMessage(6/*EVENT_PS_RESTRICT_ENABLED*/).sendToTarget();
+        mDataNetworkControllerUT.addNetworkRequest(
+                createNetworkRequest(NetworkCapabilities.NET_CAPABILITY_INTERNET));
+        processAllMessages();
+        verifyAllDataDisconnected();
+        Mockito.clearInvocations(mDataProfileManager);
+
+        // A burst of triggers handled before the re-evaluation they schedule.
+        mDataNetworkControllerUT.obtainMessage(24/*EVENT_SLICE_CONFIG_CHANGED*/).sendToTarget();
+        mDataNetworkControllerUT.obtainMessage(24/*EVENT_SLICE_CONFIG_CHANGED*/).sendToTarget();
+        mDataNetworkControllerUT.obtainMessage(24/*EVENT_SLICE_CONFIG_CHANGED*/).sendToTarget();
+        processAllMessages();
+
+        // The unsatisfied request is evaluated only once.
+        verify(mDataProfileManager, times(1)).getDataProfileForNetworkRequest(
+                any(TelephonyNetworkRequest.class), anyInt(), anyBoolean(), anyBoolean(),
+                anyBoolean());
+
+        // A trigger after the evaluation schedules a new one.
+        mDataNetworkControllerUT.obtainMessage(24/*EVENT_SLICE_CONFIG_CHANGED*/).sendToTarget();
+        processAllMessages();
+        verify(mDataProfileManager, times(2)).getDataProfileForNetworkRequest(
+                any(TelephonyNetworkRequest.class), anyInt(), anyBoolean(), anyBoolean(),
+                anyBoolean());
+    }
+
     @Test
     public void testPsRestrictedAllowIwlan() throws Exception {
         // IMS preferred on IWLAN.
@@ -968,6 +968,28 @@ public class DataProfileManagerTest extends TelephonyTest {
         assertThat(dataProfile.getApnSetting().getApnName()).isEqualTo(GENERAL_PURPOSE_APN1);
     }
 
+    @Test
+    public void testGetDataProfileForNetworkRequestAfterDataProfilesChanged() throws Exception {
+        TelephonyNetworkRequest tnr = new TelephonyNetworkRequest(
+                new NetworkRequest.Builder()
+                        .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                        .build(), mPhone, mFeatureFlags);
+        DataProfile dataProfile = mDataProfileManagerUT.getDataProfileForNetworkRequest(
+                tnr, TelephonyManager.NETWORK_TYPE_LTE, false, false, false);
+        assertThat(dataProfile.getApnSetting().getApnName()).isEqualTo(GENERAL_PURPOSE_APN);
+        // The existing data profile is returned, so the last setup time is retained.
+        assertThat(getAllDataProfiles().stream().anyMatch(dp -> dp == dataProfile)).isTrue();
+
+        // SIM removed
+        changeSimStateTo(TelephonyManager.SIM_STATE_ABSENT);
+        mDataProfileManagerUT.obtainMessage(2 /*EVENT_APN_DATABASE_CHANGED*/).sendToTarget();
+        processAllMessages();
+
+        // The data profiles cached for LTE must not be used anymore.
+        assertThat(mDataProfileManagerUT.getDataProfileForNetworkRequest(
+                tnr, TelephonyManager.NETWORK_TYPE_LTE, false, false, false)).isNull();
+    }
+
     @Test
     public void testGetDataProfileForEnterpriseNetworkRequest() {
         TelephonyNetworkRequest tnr = new TelephonyNetworkRequest(
@@ -907,6 +907,29 @@ public class DataRetryManagerTest extends TelephonyTest {
         verify(mDataProfileManager).clearAllDataProfilePermanentFailures();
     }
 
+    @Test
+    public void testIsDataProfileThrottled() {
+        assertThat(mDataRetryManagerUT.isDataProfileThrottled(mDataProfile3,
+                AccessNetworkConstants.TRANSPORT_TYPE_WWAN)).isFalse();
+
+        testDataSetupRetryNetworkSuggestedNeverRetry();
+        assertThat(mDataRetryManagerUT.isDataProfileThrottled(mDataProfile3,
+                AccessNetworkConstants.TRANSPORT_TYPE_WWAN)).isTrue();
+        assertThat(mDataRetryManagerUT.isDataProfileThrottled(mDataProfile3,
+                AccessNetworkConstants.TRANSPORT_TYPE_WLAN)).isFalse();
+        assertThat(mDataRetryManagerUT.isDataProfileThrottled(mDataProfile1,
+                AccessNetworkConstants.TRANSPORT_TYPE_WWAN)).isFalse();
+
+        // RIL crashed and came back online.
+        mDataRetryManagerUT.obtainMessage(8/*EVENT_RADIO_ON*/,
+                new AsyncResult(AccessNetworkConstants.TRANSPORT_TYPE_WWAN, mDataProfile3, null))
+                .sendToTarget();
+        processAllMessages();
+
+        assertThat(mDataRetryManagerUT.isDataProfileThrottled(mDataProfile3,
+                AccessNetworkConstants.TRANSPORT_TYPE_WWAN)).isFalse();
+    }
+
     @Test
     public void testModemCrashedReset() {
         testDataSetupRetryNetworkSuggestedNeverRetry();
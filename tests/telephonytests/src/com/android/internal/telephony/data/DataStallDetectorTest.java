@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.data;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.testing.AndroidTestingRunner;
+import android.testing.TestableLooper;
+
+import com.android.internal.telephony.TelephonyTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidTestingRunner.class)
+@TestableLooper.RunWithLooper
+public class DataStallDetectorTest extends TelephonyTest {
+    private static final long INTERVAL_MS = 1000;
+
+    private DataStallDetector mDataStallDetector;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp(getClass().getSimpleName());
+        mDataStallDetector = new DataStallDetector(2.0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDataStallDetector = null;
+        super.tearDown();
+    }
+
+    @Test
+    public void testStallSuspectedAfterConsecutiveSilentIntervals() {
+        assertThat(mDataStallDetector.onTrafficSample(100, 1000, INTERVAL_MS)).isFalse();
+        assertThat(mDataStallDetector.onTrafficSample(100, 0, 2 * INTERVAL_MS)).isFalse();
+        assertThat(mDataStallDetector.onTrafficSample(100, 0, 3 * INTERVAL_MS)).isFalse();
+        assertThat(mDataStallDetector.onTrafficSample(100, 0, 4 * INTERVAL_MS)).isFalse();
+        assertThat(mDataStallDetector.isStallSuspected()).isFalse();
+
+        assertThat(mDataStallDetector.onTrafficSample(100, 0, 5 * INTERVAL_MS)).isTrue();
+        assertThat(mDataStallDetector.isStallSuspected()).isTrue();
+        // Only the first interval over the threshold raises the suspicion.
+        assertThat(mDataStallDetector.onTrafficSample(100, 0, 6 * INTERVAL_MS)).isFalse();
+        assertThat(mDataStallDetector.getSuspectedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSporadicSilentIntervalsAbsorbed() {
+        for (int i = 0; i < 20; i++) {
+            mDataStallDetector.onTrafficSample(100, i % 2 == 0 ? 0 : 1000, i * INTERVAL_MS);
+            // Idle intervals are ignored.
+            mDataStallDetector.onTrafficSample(0, 0, i * INTERVAL_MS);
+        }
+        assertThat(mDataStallDetector.isStallSuspected()).isFalse();
+        assertThat(mDataStallDetector.getSuspectedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSuspicionConfirmedByValidationFailure() {
+        for (int i = 1; i <= 4; i++) {
+            mDataStallDetector.onTrafficSample(100, 0, i * INTERVAL_MS);
+        }
+        assertThat(mDataStallDetector.isStallSuspected()).isTrue();
+
+        mDataStallDetector.onValidationResult(false, 10 * INTERVAL_MS);
+
+        assertThat(mDataStallDetector.isStallSuspected()).isFalse();
+        assertThat(mDataStallDetector.getConfirmedCount()).isEqualTo(1);
+        assertThat(mDataStallDetector.getFalsePositiveCount()).isEqualTo(0);
+        assertThat(mDataStallDetector.getAverageLeadTimeMillis()).isEqualTo(6 * INTERVAL_MS);
+    }
+
+    @Test
+    public void testFalsePositives() {
+        for (int i = 1; i <= 4; i++) {
+            mDataStallDetector.onTrafficSample(100, 0, i * INTERVAL_MS);
+        }
+        mDataStallDetector.onValidationResult(true, 5 * INTERVAL_MS);
+        assertThat(mDataStallDetector.getFalsePositiveCount()).isEqualTo(1);
+
+        // The traffic resumes before any validation result.
+        for (int i = 6; i <= 9; i++) {
+            mDataStallDetector.onTrafficSample(100, 0, i * INTERVAL_MS);
+        }
+        assertThat(mDataStallDetector.isStallSuspected()).isTrue();
+        for (int i = 10; i <= 13; i++) {
+            mDataStallDetector.onTrafficSample(100, 1000, i * INTERVAL_MS);
+        }
+
+        assertThat(mDataStallDetector.isStallSuspected()).isFalse();
+        assertThat(mDataStallDetector.getSuspectedCount()).isEqualTo(2);
+        assertThat(mDataStallDetector.getFalsePositiveCount()).isEqualTo(2);
+        assertThat(mDataStallDetector.getConfirmedCount()).isEqualTo(0);
+    }
+}
@@ -23,11 +23,13 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import android.content.Intent;
 import android.database.ContentObserver;
+import android.net.LinkProperties;
 import android.net.NetworkAgent;
 import android.net.NetworkCapabilities;
 import android.net.Uri;
@@ -41,6 +43,7 @@ import android.testing.AndroidTestingRunner;
 import android.testing.TestableLooper;
 
 import com.android.internal.telephony.PhoneConstants;
+import com.android.internal.telephony.TelephonyFacade;
 import com.android.internal.telephony.TelephonyTest;
 import com.android.internal.telephony.data.DataNetworkController.DataNetworkControllerCallback;
 import com.android.internal.telephony.data.DataSettingsManager.DataSettingsManagerCallback;
@@ -64,6 +67,7 @@ public class DataStallRecoveryManagerTest extends TelephonyTest {
 
     // Mocked classes
     private DataStallRecoveryManagerCallback mDataStallRecoveryManagerCallback;
+    private TelephonyFacade mTelephonyFacade;
 
     private DataStallRecoveryManager mDataStallRecoveryManager;
 
@@ -102,6 +106,7 @@ public class DataStallRecoveryManagerTest extends TelephonyTest {
                 "true,true,false,true,true");
 
         mDataStallRecoveryManagerCallback = mock(DataStallRecoveryManagerCallback.class);
+        mTelephonyFacade = mock(TelephonyFacade.class);
         mCarrierConfigManager = mPhone.getContext().getSystemService(CarrierConfigManager.class);
         long[] dataStallRecoveryTimersArray = new long[] {100, 100, 100, 100};
         boolean[] dataStallRecoveryStepsArray = new boolean[] {false, false, true, false, false};
@@ -125,7 +130,8 @@ public class DataStallRecoveryManagerTest extends TelephonyTest {
                         mMockedWwanDataServiceManager,
                         mFeatureFlags,
                         mTestableLooper.getLooper(),
-                        mDataStallRecoveryManagerCallback);
+                        mDataStallRecoveryManagerCallback,
+                        mTelephonyFacade);
 
         field.set(mDataStallRecoveryManager, 0L);
 
@@ -181,6 +187,34 @@ public class DataStallRecoveryManagerTest extends TelephonyTest {
         processAllMessages();
     }
 
+    private void sendOnInternetDataNetworkCallback(String interfaceName) {
+        ArgumentCaptor<DataNetworkControllerCallback> dataNetworkControllerCallbackCaptor =
+                ArgumentCaptor.forClass(DataNetworkControllerCallback.class);
+        verify(mDataNetworkController, times(2))
+                .registerDataNetworkControllerCallback(
+                        dataNetworkControllerCallbackCaptor.capture());
+        DataNetworkControllerCallback dataNetworkControllerCallback =
+                dataNetworkControllerCallbackCaptor.getAllValues().get(0);
+
+        DataNetwork network = mock(DataNetwork.class);
+        doReturn(new NetworkCapabilities()).when(network).getNetworkCapabilities();
+        LinkProperties linkProperties = new LinkProperties();
+        linkProperties.setInterfaceName(interfaceName);
+        doReturn(linkProperties).when(network).getLinkProperties();
+        dataNetworkControllerCallback.onConnectedInternetDataNetworksChanged(Set.of(network));
+        processAllMessages();
+    }
+
+    /** Polls the traffic counters {@code count} times, each interval sending 100 bytes. */
+    private void pollTrafficStats(String interfaceName, long rxBytesPerPoll, int count) {
+        for (int i = 0; i < count; i++) {
+            doReturn(100L * (i + 1)).when(mTelephonyFacade).getTxBytes(interfaceName);
+            doReturn(rxBytesPerPoll * (i + 1)).when(mTelephonyFacade).getRxBytes(interfaceName);
+            moveTimeForward(1000);
+            processAllMessages();
+        }
+    }
+
     @Test
     public void testRecoveryStepPDPReset() throws Exception {
         sendOnInternetDataNetworkCallback(true);
@@ -588,4 +622,42 @@ public class DataStallRecoveryManagerTest extends TelephonyTest {
         // recovery action will jump to modem reset action if user doing the radio restart.
         assertThat(mDataStallRecoveryManager.getRecoveryAction()).isEqualTo(4);
     }
+
+    @Test
+    public void testTrafficStallSuspectedRequestsDataCallList() throws Exception {
+        mDataStallRecoveryManager.setTrafficPollIntervalMillis(1000);
+        sendOnInternetDataNetworkCallback("rmnet_data0");
+        sendValidationStatusCallback(NetworkAgent.VALIDATION_STATUS_VALID);
+
+        // Bytes are sent but none received. The stall is suspected after 4 intervals.
+        pollTrafficStats("rmnet_data0", 0L, 3);
+        verify(mMockedWwanDataServiceManager, never()).requestDataCallList(any());
+        pollTrafficStats("rmnet_data0", 0L, 1);
+        verify(mMockedWwanDataServiceManager).requestDataCallList(any());
+    }
+
+    @Test
+    public void testTrafficPollingCountsOnlyInternetInterfaces() throws Exception {
+        mDataStallRecoveryManager.setTrafficPollIntervalMillis(1000);
+        sendOnInternetDataNetworkCallback("rmnet_data0");
+        sendValidationStatusCallback(NetworkAgent.VALIDATION_STATUS_VALID);
+
+        pollTrafficStats("rmnet_data0", 100L, 10);
+
+        // The aggregate mobile counters include the traffic of the other subscriptions.
+        verify(mTelephonyFacade, never()).getMobileTxBytes();
+        verify(mTelephonyFacade, never()).getMobileRxBytes();
+        verify(mMockedWwanDataServiceManager, never()).requestDataCallList(any());
+    }
+
+    @Test
+    public void testTrafficPollingDisabledByDefault() throws Exception {
+        sendOnInternetDataNetworkCallback("rmnet_data0");
+        sendValidationStatusCallback(NetworkAgent.VALIDATION_STATUS_VALID);
+
+        pollTrafficStats("rmnet_data0", 0L, 10);
+
+        verify(mTelephonyFacade, never()).getTxBytes(any());
+        verify(mMockedWwanDataServiceManager, never()).requestDataCallList(any());
+    }
 }
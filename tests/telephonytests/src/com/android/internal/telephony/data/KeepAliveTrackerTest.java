@@ -16,6 +16,8 @@
 
 package com.android.internal.telephony.data;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
@@ -29,6 +31,7 @@ import android.net.InetAddresses;
 import android.net.KeepalivePacketData;
 import android.net.NattKeepalivePacketData;
 import android.net.NetworkAgent;
+import android.net.SocketKeepalive;
 import android.os.AsyncResult;
 import android.os.Looper;
 import android.os.Message;
@@ -221,4 +224,101 @@ public class KeepAliveTrackerTest extends TelephonyTest {
     public void testStartNattKeepaliveFailCondensed() throws Exception {
         checkStartNattKeepaliveFail(true);
     }
+
+    @Test
+    public void testStopRequestedBeforeStartedCoalesced() throws Exception {
+        final int sessionHandle = 0xF00;
+        final int slotId = 3;
+        KeepalivePacketData kd = NattKeepalivePacketData.nattKeepalivePacket(
+                InetAddresses.parseNumericAddress("1.2.3.4"),
+                1234,
+                InetAddresses.parseNumericAddress("8.8.8.8"),
+                4500);
+        mTelephonyNetworkAgentCallback.onStartSocketKeepalive(slotId, Duration.ofSeconds(10), kd);
+        processAllMessages();
+
+        // The stop is requested before the modem assigned a handle to the keepalive.
+        mTelephonyNetworkAgentCallback.onStopSocketKeepalive(slotId);
+        processAllMessages();
+        verify(mSimulatedCommandsVerifier, never()).stopNattKeepalive(anyInt(), any(Message.class));
+        verify(mMockedTelephonyNetworkAgent, never()).sendSocketKeepaliveEvent(anyInt(), anyInt());
+
+        // The keepalive is stopped as soon as it is started.
+        Message kaStarted = mKeepaliveTrackerUT.obtainMessage(1 /*EVENT_KEEPALIVE_STARTED*/,
+                slotId, 0);
+        AsyncResult.forMessage(kaStarted,
+                new KeepaliveStatus(sessionHandle, KeepaliveStatus.STATUS_ACTIVE), null);
+        kaStarted.sendToTarget();
+        processAllMessages();
+        verify(mSimulatedCommandsVerifier).stopNattKeepalive(eq(sessionHandle), any(Message.class));
+        verify(mMockedTelephonyNetworkAgent, never()).sendSocketKeepaliveEvent(anyInt(), anyInt());
+
+        // A repeated stop is coalesced into the one in flight.
+        mTelephonyNetworkAgentCallback.onStopSocketKeepalive(slotId);
+        processAllMessages();
+        verify(mSimulatedCommandsVerifier, times(1))
+                .stopNattKeepalive(anyInt(), any(Message.class));
+
+        Message kaStopped = mKeepaliveTrackerUT.obtainMessage(2 /*EVENT_KEEPALIVE_STOPPED*/,
+                sessionHandle, slotId);
+        AsyncResult.forMessage(kaStopped);
+        kaStopped.sendToTarget();
+        processAllMessages();
+        verify(mMockedTelephonyNetworkAgent).sendSocketKeepaliveEvent(
+                slotId, SocketKeepalive.SUCCESS);
+
+        assertThat(mKeepaliveTrackerUT.getRilRequestCount()).isEqualTo(2);
+        assertThat(mKeepaliveTrackerUT.getCoalescedRequestCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testStopFailedThenRetried() throws Exception {
+        final int sessionHandle = 0xF00;
+        final int slotId = 3;
+        KeepalivePacketData kd = NattKeepalivePacketData.nattKeepalivePacket(
+                InetAddresses.parseNumericAddress("1.2.3.4"),
+                1234,
+                InetAddresses.parseNumericAddress("8.8.8.8"),
+                4500);
+        mTelephonyNetworkAgentCallback.onStartSocketKeepalive(slotId, Duration.ofSeconds(10), kd);
+        processAllMessages();
+        Message kaStarted = mKeepaliveTrackerUT.obtainMessage(1 /*EVENT_KEEPALIVE_STARTED*/,
+                slotId, 0);
+        AsyncResult.forMessage(kaStarted,
+                new KeepaliveStatus(sessionHandle, KeepaliveStatus.STATUS_ACTIVE), null);
+        kaStarted.sendToTarget();
+        processAllMessages();
+        verify(mMockedTelephonyNetworkAgent).sendSocketKeepaliveEvent(
+                slotId, SocketKeepalive.SUCCESS);
+
+        mTelephonyNetworkAgentCallback.onStopSocketKeepalive(slotId);
+        processAllMessages();
+        verify(mSimulatedCommandsVerifier, times(1))
+                .stopNattKeepalive(eq(sessionHandle), any(Message.class));
+
+        // The modem rejects the stop, which is reported for the slot.
+        Message kaStopped = mKeepaliveTrackerUT.obtainMessage(2 /*EVENT_KEEPALIVE_STOPPED*/,
+                sessionHandle, slotId);
+        AsyncResult.forMessage(kaStopped, null, new RuntimeException("stop failed"));
+        kaStopped.sendToTarget();
+        processAllMessages();
+        verify(mMockedTelephonyNetworkAgent).sendSocketKeepaliveEvent(
+                slotId, SocketKeepalive.ERROR_HARDWARE_ERROR);
+
+        // The retried stop reaches the modem instead of being coalesced.
+        mTelephonyNetworkAgentCallback.onStopSocketKeepalive(slotId);
+        processAllMessages();
+        verify(mSimulatedCommandsVerifier, times(2))
+                .stopNattKeepalive(eq(sessionHandle), any(Message.class));
+        assertThat(mKeepaliveTrackerUT.getCoalescedRequestCount()).isEqualTo(0);
+
+        kaStopped = mKeepaliveTrackerUT.obtainMessage(2 /*EVENT_KEEPALIVE_STOPPED*/,
+                sessionHandle, slotId);
+        AsyncResult.forMessage(kaStopped);
+        kaStopped.sendToTarget();
+        processAllMessages();
+        verify(mMockedTelephonyNetworkAgent, times(2)).sendSocketKeepaliveEvent(
+                slotId, SocketKeepalive.SUCCESS);
+        assertThat(mKeepaliveTrackerUT.getRilRequestCount()).isEqualTo(3);
+    }
 }
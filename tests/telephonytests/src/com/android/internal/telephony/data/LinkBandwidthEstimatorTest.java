@@ -18,6 +18,7 @@ package com.android.internal.telephony.data;
 
 import static android.net.NetworkCapabilities.TRANSPORT_CELLULAR;
 
+import static com.android.internal.telephony.data.LinkBandwidthEstimator.BANDWIDTH_STATS_FLUSH_INTERVAL_MS;
 import static com.android.internal.telephony.data.LinkBandwidthEstimator.BW_STATS_COUNT_THRESHOLD;
 import static com.android.internal.telephony.data.LinkBandwidthEstimator.LINK_RX;
 import static com.android.internal.telephony.data.LinkBandwidthEstimator.LINK_TX;
@@ -30,6 +31,7 @@ import static com.android.internal.telephony.data.LinkBandwidthEstimator.MSG_SIG
 import static com.android.internal.telephony.data.LinkBandwidthEstimator.UNKNOWN_TAC;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.atLeast;
@@ -41,9 +43,11 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import android.content.SharedPreferences;
 import android.net.NetworkCapabilities;
 import android.os.Handler;
 import android.os.Looper;
+import android.preference.PreferenceManager;
 import android.telephony.CellIdentityLte;
 import android.telephony.ModemActivityInfo;
 import android.telephony.NetworkRegistrationInfo;
@@ -754,4 +758,68 @@ public class LinkBandwidthEstimatorTest extends TelephonyTest {
         verify(callback).onDataActivityChanged(eq(TelephonyManager.DATA_ACTIVITY_IN));
         Mockito.clearInvocations(callback);
     }
+
+    @Test
+    public void testBandwidthStatsFlushedInBatch() throws Exception {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String valueKey = "Plmn001010RatLTETac1Link1Level2Data";
+        String countKey = "Plmn001010RatLTETac1Link1Level2Count";
+        sp.edit().remove(valueKey).remove(countKey).commit();
+
+        LinkBandwidthEstimator.NetworkBandwidth network = mLBE.lookupNetwork("001010", 1, "LTE");
+        network.update(1_000L, LINK_RX, 2);
+        network.update(3_000L, LINK_RX, 2);
+        processAllMessages();
+
+        // The stats are kept in memory until the next flush.
+        assertEquals(2, network.getCount(LINK_RX, 2));
+        assertEquals(4_000L, network.getValue(LINK_RX, 2));
+        assertFalse(sp.contains(valueKey));
+
+        moveTimeForward(BANDWIDTH_STATS_FLUSH_INTERVAL_MS);
+        processAllMessages();
+
+        assertEquals(4_000L, sp.getLong(valueKey, 0));
+        assertEquals(2, sp.getInt(countKey, 0));
+        sp.edit().remove(valueKey).remove(countKey).commit();
+    }
+
+    @Test
+    public void testBandwidthStatsFlushedWhenPollStops() throws Exception {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String valueKey = "Plmn001010RatLTETac1Link1Level2Data";
+        sp.edit().remove(valueKey).commit();
+        mLBE.obtainMessage(MSG_SCREEN_STATE_CHANGED, true).sendToTarget();
+        processAllMessages();
+
+        LinkBandwidthEstimator.NetworkBandwidth network = mLBE.lookupNetwork("001010", 1, "LTE");
+        network.update(1_000L, LINK_RX, 2);
+        processAllMessages();
+        assertFalse(sp.contains(valueKey));
+
+        // The default network is lost, the pending stats are written without waiting.
+        mLBE.obtainMessage(MSG_DEFAULT_NETWORK_CHANGED, null).sendToTarget();
+        processAllMessages();
+
+        assertEquals(1_000L, sp.getLong(valueKey, 0));
+        sp.edit().remove(valueKey).remove("Plmn001010RatLTETac1Link1Level2Count").commit();
+    }
+
+    @Test
+    public void testRequestFlushBandwidthStats() throws Exception {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String valueKey = "Plmn001010RatLTETac1Link1Level2Data";
+        sp.edit().remove(valueKey).commit();
+
+        LinkBandwidthEstimator.NetworkBandwidth network = mLBE.lookupNetwork("001010", 1, "LTE");
+        network.update(1_000L, LINK_RX, 2);
+        processAllMessages();
+        assertFalse(sp.contains(valueKey));
+
+        mLBE.requestFlushBandwidthStats();
+        processAllMessages();
+
+        assertEquals(1_000L, sp.getLong(valueKey, 0));
+        sp.edit().remove(valueKey).remove("Plmn001010RatLTETac1Link1Level2Count").commit();
+    }
 }
@@ -824,6 +824,36 @@ public class PhoneSwitcherTest extends TelephonyTest {
         verify(mMockRadioConfig).setPreferredDataModem(eq(0), any());
     }
 
+    @Test
+    @SmallTest
+    public void testSwitchLatencyRecorded() throws Exception {
+        doReturn(true).when(mMockRadioConfig).isSetPreferredDataCommandSupported();
+        initialize();
+        // Phone 0 has sub 1, phone 1 has sub 2.
+        // Sub 1 is default data sub.
+        setSlotIndexToSubId(0, 1);
+        setSlotIndexToSubId(1, 2);
+        setDefaultDataSubId(1);
+        AsyncResult res = new AsyncResult(1, null,  null);
+        Message.obtain(mPhoneSwitcherUT, EVENT_MODEM_COMMAND_DONE, res).sendToTarget();
+        processAllMessages();
+        // The initial preferred data modem is not a switch.
+        assertEquals(0, mPhoneSwitcherUT.getSwitchLatencyHistogram().getCount());
+
+        doReturn(new SubscriptionInfoInternal.Builder(mSubscriptionManagerService
+                .getSubscriptionInfoInternal(2)).setOpportunistic(1).build())
+                .when(mSubscriptionManagerService).getSubscriptionInfoInternal(2);
+        mPhoneSwitcherUT.trySetOpportunisticDataSubscription(2, false, null);
+        processAllMessages();
+        mPhoneSwitcherUT.mValidationCallback.onNetworkAvailable(null, 2);
+        processAllMessages();
+        verify(mMockRadioConfig).setPreferredDataModem(eq(1), any());
+        Message.obtain(mPhoneSwitcherUT, EVENT_MODEM_COMMAND_DONE, res).sendToTarget();
+        processAllMessages();
+
+        assertEquals(1, mPhoneSwitcherUT.getSwitchLatencyHistogram().getCount());
+    }
+
     @Test
     @SmallTest
     public void testSetPreferredDataWithValidation() throws Exception {
@@ -318,6 +318,35 @@ public class QosCallbackTrackerTest extends TelephonyTest {
         verify(mINetworkAgentRegistry, times(1)).sendQosSessionLost(eq(1), any(QosSession.class));
     }
 
+    @Test
+    public void testSessionLostAfterFilterAddressChanged() throws Exception {
+        ArrayList<QosBearerFilter> qosFilters = new ArrayList<>();
+        qosFilters.add(createIpv4QosFilter("122.22.22.22", "144.44.44.44",
+                new QosBearerFilter.PortRange(2222, 2222),
+                new QosBearerFilter.PortRange(2223, 2223), 45));
+        ArrayList<QosBearerSession> qosSessions = new ArrayList<>();
+        qosSessions.add(new QosBearerSession(1235, createEpsQos(5, 6, 7, 8), qosFilters));
+
+        Filter filter = new Filter(new InetSocketAddress(
+                InetAddresses.parseNumericAddress("122.22.22.22"), 2222),
+                new InetSocketAddress(InetAddresses.parseNumericAddress("144.44.44.44"), 2223));
+        mQosCallbackTracker.addFilter(1, filter);
+        mQosCallbackTracker.updateSessions(qosSessions);
+        processAllMessages();
+
+        verify(mINetworkAgentRegistry, times(1)).sendEpsQosSessionAvailable(eq(1),
+                any(QosSession.class), any(EpsBearerQosSessionAttributes.class));
+
+        // The socket behind the filter is rebound, so the filter no longer matches the session.
+        filter.mLocalAddress = new InetSocketAddress(
+                InetAddresses.parseNumericAddress("133.33.33.33"), 2222);
+        mQosCallbackTracker.updateSessions(new ArrayList<>());
+        processAllMessages();
+
+        // The session reported as available must still be reported as lost.
+        verify(mINetworkAgentRegistry, times(1)).sendQosSessionLost(eq(1), any(QosSession.class));
+    }
+
     @Test
     public void testModifiedQos() throws Exception {
         // Non-matching QosBearerFilter
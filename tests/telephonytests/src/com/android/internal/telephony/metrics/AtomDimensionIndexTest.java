@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.internal.telephony.metrics.AtomDimensionIndex.DimensionKey;
+import com.android.internal.telephony.nano.PersistAtomsProto.GbaEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AtomDimensionIndexTest {
+    private AtomDimensionIndex<GbaEvent> mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = new AtomDimensionIndex<>(
+                (atom, key) -> key
+                        .add(atom.carrierId)
+                        .add(atom.slotId)
+                        .add(atom.successful)
+                        .add(atom.failedReason));
+    }
+
+    @Test
+    @SmallTest
+    public void find_matchingDimensions() {
+        GbaEvent event1 = makeGbaEvent(1, 0, true, 0);
+        GbaEvent event2 = makeGbaEvent(1, 1, false, 2);
+        GbaEvent[] atoms = new GbaEvent[] {event1, event2};
+
+        assertSame(event1, mIndex.find(atoms, makeGbaEvent(1, 0, true, 0)));
+        assertSame(event2, mIndex.find(atoms, makeGbaEvent(1, 1, false, 2)));
+        assertNull(mIndex.find(atoms, makeGbaEvent(1, 1, true, 2)));
+    }
+
+    @Test
+    @SmallTest
+    public void find_ignoresMetricValues() {
+        GbaEvent event = makeGbaEvent(1, 0, true, 0);
+        GbaEvent[] atoms = new GbaEvent[] {event};
+        mIndex.find(atoms, event);
+
+        event.count += 5;
+        GbaEvent key = makeGbaEvent(1, 0, true, 0);
+        key.count = 1;
+
+        assertSame(event, mIndex.find(atoms, key));
+    }
+
+    @Test
+    @SmallTest
+    public void find_rebuiltForNewArray() {
+        GbaEvent event1 = makeGbaEvent(1, 0, true, 0);
+        GbaEvent event2 = makeGbaEvent(2, 0, true, 0);
+        assertNull(mIndex.find(new GbaEvent[] {event1}, event2));
+
+        assertSame(event2, mIndex.find(new GbaEvent[] {event1, event2}, event2));
+        assertNull(mIndex.find(new GbaEvent[0], event2));
+    }
+
+    @Test
+    @SmallTest
+    public void find_duplicateDimensionsReturnsFirst() {
+        GbaEvent event1 = makeGbaEvent(1, 0, true, 0);
+        GbaEvent event2 = makeGbaEvent(1, 0, true, 0);
+
+        assertSame(event1, mIndex.find(new GbaEvent[] {event1, event2}, event2));
+    }
+
+    @Test
+    @SmallTest
+    public void find_manyAtoms() {
+        GbaEvent[] atoms = new GbaEvent[100];
+        for (int i = 0; i < atoms.length; i++) {
+            atoms[i] = makeGbaEvent(i / 2, 0, i % 2 == 0, 0);
+        }
+
+        for (int i = 0; i < atoms.length; i++) {
+            assertSame(atoms[i], mIndex.find(atoms, makeGbaEvent(i / 2, 0, i % 2 == 0, 0)));
+        }
+        assertNull(mIndex.find(atoms, makeGbaEvent(50, 0, true, 0)));
+        // A smaller array reuses the table.
+        assertSame(atoms[1], mIndex.find(new GbaEvent[] {atoms[1]}, atoms[1]));
+        assertNull(mIndex.find(new GbaEvent[] {atoms[1]}, atoms[0]));
+    }
+
+    @Test
+    @SmallTest
+    public void dimensionKey_equality() {
+        DimensionKey key1 = new DimensionKey().add(1).add(true).add("a").add(0.5f);
+        DimensionKey key2 = new DimensionKey().add(1).add(true).add("a").add(0.5f);
+        DimensionKey key3 = new DimensionKey().add(1).add(true).add("b").add(0.5f);
+        DimensionKey key4 = new DimensionKey().add(1).add(false).add("a").add(0.5f);
+        DimensionKey key5 = new DimensionKey().add(1).add(true).add((String) null).add(0.5f);
+
+        assertEquals(key1, key2);
+        assertEquals(key1.hashCode(), key2.hashCode());
+        assertNotEquals(key1, key3);
+        assertNotEquals(key1, key4);
+        assertNotEquals(key1, key5);
+        assertEquals(key5, new DimensionKey().add(1).add(true).add((String) null).add(0.5f));
+    }
+
+    @Test
+    @SmallTest
+    public void dimensionKey_manyValues() {
+        DimensionKey key1 = new DimensionKey();
+        DimensionKey key2 = new DimensionKey();
+        for (int i = 0; i < 40; i++) {
+            key1.add(i);
+            key2.add(i);
+        }
+        key2.add(40);
+
+        assertNotEquals(key1, key2);
+    }
+
+    @Test
+    @SmallTest
+    public void dimensionKey_clear() {
+        DimensionKey key = new DimensionKey().add(1).add("a");
+        key.clear();
+
+        assertEquals(new DimensionKey().add(2).add("b"), key.add(2).add("b"));
+    }
+
+    private static GbaEvent makeGbaEvent(
+            int carrierId, int slotId, boolean successful, int failedReason) {
+        GbaEvent event = new GbaEvent();
+        event.carrierId = carrierId;
+        event.slotId = slotId;
+        event.successful = successful;
+        event.failedReason = failedReason;
+        return event;
+    }
+}
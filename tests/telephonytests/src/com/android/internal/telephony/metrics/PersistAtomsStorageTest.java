@@ -52,11 +52,14 @@ import static com.android.internal.telephony.satellite.SatelliteConstants.CONFIG
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.inOrder;
@@ -130,11 +133,14 @@ import org.mockito.InOrder;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 public class PersistAtomsStorageTest extends TelephonyTest {
@@ -1490,11 +1496,21 @@ public class PersistAtomsStorageTest extends TelephonyTest {
         private long mTimeMillis = START_TIME_MILLIS;
 
         TestablePersistAtomsStorage(Context context) {
-            super(context);
+            this(context, false /* journalEnabled */);
+        }
+
+        TestablePersistAtomsStorage(Context context, boolean journalEnabled) {
+            super(context, journalEnabled);
             // Remove delay for saving to persistent storage during tests.
             mSaveImmediately = true;
         }
 
+        @Override
+        protected void postWritePendingAtoms() {
+            // Write synchronously so that tests can verify the file content right away.
+            writePendingAtoms();
+        }
+
         @Override
         protected long getWallTimeMillis() {
             // NOTE: super class constructor will be executed before private field is set, which
@@ -1764,6 +1780,133 @@ public class PersistAtomsStorageTest extends TelephonyTest {
                 mServiceSwitches, mPersistAtomsStorage.getCellularDataServiceSwitches(0L));
     }
 
+    @Test
+    @SmallTest
+    public void journal_addAtomsAppendedToJournal() throws Exception {
+        File journalFile = setUpJournal();
+        mTestFile.delete();
+        mPersistAtomsStorage = new TestablePersistAtomsStorage(mContext, true);
+        mPersistAtomsStorage.addVoiceCallSession(mCall1Proto);
+        byte[] snapshot = Files.readAllBytes(mTestFile.toPath());
+        long journalLength = journalFile.length();
+
+        mPersistAtomsStorage.addVoiceCallSession(mCall2Proto);
+        mPersistAtomsStorage.addVoiceCallSession(mCall3Proto);
+
+        // the snapshot should not be rewritten, only the changes should be appended
+        assertArrayEquals(snapshot, Files.readAllBytes(mTestFile.toPath()));
+        assertTrue(journalFile.length() > journalLength);
+
+        mPersistAtomsStorage = new TestablePersistAtomsStorage(mContext, true);
+        mPersistAtomsStorage.incTimeMillis(100L);
+        assertProtoArrayEqualsIgnoringOrder(
+                new VoiceCallSession[] {mCall1Proto, mCall2Proto, mCall3Proto},
+                mPersistAtomsStorage.getVoiceCallSessions(0L));
+    }
+
+    @Test
+    @SmallTest
+    public void journal_deltaSmallerThanSnapshot() throws Exception {
+        File journalFile = setUpJournal();
+        createTestFile(START_TIME_MILLIS);
+        mPersistAtomsStorage = new TestablePersistAtomsStorage(mContext, true);
+        mPersistAtomsStorage.addVoiceCallSession(mCall1Proto);
+        long snapshotLength = mTestFile.length();
+        long journalLength = journalFile.length();
+
+        mPersistAtomsStorage.addVoiceCallSession(mCall2Proto);
+
+        // only the voice call sessions are written, instead of all atoms
+        assertEquals(snapshotLength, mTestFile.length());
+        assertTrue(journalFile.length() - journalLength < snapshotLength / 2);
+    }
+
+    @Test
+    @SmallTest
+    public void journal_pullCompactsJournal() throws Exception {
+        File journalFile = setUpJournal();
+        mTestFile.delete();
+        mPersistAtomsStorage = new TestablePersistAtomsStorage(mContext, true);
+        mPersistAtomsStorage.addVoiceCallSession(mCall1Proto);
+        mPersistAtomsStorage.addVoiceCallSession(mCall2Proto);
+        long journalLength = journalFile.length();
+        mPersistAtomsStorage.incTimeMillis(100L);
+
+        mPersistAtomsStorage.getVoiceCallSessions(0L);
+
+        // pulling should save the whole atoms and discard the journal
+        assertTrue(journalFile.length() < journalLength);
+        assertArrayEquals(
+                PersistAtoms.toByteArray(mPersistAtomsStorage.getAtomsProto()),
+                Files.readAllBytes(mTestFile.toPath()));
+        mPersistAtomsStorage = new TestablePersistAtomsStorage(mContext, true);
+        mPersistAtomsStorage.incTimeMillis(100L);
+        assertProtoArrayEquals(
+                new VoiceCallSession[0], mPersistAtomsStorage.getVoiceCallSessions(0L));
+    }
+
+    @Test
+    @SmallTest
+    public void journal_staleJournalIgnored() throws Exception {
+        setUpJournal();
+        mTestFile.delete();
+        mPersistAtomsStorage = new TestablePersistAtomsStorage(mContext, true);
+        mPersistAtomsStorage.addVoiceCallSession(mCall1Proto);
+        mPersistAtomsStorage.addVoiceCallSession(mCall2Proto);
+
+        // a snapshot written after the journal, e.g. before crashing during compaction
+        createEmptyTestFile();
+
+        mPersistAtomsStorage = new TestablePersistAtomsStorage(mContext, true);
+        mPersistAtomsStorage.incTimeMillis(100L);
+        assertStorageIsEmptyForAllAtoms();
+    }
+
+    @Test
+    @SmallTest
+    public void journal_buildChangedSnapshotRewritten() throws Exception {
+        setUpJournal();
+        // atoms saved by the previous build
+        PersistAtoms atoms = new PersistAtoms();
+        atoms.buildFingerprint = "old-build";
+        atoms.voiceCallSession = new VoiceCallSession[] {mCall2Proto};
+        try (FileOutputStream stream = new FileOutputStream(mTestFile)) {
+            stream.write(PersistAtoms.toByteArray(atoms));
+        }
+        mPersistAtomsStorage = new TestablePersistAtomsStorage(mContext, true);
+        mPersistAtomsStorage.addVoiceCallSession(mCall1Proto);
+
+        // the atoms of the new build should not be appended to the journal of the old snapshot
+        mPersistAtomsStorage = new TestablePersistAtomsStorage(mContext, true);
+        mPersistAtomsStorage.incTimeMillis(100L);
+        assertProtoArrayEquals(
+                new VoiceCallSession[] {mCall1Proto},
+                mPersistAtomsStorage.getVoiceCallSessions(0L));
+    }
+
+    @Test
+    @SmallTest
+    public void journal_truncatedRecordDropped() throws Exception {
+        File journalFile = setUpJournal();
+        mTestFile.delete();
+        mPersistAtomsStorage = new TestablePersistAtomsStorage(mContext, true);
+        mPersistAtomsStorage.addVoiceCallSession(mCall1Proto);
+        mPersistAtomsStorage.addVoiceCallSession(mCall2Proto);
+        long journalLength = journalFile.length();
+        mPersistAtomsStorage.addVoiceCallSession(mCall3Proto);
+
+        // simulate power loss while appending the last record
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            file.setLength(journalLength + 5);
+        }
+
+        mPersistAtomsStorage = new TestablePersistAtomsStorage(mContext, true);
+        mPersistAtomsStorage.incTimeMillis(100L);
+        assertProtoArrayEqualsIgnoringOrder(
+                new VoiceCallSession[] {mCall1Proto, mCall2Proto},
+                mPersistAtomsStorage.getVoiceCallSessions(0L));
+    }
+
     @Test
     @SmallTest
     public void addVoiceCallSession_emptyProto() throws Exception {
@@ -5372,8 +5515,50 @@ public class PersistAtomsStorageTest extends TelephonyTest {
         assertEquals(null, sipTransportSession);
     }
 
+    @Test
+    @SmallTest
+    public void flushAtoms_doesNotBlockRecorders() throws Exception {
+        createEmptyTestFile();
+        mPersistAtomsStorage = new TestablePersistAtomsStorage(mContext);
+        mPersistAtomsStorage.mSaveImmediately = false;
+        CountDownLatch writeStarted = new CountDownLatch(1);
+        CountDownLatch writeReleased = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            writeStarted.countDown();
+            writeReleased.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(mTestFileOutputStream).write(any(byte[].class));
+
+        Thread flusher = new Thread(() -> mPersistAtomsStorage.flushAtoms());
+        flusher.start();
+        assertTrue(writeStarted.await(5, TimeUnit.SECONDS));
+
+        // the file write is in progress, recording an atom must not wait for it
+        Thread recorder =
+                new Thread(() -> mPersistAtomsStorage.addVoiceCallSession(mCall1Proto));
+        recorder.start();
+        recorder.join(1000L);
+        boolean recorderBlocked = recorder.isAlive();
+        writeReleased.countDown();
+        flusher.join(5000L);
+        recorder.join(5000L);
+
+        assertFalse(recorderBlocked);
+        assertFalse(flusher.isAlive());
+    }
+
     /* Utilities */
 
+    /** Saves atoms with real file IO, and returns the journal file. */
+    private File setUpJournal() throws Exception {
+        File journalFile = mFolder.newFile("PersistAtomsStorageTest_journal.pb");
+        journalFile.delete();
+        doReturn(journalFile).when(mContext).getFileStreamPath("persist_atoms_journal.pb");
+        doAnswer(invocation -> new FileOutputStream(mTestFile))
+                .when(mContext).openFileOutput(anyString(), anyInt());
+        return journalFile;
+    }
+
     private void createEmptyTestFile() throws Exception {
         PersistAtoms atoms = new PersistAtoms();
         FileOutputStream stream = new FileOutputStream(mTestFile);
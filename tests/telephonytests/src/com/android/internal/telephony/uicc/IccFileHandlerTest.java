@@ -24,9 +24,12 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -44,7 +47,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class IccFileHandlerTest {
     CommandsInterface mCi;
@@ -534,4 +539,197 @@ public class IccFileHandlerTest {
         verify(mCi, times(1)).iccIOForApp(anyInt(), anyInt(), anyString(),
                 anyInt(), anyInt(), anyInt(), anyString(), isNull(), isNull(), any(Message.class));
     }
+
+    /**
+     * Answer the reads right away with as many bytes as requested, each record filled with its
+     * record number, and hold the GET RESPONSE answered with the given header.
+     */
+    private void mockCardWithHeldGetResponse(String header, ArrayList<Message> getResponses) {
+        doAnswer(
+                invocation -> {
+                    int command = invocation.getArgument(0);
+                    Message response = invocation.getArgument(9);
+                    if (command == 0xc0) {
+                        AsyncResult.forMessage(response, new IccIoResult(0x90, 0x00,
+                                IccUtils.hexStringToBytes(header)), null);
+                        getResponses.add(response);
+                        return null;
+                    }
+                    // Like a real card, a read within the file succeeds whatever its size.
+                    byte[] data = new byte[(int) invocation.getArgument(5)];
+                    if (command == 0xb2) {
+                        Arrays.fill(data, (byte) (int) invocation.getArgument(3));
+                    }
+                    AsyncResult.forMessage(response, new IccIoResult(0x90, 0x00, data), null);
+                    response.sendToTarget();
+                    return null;
+                }).when(mCi).iccIOForApp(anyInt(), anyInt(), anyString(), anyInt(), anyInt(),
+                anyInt(), isNull(), isNull(), isNull(), any(Message.class));
+    }
+
+    @Test
+    public void loadEFTransparent_HeaderFromCache() {
+        int efid = 0x4f3a;
+        String header = "0000000A4F3A040000FFFF01020000";
+        IccFileHeaderCache cache = mock(IccFileHeaderCache.class);
+        doReturn(IccUtils.hexStringToBytes(header)).when(cache).get("3F007F105F3A", efid);
+        mIccFileHandler.setFileHeaderCache(cache);
+        ArrayList<Message> getResponses = new ArrayList<>();
+        mockCardWithHeldGetResponse(header, getResponses);
+        AtomicReference<AsyncResult> loaded = new AtomicReference<>();
+        Handler handler = new Handler(mTestLooper.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                loaded.set((AsyncResult) msg.obj);
+            }
+        };
+
+        mIccFileHandler.loadEFTransparent(efid, handler.obtainMessage());
+        mTestLooper.dispatchAll();
+        // The READ BINARY is sent without waiting for the GET RESPONSE, but the contents are
+        // held until the card confirms the header.
+        verify(mCi).iccIOForApp(eq(0xb0), eq(efid), eq("3F007F105F3A"), eq(0), eq(0), eq(10),
+                isNull(), isNull(), isNull(), any(Message.class));
+        assertEquals(1, getResponses.size());
+        assertNull(loaded.get());
+
+        getResponses.get(0).sendToTarget();
+        mTestLooper.dispatchAll();
+
+        assertNull(loaded.get().exception);
+        assertEquals(10, ((byte[]) loaded.get().result).length);
+        verify(mCi, times(2)).iccIOForApp(anyInt(), anyInt(), anyString(),
+                anyInt(), anyInt(), anyInt(), isNull(), isNull(), isNull(), any(Message.class));
+        verify(cache, never()).remove(anyString(), anyInt());
+    }
+
+    @Test
+    public void loadEFTransparent_OutdatedHeaderFromCache() {
+        int efid = 0x4f3a;
+        IccFileHeaderCache cache = mock(IccFileHeaderCache.class);
+        doReturn(IccUtils.hexStringToBytes("0000000A4F3A040000FFFF01020000"))
+                .when(cache).get("3F007F105F3A", efid);
+        mIccFileHandler.setFileHeaderCache(cache);
+        ArrayList<Message> getResponses = new ArrayList<>();
+        // The file grew from 10 to 12 bytes since its header was cached.
+        mockCardWithHeldGetResponse("0000000C4F3A040000FFFF01020000", getResponses);
+        AtomicReference<AsyncResult> loaded = new AtomicReference<>();
+        Handler handler = new Handler(mTestLooper.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                loaded.set((AsyncResult) msg.obj);
+            }
+        };
+
+        mIccFileHandler.loadEFTransparent(efid, handler.obtainMessage());
+        mTestLooper.dispatchAll();
+        // The read of the old size succeeded, but its truncated contents are not sent.
+        verify(mCi).iccIOForApp(eq(0xb0), eq(efid), eq("3F007F105F3A"), eq(0), eq(0), eq(10),
+                isNull(), isNull(), isNull(), any(Message.class));
+        assertNull(loaded.get());
+
+        getResponses.get(0).sendToTarget();
+        mTestLooper.dispatchAll();
+
+        verify(mCi).iccIOForApp(eq(0xb0), eq(efid), eq("3F007F105F3A"), eq(0), eq(0), eq(12),
+                isNull(), isNull(), isNull(), any(Message.class));
+        assertNull(loaded.get().exception);
+        assertEquals(12, ((byte[]) loaded.get().result).length);
+        verify(cache).remove("3F007F105F3A", efid);
+        verify(cache).put(eq("3F007F105F3A"), eq(efid), any(byte[].class));
+    }
+
+    @Test
+    public void loadEFLinearFixedAll_OutdatedHeaderFromCache() {
+        int efid = 0x4f30;
+        IccFileHeaderCache cache = mock(IccFileHeaderCache.class);
+        // 2 records of 16 bytes cached, while the card now has 3.
+        doReturn(IccUtils.hexStringToBytes("000000204F30040000FFFF01020110"))
+                .when(cache).get("3F007F105F3A", efid);
+        mIccFileHandler.setFileHeaderCache(cache);
+        ArrayList<Message> getResponses = new ArrayList<>();
+        mockCardWithHeldGetResponse("000000304F30040000FFFF01020110", getResponses);
+        AtomicReference<AsyncResult> loaded = new AtomicReference<>();
+        Handler handler = new Handler(mTestLooper.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                loaded.set((AsyncResult) msg.obj);
+            }
+        };
+
+        mIccFileHandler.loadEFLinearFixedAll(efid, null, handler.obtainMessage());
+        mTestLooper.dispatchAll();
+        assertNull(loaded.get());
+
+        getResponses.get(0).sendToTarget();
+        mTestLooper.dispatchAll();
+
+        assertNull(loaded.get().exception);
+        ArrayList<byte[]> records = (ArrayList<byte[]>) loaded.get().result;
+        assertEquals(3, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(i + 1, records.get(i)[0]);
+        }
+        verify(cache).remove("3F007F105F3A", efid);
+        verify(cache).put(eq("3F007F105F3A"), eq(efid), any(byte[].class));
+    }
+
+    @Test
+    public void loadEFLinearFixedAll_Pipelined() {
+        int efid = 0x4f30;
+        mIccFileHandler.setReadPipelineDepth(3);
+        ArrayList<Message> pendingReads = new ArrayList<>();
+        doAnswer(
+                invocation -> {
+                    int command = invocation.getArgument(0);
+                    Message response = invocation.getArgument(9);
+                    if (command == 0xc0) {
+                        // 5 records of 16 bytes.
+                        IccIoResult iir = new IccIoResult(0x90, 0x00, IccUtils.hexStringToBytes(
+                                "000000504F30040000FFFF01020110"));
+                        AsyncResult.forMessage(response, iir, null);
+                        response.sendToTarget();
+                    } else {
+                        // Hold the read until the test answers it. Each record is filled with
+                        // its record number.
+                        byte[] record = new byte[0x10];
+                        Arrays.fill(record, (byte) (int) invocation.getArgument(3));
+                        AsyncResult.forMessage(response, new IccIoResult(0x90, 0x00, record),
+                                null);
+                        pendingReads.add(response);
+                    }
+                    return null;
+                }).when(mCi).iccIOForApp(anyInt(), anyInt(), anyString(), anyInt(), anyInt(),
+                anyInt(), isNull(), isNull(), isNull(), any(Message.class));
+        AtomicReference<AsyncResult> loaded = new AtomicReference<>();
+        Handler handler = new Handler(mTestLooper.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                loaded.set((AsyncResult) msg.obj);
+            }
+        };
+
+        mIccFileHandler.loadEFLinearFixedAll(efid, null, handler.obtainMessage());
+        mTestLooper.dispatchAll();
+        assertEquals(3, pendingReads.size());
+
+        // Answer out of order; each response sends the next read.
+        pendingReads.get(2).sendToTarget();
+        pendingReads.get(0).sendToTarget();
+        mTestLooper.dispatchAll();
+        assertEquals(5, pendingReads.size());
+        assertNull(loaded.get());
+
+        pendingReads.get(4).sendToTarget();
+        pendingReads.get(3).sendToTarget();
+        pendingReads.get(1).sendToTarget();
+        mTestLooper.dispatchAll();
+
+        assertNull(loaded.get().exception);
+        ArrayList<byte[]> records = (ArrayList<byte[]>) loaded.get().result;
+        assertEquals(5, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(i + 1, records.get(i)[0]);
+        }
+    }
 }
@@ -162,4 +162,55 @@ public class SimPhonebookRecordCacheTest extends TelephonyTest {
             assertEquals(adnRecords.size(), 0);
         }
     }
+
+    @Test
+    public void testUpdatePhonebookRecordBySearchInLargePhonebook() {
+        mSimulatedCommands.notifySimPhonebookChanged();
+        waitForLastHandlerAction(mSimPhonebookRecordCacheUt);
+
+        List<SimPhonebookRecord> records = new ArrayList<SimPhonebookRecord>();
+        for (int i = 1; i <= 1000; i++) {
+            if (i == 500) {
+                // Same alpha tag and number as the last record, but with an email.
+                records.add(new SimPhonebookRecord(i, "Dup", "555",
+                        new String[] {"dup@example.com"}, null));
+            } else if (i == 1000) {
+                records.add(new SimPhonebookRecord(i, "Dup", "555", null, null));
+            } else {
+                records.add(new SimPhonebookRecord(i, "Name" + i, String.valueOf(i), null, null));
+            }
+        }
+        mSimPhonebookRecordCacheUt.handleMessage(Message.obtain(mSimPhonebookRecordCacheUt,
+                EVENT_PHONEBOOK_RECORDS_RECEIVED, new AsyncResult(null,
+                        new ReceivedPhonebookRecords(ReceivedPhonebookRecords.RS_FINAL, records),
+                        null)));
+        assertEquals(1000, mSimPhonebookRecordCacheUt.getAdnRecords().size());
+
+        // The emails are compared too, so only the last record matches.
+        AdnRecord oldAdn = new AdnRecord(IccConstants.EF_ADN, 0, "Dup", "555", null, null);
+        AdnRecord newAdn = new AdnRecord(IccConstants.EF_ADN, 0, "New", "556", null, null);
+        mSimPhonebookRecordCacheUt.updateSimPbAdnBySearch(oldAdn, newAdn, null);
+        waitForLastHandlerAction(mSimPhonebookRecordCacheUt);
+        List<AdnRecord> adnRecords = mSimPhonebookRecordCacheUt.getAdnRecords();
+        assertEquals("Dup", adnRecords.get(499).getAlphaTag());
+        assertEquals("New", adnRecords.get(999).getAlphaTag());
+        assertEquals("556", adnRecords.get(999).getNumber());
+
+        // A partial delta only changes the received record, the lowest record ID matches.
+        records = new ArrayList<SimPhonebookRecord>();
+        records.add(new SimPhonebookRecord(2, "New", "556", null, null));
+        mSimPhonebookRecordCacheUt.handleMessage(Message.obtain(mSimPhonebookRecordCacheUt,
+                EVENT_PHONEBOOK_RECORDS_RECEIVED, new AsyncResult(null,
+                        new ReceivedPhonebookRecords(ReceivedPhonebookRecords.RS_OK, records),
+                        null)));
+        oldAdn = new AdnRecord(IccConstants.EF_ADN, 0, "New", "556", null, null);
+        newAdn = new AdnRecord(IccConstants.EF_ADN, 0, "Newer", "557", null, null);
+        mSimPhonebookRecordCacheUt.updateSimPbAdnBySearch(oldAdn, newAdn, null);
+        waitForLastHandlerAction(mSimPhonebookRecordCacheUt);
+        adnRecords = mSimPhonebookRecordCacheUt.getAdnRecords();
+        assertEquals(1000, adnRecords.size());
+        assertEquals("Newer", adnRecords.get(1).getAlphaTag());
+        assertEquals("New", adnRecords.get(999).getAlphaTag());
+        assertEquals("Name3", adnRecords.get(2).getAlphaTag());
+    }
 }
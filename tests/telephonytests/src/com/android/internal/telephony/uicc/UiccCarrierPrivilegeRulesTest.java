@@ -43,6 +43,7 @@ import org.junit.runner.RunWith;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.io.ByteArrayOutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
@@ -268,6 +269,39 @@ public class UiccCarrierPrivilegeRulesTest extends TelephonyTest {
         assertEquals(0, mUiccCarrierPrivilegeRules.getPackageNames().size());
     }
 
+    @Test
+    @SmallTest
+    public void testParseRule_LargeRuleSet() {
+        /**
+         * FF40 82 xxxx
+         *   E2 22 (x 300)
+         *      E1 1A
+         *         C1 14 <SHA-1 certificate hash>
+         *         CA 02 <package name>
+         *      E3 04
+         *         DB 02 0001
+         */
+        final int ruleCount = 300;
+        ByteArrayOutputStream refArDos = new ByteArrayOutputStream();
+        for (int i = 0; i < ruleCount; i++) {
+            refArDos.writeBytes(IccUtils.hexStringToBytes(String.format(
+                    "E222E11AC114%040XCA02%04XE304DB020001", i, 0x6161 + (i % 26) * 0x101)));
+        }
+        final int length = refArDos.size();
+        ByteArrayOutputStream rules = new ByteArrayOutputStream();
+        rules.writeBytes(IccUtils.hexStringToBytes(String.format("FF4082%04X", length)));
+        rules.writeBytes(refArDos.toByteArray());
+
+        List<UiccAccessRule> accessRules = UiccCarrierPrivilegeRules.parseRules(
+                rules.toByteArray());
+
+        assertEquals(ruleCount, accessRules.size());
+        assertEquals("aa", accessRules.get(0).getPackageName());
+        assertEquals("bb", accessRules.get(27).getPackageName());
+        assertTrue(String.format("%040x", ruleCount - 1).equalsIgnoreCase(
+                accessRules.get(ruleCount - 1).getCertificateHexString()));
+    }
+
     @Test
     @SmallTest
     public void testRetryARAM_shouldRetry() {
@@ -343,4 +343,117 @@ public class ApduSenderTest {
         assertTrue(mResponseCaptor.exception instanceof ApduException);
         verify(mMockCi, times(1)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
     }
+
+    @Test
+    public void testSendReusingIdleChannel() throws InterruptedException {
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "A1A1A19000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000", "A29000",
+                "A39000", "A49000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+        mSender.setChannelIdleTimeoutMillis(1000);
+
+        // A burst of requests is sent on a single logical channel.
+        String[] responses = {"A1", "A2", "A3"};
+        for (String expected : responses) {
+            ResponseCaptor responseCaptor = new ResponseCaptor();
+            mSelectResponse = null;
+            mSender.send((selectResponse, requestBuilder) -> {
+                mSelectResponse = selectResponse;
+                requestBuilder.addApdu(10, 1, 2, 3, 0, "a");
+            }, responseCaptor, mHandler);
+            mLooper.processAllMessages();
+
+            assertEquals("A1A1A19000", IccUtils.bytesToHexString(mSelectResponse));
+            assertEquals(expected, IccUtils.bytesToHexString(responseCaptor.response));
+        }
+        verify(mMockCi, times(1)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+        verify(mMockCi, times(3)).iccTransmitApduLogicalChannel(eq(channel), eq(channel | 10),
+                eq(1), eq(2), eq(3), eq(0), eq("a"), anyBoolean(), any());
+        verify(mMockCi, never()).iccCloseLogicalChannel(anyInt(), anyBoolean(), any());
+
+        // The channel is closed once idle for the timeout, and opened again for the next request.
+        mLooper.moveTimeForward(1000);
+        mLooper.processAllMessages();
+        verify(mMockCi, times(1)).iccCloseLogicalChannel(eq(channel), eq(true /*isEs10*/), any());
+
+        mSender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+        assertEquals("A4", IccUtils.bytesToHexString(mResponseCaptor.response));
+        verify(mMockCi, times(2)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+    }
+
+    @Test
+    public void testSendRetryingOnNewChannelAfterReusedChannelFails()
+            throws InterruptedException {
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        // The card reports the reused channel is not open anymore, e.g. after a SIM refresh.
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000", "6881",
+                "A29000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+        mSender.setChannelIdleTimeoutMillis(1000);
+
+        mSender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), new ResponseCaptor(), mHandler);
+        mLooper.processAllMessages();
+        verify(mMockCi, times(1)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+
+        mSender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        // The failed channel is closed and the request succeeds on a newly opened channel.
+        assertNull(mResponseCaptor.exception);
+        assertEquals("A2", IccUtils.bytesToHexString(mResponseCaptor.response));
+        verify(mMockCi, times(2)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+        verify(mMockCi, times(1)).iccCloseLogicalChannel(eq(channel), eq(true /*isEs10*/), any());
+        verify(mMockCi, times(3)).iccTransmitApduLogicalChannel(eq(channel), eq(channel | 10),
+                eq(1), eq(2), eq(3), eq(0), eq("a"), anyBoolean(), any());
+    }
+
+    @Test
+    public void testSendNotRetryingAfterReusedChannelFailsWithSimRefresh()
+            throws InterruptedException {
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        // The command may have been executed before the card refreshed, so it is not resent.
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000", "6F00",
+                "A29000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+        mSender.setChannelIdleTimeoutMillis(1000);
+
+        mSender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), new ResponseCaptor(), mHandler);
+        mLooper.processAllMessages();
+
+        mSender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler);
+        mLooper.processAllMessages();
+
+        assertTrue(mResponseCaptor.exception instanceof ApduException);
+        assertEquals(0x6F00, ((ApduException) mResponseCaptor.exception).getApduStatus());
+        verify(mMockCi, times(1)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+        verify(mMockCi, times(2)).iccTransmitApduLogicalChannel(eq(channel), eq(channel | 10),
+                eq(1), eq(2), eq(3), eq(0), eq("a"), anyBoolean(), any());
+    }
+
+    @Test
+    public void testSendRequiringNewChannelClosesIdleChannel() throws InterruptedException {
+        int channel = LogicalChannelMocker.mockOpenLogicalChannelResponse(mMockCi, "9000");
+        LogicalChannelMocker.mockSendToLogicalChannel(mMockCi, channel, "A19000", "A29000");
+        LogicalChannelMocker.mockCloseLogicalChannel(mMockCi, channel);
+        mSender.setChannelIdleTimeoutMillis(1000);
+
+        mSender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), new ResponseCaptor(), mHandler);
+        mLooper.processAllMessages();
+
+        mSender.send((selectResponse, requestBuilder) -> requestBuilder.addApdu(
+                10, 1, 2, 3, 0, "a"), mResponseCaptor, mHandler, true /* requireNewChannel */);
+        mLooper.processAllMessages();
+
+        // The idle channel is closed and the request is sent on a newly opened channel.
+        assertEquals("A2", IccUtils.bytesToHexString(mResponseCaptor.response));
+        verify(mMockCi, times(2)).iccOpenLogicalChannel(eq(AID), anyInt(), any());
+        verify(mMockCi, times(1)).iccCloseLogicalChannel(eq(channel), eq(true /*isEs10*/), any());
+    }
 }